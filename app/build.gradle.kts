@@ -69,6 +69,12 @@ dependencies {
     implementation("io.ktor:ktor-client-logging:$ktorVersion")
 
     // 这里先空着，以后有其他依赖再加进来，比如日志框架什么的。
+
+    // 测试用 kotlin-test (JUnit 5)。下载相关的测试用本地起的 HTTP 服务器模拟各种故障，不需要额外的依赖。
+    testImplementation(kotlin("test"))
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    // 新版 Gradle 不再自带 JUnit Platform 启动器，要自己放到测试运行时的类路径上
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 java {
@@ -77,6 +83,15 @@ java {
     targetCompatibility = JavaVersion.VERSION_21
 }
 
+tasks.test {
+    useJUnitPlatform()
+    // 日志、缓存这些目录都在 user.home 下面，测试时换到构建目录里，别碰真正的启动器目录。
+    systemProperty("user.home", layout.buildDirectory.dir("test-home").get().asFile.path)
+    // 测试时默认开着断言，协程会因此进入调试模式 (每次调度都改线程名)，跟正式运行不一样，分配检查也会被它淹没
+    systemProperty("kotlinx.coroutines.debug", "off")
+    jvmArgs("-Dfile.encoding=UTF-8")
+}
+
 // --- 明确配置一下 'run' 任务 (我猜它是 JavaExec 类型的) ---
 tasks.withType<JavaExec>().configureEach {
     // 给所有 JavaExec 类型的任务都应用编码设置，当然也包括 'run' 任务。
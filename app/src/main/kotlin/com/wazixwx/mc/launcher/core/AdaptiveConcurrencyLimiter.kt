@@ -0,0 +1,248 @@
+/**
+ * @file AdaptiveConcurrencyLimiter.kt
+ * @brief 按主机自适应调整下载并发数的限流器。
+ *        用 AIMD (加性增、乘性减) 的思路：吞吐还在涨就慢慢多开连接，出错或超时就砍一截。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * @brief 单个主机的并发限制配置。
+ *
+ * @property initialLimit 初始并发数。
+ * @property minLimit 并发数下限，出错再多也不会低于这个值。
+ * @property maxLimit 并发数上限。
+ */
+data class HostLimitProfile(
+    val initialLimit: Int,
+    val minLimit: Int,
+    val maxLimit: Int
+)
+
+/**
+ * @brief 某个主机当前的并发状态，给界面或日志看的指标快照。
+ *
+ * @property host 主机名。
+ * @property limit 当前允许的最大并发数。
+ * @property inFlight 正在进行的请求数。
+ * @property waiting 排队等待许可的请求数。
+ * @property throughputBytesPerSecond 最近一个统计窗口的吞吐量 (字节/秒)。
+ * @property completed 累计成功的请求数。
+ * @property failures 累计失败 (出错或超时) 的请求数。
+ */
+data class HostConcurrencyMetrics(
+    val host: String,
+    val limit: Int,
+    val inFlight: Int,
+    val waiting: Int,
+    val throughputBytesPerSecond: Long,
+    val completed: Long,
+    val failures: Long
+)
+
+/**
+ * @brief 按主机分别限流的自适应并发控制器。
+ *        每个主机有独立的许可数，几千个小资源文件和几个大 JAR 走不同的主机，互不拖累。
+ *        调整规则：
+ *        - 每个统计窗口 (约 1 秒) 结束时比较吞吐：没变差且许可确实被用满了，就加 1；明显变差就减 1。
+ *        - 请求失败 (出错、超时) 时乘以 [DECREASE_FACTOR] 快速收缩。
+ *
+ * @param profiles 各主机的配置，没配置的主机用 [defaultProfile]。
+ * @param defaultProfile 默认配置。
+ */
+class AdaptiveConcurrencyLimiter(
+    private val profiles: Map<String, HostLimitProfile> = DEFAULT_PROFILES,
+    private val defaultProfile: HostLimitProfile = HostLimitProfile(initialLimit = 8, minLimit = 1, maxLimit = 32)
+) {
+
+    private val hosts = ConcurrentHashMap<String, HostLimiter>() // 每个主机一个限流器
+
+    /**
+     * @brief 获取某个主机的一个许可，许可用完时挂起等待。
+     *
+     * @param host 主机名。
+     */
+    suspend fun acquire(host: String) = hostLimiter(host).acquire()
+
+    /**
+     * @brief 不等待地尝试获取某个主机的一个许可。已经拿着许可、还想再多开连接的时候用这个：
+     *        拿着许可挂起等更多许可，大家互相等就会死锁。
+     *
+     * @param host 主机名。
+     * @return 拿到了返回 `true`，要用 [release] 归还；许可已用完 (或者有人在排队) 返回 `false`。
+     */
+    fun tryAcquire(host: String): Boolean = hostLimiter(host).tryAcquire()
+
+    /**
+     * @brief 归还许可，同时反馈这次请求的结果用来调整并发数。
+     *
+     * @param host 主机名。
+     * @param bytes 这次请求传输的字节数。
+     * @param success 请求是否成功；`null` 表示请求被取消，不参与调整。
+     */
+    fun release(host: String, bytes: Long, success: Boolean?) {
+        hostLimiter(host).release(bytes, success)
+    }
+
+    /**
+     * @brief 获取所有主机当前的并发指标。
+     *
+     * @return 每个用到过的主机一条指标，按主机名排序。
+     */
+    fun metrics(): List<HostConcurrencyMetrics> = hosts.values.map { it.metrics() }.sortedBy { it.host }
+
+    private fun hostLimiter(host: String): HostLimiter =
+        hosts.computeIfAbsent(host) { HostLimiter(it, profiles[it] ?: defaultProfile) }
+
+    /**
+     * @brief 单个主机的限流器：一个许可数可以动态调整的协程信号量。
+     */
+    private class HostLimiter(val host: String, val profile: HostLimitProfile) {
+        private val lock = Any()
+        private val waiters = ArrayDeque<CompletableDeferred<Unit>>() // 排队等许可的协程
+        private var limit = profile.initialLimit
+        private var inFlight = 0
+
+        // --- 统计窗口 ---
+        private var windowStartNanos = System.nanoTime()
+        private var windowBytes = 0L
+        private var windowSaturated = false // 这个窗口里许可有没有被用满过 (没用满时加许可也没意义)
+        private var lastThroughput = 0.0 // 上一个窗口的吞吐量 (字节/秒)
+        private var completed = 0L
+        private var failures = 0L
+
+        fun tryAcquire(): Boolean = synchronized(lock) {
+            if (inFlight < limit && waiters.isEmpty()) {
+                inFlight++
+                if (inFlight >= limit) windowSaturated = true
+                true
+            } else {
+                false
+            }
+        }
+
+        suspend fun acquire() {
+            val waiter: CompletableDeferred<Unit>
+            synchronized(lock) {
+                if (inFlight < limit && waiters.isEmpty()) {
+                    inFlight++
+                    if (inFlight >= limit) windowSaturated = true
+                    return
+                }
+                windowSaturated = true
+                waiter = CompletableDeferred()
+                waiters.addLast(waiter)
+            }
+            try {
+                waiter.await()
+            } catch (e: CancellationException) {
+                synchronized(lock) {
+                    // 如果已经从队列里被取走了，说明许可已经分给我们了，要还回去
+                    if (!waiters.remove(waiter)) {
+                        inFlight--
+                        dispatchLocked()
+                    }
+                }
+                throw e
+            }
+        }
+
+        fun release(bytes: Long, success: Boolean?) {
+            synchronized(lock) {
+                inFlight--
+                when (success) {
+                    true -> {
+                        completed++
+                        windowBytes += bytes
+                        maybeCloseWindowLocked()
+                    }
+                    false -> {
+                        failures++
+                        // 乘性减：出错或超时说明对方扛不住了，赶紧收
+                        val decreased = (limit * DECREASE_FACTOR).toInt().coerceAtLeast(profile.minLimit)
+                        if (decreased < limit) {
+                            Logger.info(TAG) { "[$host] request failed, limit $limit -> $decreased" }
+                            limit = decreased
+                        }
+                        resetWindowLocked()
+                    }
+                    null -> Unit // 被取消的请求不参与调整
+                }
+                dispatchLocked()
+            }
+        }
+
+        /**
+         * @brief 统计窗口到期时根据吞吐变化调整许可数 (加性增)。
+         */
+        private fun maybeCloseWindowLocked() {
+            val now = System.nanoTime()
+            val elapsed = now - windowStartNanos
+            if (elapsed < WINDOW_NANOS) return
+            val throughput = windowBytes * 1_000_000_000.0 / elapsed
+            val previous = lastThroughput
+            when {
+                // 吞吐没变差，而且许可被用满过，说明还能再多开一个连接试试
+                windowSaturated && throughput >= previous * 0.95 && limit < profile.maxLimit -> limit++
+                // 吞吐明显下降，多出来的连接反而在抢带宽，退一步
+                previous > 0 && throughput < previous * 0.8 && limit > profile.minLimit -> limit--
+            }
+            lastThroughput = throughput
+            resetWindowLocked()
+        }
+
+        private fun resetWindowLocked() {
+            windowStartNanos = System.nanoTime()
+            windowBytes = 0L
+            windowSaturated = false
+        }
+
+        /**
+         * @brief 把空出来的许可分给排队的协程。
+         */
+        private fun dispatchLocked() {
+            while (inFlight < limit && waiters.isNotEmpty()) {
+                inFlight++
+                waiters.removeFirst().complete(Unit)
+            }
+        }
+
+        fun metrics(): HostConcurrencyMetrics = synchronized(lock) {
+            HostConcurrencyMetrics(
+                host = host,
+                limit = limit,
+                inFlight = inFlight,
+                waiting = waiters.size,
+                throughputBytesPerSecond = lastThroughput.toLong(),
+                completed = completed,
+                failures = failures
+            )
+        }
+    }
+
+    companion object {
+        private const val TAG = "AdaptiveConcurrencyLimiter" // 日志来源标识
+        private const val WINDOW_NANOS = 1_000_000_000L // 统计窗口长度 (1 秒)
+        private const val DECREASE_FACTOR = 0.7 // 失败时许可数乘以这个系数
+
+        /**
+         * @brief Mojang 各下载主机的默认配置。
+         *        资源文件都是几 KB 的小文件，主要卡在延迟上，多开连接收益大；
+         *        piston-data 上是客户端 JAR 这种大文件，开太多反而互相抢带宽。
+         */
+        val DEFAULT_PROFILES = mapOf(
+            "resources.download.minecraft.net" to HostLimitProfile(initialLimit = 16, minLimit = 4, maxLimit = 64),
+            "libraries.minecraft.net" to HostLimitProfile(initialLimit = 8, minLimit = 2, maxLimit = 32),
+            "piston-data.mojang.com" to HostLimitProfile(initialLimit = 4, minLimit = 1, maxLimit = 16),
+            "piston-meta.mojang.com" to HostLimitProfile(initialLimit = 4, minLimit = 1, maxLimit = 8)
+        )
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * @file ByteBufferPool.kt
+ * @brief 可复用的直接缓冲区 (direct ByteBuffer) 池。
+ *        下载和校验时每个文件都要一块缓冲区，几千个资源文件如果每次都新建，
+ *        会产生大量短命的对象；直接缓冲区分配起来更贵，所以借用之后要还回来反复使用。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * @brief 固定大小的直接缓冲区池，线程安全。
+ *        池里空了就新分配一块；还回来时池已满就直接丢掉，交给 GC 回收。
+ *
+ * @param bufferSize 每块缓冲区的大小 (字节)。
+ * @param maxPooled 池里最多保留多少块空闲缓冲区。
+ */
+class ByteBufferPool(
+    val bufferSize: Int,
+    private val maxPooled: Int
+) {
+
+    private val buffers = ConcurrentLinkedQueue<ByteBuffer>() // 空闲的缓冲区
+    private val pooledCount = AtomicInteger(0) // 空闲缓冲区的数量 (ConcurrentLinkedQueue.size 是 O(n) 的)
+
+    /**
+     * @brief 借一块缓冲区，已经 clear 过，可以直接写入。
+     *
+     * @return 一块大小为 [bufferSize] 的直接缓冲区。
+     */
+    fun acquire(): ByteBuffer {
+        val buffer = buffers.poll()
+        if (buffer != null) {
+            pooledCount.decrementAndGet()
+            buffer.clear()
+            return buffer
+        }
+        return ByteBuffer.allocateDirect(bufferSize)
+    }
+
+    /**
+     * @brief 归还缓冲区。归还之后调用方不能再使用它。
+     *
+     * @param buffer 之前通过 [acquire] 借到的缓冲区。
+     */
+    fun release(buffer: ByteBuffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect) return // 不是这个池的，不收
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer)
+        } else {
+            pooledCount.decrementAndGet() // 池满了，丢掉
+        }
+    }
+
+    /**
+     * @brief 借一块缓冲区执行 [block]，结束后 (包括出异常) 自动归还。
+     *
+     * @param block 使用缓冲区的代码。
+     * @return [block] 的返回值。
+     */
+    inline fun <T> use(block: (ByteBuffer) -> T): T {
+        val buffer = acquire()
+        try {
+            return block(buffer)
+        } finally {
+            release(buffer)
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * @file DownloadCoordinator.kt
+ * @brief 应用级的版本安装调度器。
+ *        安装任务不再挂在某个界面的 ViewModel 上，切换页面不会把正在进行的下载取消掉。
+ *        多个版本可以排队、同时安装，共用 DownloadManager 的连接预算和去重。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import com.wazixwx.mc.launcher.model.VersionDetails
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.flow.updateAndGet
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * @brief 单个版本安装的状态。
+ */
+enum class InstallStatus {
+    QUEUED, // 排队中
+    RESOLVING, // 正在获取版本详情、解析下载任务
+    DOWNLOADING, // 正在下载
+    COMPLETED, // 安装完成
+    FAILED, // 安装失败
+    CANCELLED // 被取消
+}
+
+/**
+ * @brief 单个版本安装的状态快照。
+ *
+ * @property versionId 版本 ID。
+ * @property status 当前状态。
+ * @property progress 下载进度快照。
+ * @property error 失败时的错误信息。
+ * @property report 下载结束后的结果汇总 (包含失败文件列表)。
+ * @property isLaunchable 启动必需的文件 (客户端 JAR、库文件、本地库、资源索引) 是否都已就绪，
+ *                        为 `true` 时即使资源文件还在下载也可以启动游戏。
+ * @property generation 第几次加入队列。同一个版本取消后又重新安装时，队列里可能还留着上一次的请求，
+ *                      靠它区分哪个请求才是当前这一次的。
+ */
+data class InstallState(
+    val versionId: String,
+    val status: InstallStatus,
+    val progress: DownloadProgress = DownloadProgress(),
+    val error: String? = null,
+    val report: DownloadReport? = null,
+    val isLaunchable: Boolean = false,
+    val generation: Long = 0L
+) {
+    /** @brief 是否还在进行中 (排队、解析或下载)。 */
+    val isActive: Boolean
+        get() = status == InstallStatus.QUEUED || status == InstallStatus.RESOLVING || status == InstallStatus.DOWNLOADING
+}
+
+/**
+ * @brief 全局的版本安装调度器，单例，生命周期跟整个应用一样长。
+ *        - [enqueue] 把一个版本加入安装队列，最多 [MAX_CONCURRENT_INSTALLS] 个同时进行。
+ *        - [installs] 发布每个安装的状态，[aggregateProgress] 发布所有进行中安装的合计进度。
+ *        - 网络并发由 DownloadManager 的按主机限流统一控制，多个安装共用的文件只会下载一次。
+ */
+object DownloadCoordinator {
+
+    private const val TAG = "DownloadCoordinator" // 日志来源标识
+    private const val MAX_CONCURRENT_INSTALLS = 2 // 同时进行的安装数，再多也只是抢同一份带宽
+
+    // 跟应用同寿命的作用域，SupervisorJob 保证一个安装失败不会影响别的
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    /**
+     * @brief 一个排队中的安装请求。
+     */
+    private class InstallRequest(
+        val versionId: String,
+        val detailsUrl: String,
+        val detailsSha1: String?,
+        val gameDir: File,
+        val onLaunchable: (suspend (VersionDetails) -> Unit)?,
+        val generation: Long
+    )
+
+    private val queue = Channel<InstallRequest>(Channel.UNLIMITED) // 安装队列
+    private val runningJobs = ConcurrentHashMap<String, Job>() // 正在执行的安装，用来取消
+    private val nextGeneration = AtomicLong(0) // 每次加入队列分配一个新的编号
+    // 认领安装 (QUEUED -> RESOLVING 并登记 Job) 和 cancel() 互斥，取消时要么还在排队、要么已经能找到 Job
+    private val installLock = Any()
+
+    private val _installs = MutableStateFlow<Map<String, InstallState>>(emptyMap())
+
+    /** @brief 所有安装 (包括已结束的) 的状态，按加入顺序排列。 */
+    val installs: StateFlow<Map<String, InstallState>> = _installs.asStateFlow()
+
+    private val _aggregateProgress = MutableStateFlow(DownloadProgress())
+
+    /** @brief 所有进行中安装的合计进度。 */
+    val aggregateProgress: StateFlow<DownloadProgress> = _aggregateProgress.asStateFlow()
+
+    // 共享对象仓库，所有安装共用
+    private val objectStore = ObjectStore(LauncherPaths.objectStoreDir)
+
+    init {
+        // 固定数量的调度协程从队列里取安装请求执行
+        repeat(MAX_CONCURRENT_INSTALLS) {
+            scope.launch {
+                for (request in queue) {
+                    runInstall(request)
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief 把一个版本加入安装队列。
+     *
+     * @param versionId 版本 ID。
+     * @param detailsUrl 版本详情 JSON 的 URL。
+     * @param detailsSha1 版本详情 JSON 的 SHA1 (来自版本清单)，为 `null` 时从地址里取。
+     * @param gameDir 安装到哪个游戏目录。
+     * @param onLaunchable "边下边玩" 回调：启动必需的文件都就绪时调用一次 (在调度器的作用域里执行，不受安装取消影响)，
+     *                     一般用来启动游戏；剩下的资源文件降速继续下载。为 `null` 时等全部下载完。
+     * @return 加入成功返回 `true`；这个版本已经在排队或安装中时返回 `false`。
+     */
+    fun enqueue(
+        versionId: String,
+        detailsUrl: String,
+        detailsSha1: String? = null,
+        gameDir: File = LauncherPaths.defaultGameDir,
+        onLaunchable: (suspend (VersionDetails) -> Unit)? = null
+    ): Boolean {
+        var accepted = false
+        val generation = nextGeneration.incrementAndGet()
+        _installs.update { current ->
+            if (current[versionId]?.isActive == true) {
+                accepted = false
+                current
+            } else {
+                accepted = true
+                // 重新安装时把旧的记录挪到最后
+                (current - versionId) + (versionId to InstallState(versionId, InstallStatus.QUEUED, generation = generation))
+            }
+        }
+        if (!accepted) {
+            Logger.info(TAG) { "Install of $versionId is already queued or running." }
+            return false
+        }
+        queue.trySend(InstallRequest(versionId, detailsUrl, detailsSha1, gameDir, onLaunchable, generation))
+        Logger.info(TAG) { "Queued install of $versionId." }
+        return true
+    }
+
+    /**
+     * @brief 取消某个版本的安装。排队中的直接标记为取消，正在进行的会被中断 (已下载的部分留着下次续传)。
+     *
+     * @param versionId 版本 ID。
+     */
+    fun cancel(versionId: String) {
+        synchronized(installLock) {
+            updateInstall(versionId) { if (it.status == InstallStatus.QUEUED) it.copy(status = InstallStatus.CANCELLED) else it }
+            runningJobs[versionId]?.cancel()
+        }
+    }
+
+    /**
+     * @brief 订阅单个版本的安装状态。
+     *
+     * @param versionId 版本 ID。
+     * @return 状态流，没有这个版本的安装记录时发出 `null`。
+     */
+    fun installState(versionId: String): Flow<InstallState?> =
+        installs.map { it[versionId] }.distinctUntilChanged()
+
+    /**
+     * @brief 执行一个安装请求：获取版本详情、解析任务、下载。
+     */
+    private suspend fun runInstall(request: InstallRequest) {
+        val versionId = request.versionId
+        // 这个请求里的所有状态更新都只作用于它自己那一次安装
+        val update = { transform: (InstallState) -> InstallState -> updateInstall(versionId, request.generation, transform) }
+        val finish = { status: InstallStatus, error: String? -> finishInstall(versionId, request.generation, status, error) }
+
+        // 先不启动，认领并登记好之后再开始，保证 cancel() 一定能找到它
+        val job = scope.launch(start = CoroutineStart.LAZY) {
+            try {
+                Logger.info(TAG) { "Starting install of $versionId..." }
+
+                // --- 步骤 1: 获取版本详情并解析下载任务 ---
+                val detailsSha1 = request.detailsSha1 ?: HttpMetadataCache.immutableSha1Of(request.detailsUrl)
+                val details = MojangApiService.getVersionDetails(request.detailsUrl, sha1 = detailsSha1)
+                if (details == null) {
+                    finish(InstallStatus.FAILED, "Failed to fetch details for version $versionId")
+                    return@launch
+                }
+                // 版本 JSON 写到 versions/<id>/<id>.json，启动时直接读它，不用联网
+                if (!MojangApiService.writeLocalVersionJson(request.gameDir, versionId, request.detailsUrl, detailsSha1)) {
+                    Logger.warn(TAG) { "Could not write the local version JSON of $versionId, launching it will need the metadata cache." }
+                }
+                val tasks = DownloadManager.parseDownloadTasks(details)
+                if (tasks.isEmpty()) {
+                    finish(InstallStatus.FAILED, "Parsed download task list is empty for version $versionId")
+                    return@launch
+                }
+
+                // --- 步骤 2: 下载，进度流的每个快照都同步到安装状态和合计进度 ---
+                update { it.copy(status = InstallStatus.DOWNLOADING) }
+                val progressFlow = MutableStateFlow(DownloadProgress())
+                val progressCollector = launch {
+                    progressFlow.collect { progress -> update { it.copy(progress = progress) } }
+                }
+                val report = try {
+                    DownloadManager.executeDownloadTasks(
+                        tasks = tasks,
+                        gameDir = request.gameDir,
+                        client = MojangApiService.getClient(),
+                        // 用户在等着装完，几千个资源文件里卡住的那几个用对冲请求兜底
+                        options = DownloadOptions(hedgeSmallFiles = true),
+                        progress = progressFlow,
+                        objectStore = objectStore,
+                        onLaunchable = {
+                            update { it.copy(isLaunchable = true) }
+                            val callback = request.onLaunchable
+                            if (callback != null) {
+                                Logger.info(TAG) { "$versionId is launchable, starting it while assets keep downloading." }
+                                scope.launch {
+                                    try {
+                                        callback(details)
+                                    } catch (e: CancellationException) {
+                                        throw e
+                                    } catch (e: Exception) {
+                                        Logger.error(TAG, e) { "Launch callback for $versionId failed" }
+                                    }
+                                }
+                            }
+                        }
+                    )
+                } finally {
+                    progressCollector.cancel()
+                }
+                update { it.copy(progress = progressFlow.value, report = report) }
+
+                // --- 步骤 3: 记录结果 ---
+                if (report.isSuccessful) {
+                    // 所有文件都校验通过了，记进完整安装记录，离线时也能启动
+                    withContext(Dispatchers.IO) {
+                        LocalInstallIndex.recordInstalled(
+                            request.gameDir,
+                            InstalledVersionEntry(
+                                versionId = versionId,
+                                detailsUrl = request.detailsUrl,
+                                clientJarSize = details.downloads.client?.size,
+                                fileCount = tasks.size,
+                                installedAt = System.currentTimeMillis(),
+                                detailsSha1 = detailsSha1
+                            )
+                        )
+                    }
+                    finish(InstallStatus.COMPLETED, null)
+                } else {
+                    val first = report.failures.first()
+                    finish(
+                        InstallStatus.FAILED,
+                        "${report.failures.size} file(s) failed, e.g. ${first.destinationPath} (${first.reason})"
+                    )
+                }
+            } catch (e: CancellationException) {
+                throw e // 取消由下面统一处理
+            } catch (e: Exception) {
+                Logger.error(TAG, e) { "Unexpected error while installing $versionId" }
+                finish(InstallStatus.FAILED, "Install failed: ${e.message}")
+            }
+        }
+        // 认领：只有状态还是这一次的 QUEUED 才执行。排队期间被取消了，或者取消后又重新加入了队列
+        // (队列里这个请求已经过时，新的那个会接着来)，就跳过
+        val claimed = synchronized(installLock) {
+            var won = false
+            _installs.update { current ->
+                val state = current[versionId]
+                if (state == null || state.generation != request.generation || state.status != InstallStatus.QUEUED) {
+                    current
+                } else {
+                    won = true
+                    current + (versionId to state.copy(status = InstallStatus.RESOLVING))
+                }
+            }
+            if (won) runningJobs[versionId] = job
+            won
+        }
+        if (!claimed) {
+            job.cancel()
+            return
+        }
+        update { it } // 状态变了，合计进度也跟着算一次
+        try {
+            job.start()
+            job.join()
+        } finally {
+            runningJobs.remove(versionId, job)
+        }
+        if (job.isCancelled) {
+            // 协程被取消时来不及更新状态，这里补上
+            update { if (it.isActive) it.copy(status = InstallStatus.CANCELLED) else it }
+            Logger.info(TAG) { "Install of $versionId cancelled." }
+        }
+    }
+
+    private fun finishInstall(versionId: String, generation: Long, status: InstallStatus, error: String?) {
+        updateInstall(versionId, generation) { it.copy(status = status, error = error) }
+        if (error != null) {
+            Logger.warn(TAG) { "Install of $versionId failed: $error" }
+        } else {
+            Logger.info(TAG) { "Install of $versionId completed." }
+        }
+    }
+
+    /**
+     * @brief 更新某个安装的状态，同时重新计算合计进度。
+     *
+     * @param generation 只更新这一次安装的状态，为 `null` 时不管是哪一次。
+     */
+    private fun updateInstall(versionId: String, generation: Long? = null, transform: (InstallState) -> InstallState) {
+        val updated = _installs.updateAndGet { current ->
+            val state = current[versionId] ?: return@updateAndGet current
+            if (generation != null && state.generation != generation) return@updateAndGet current // 已经是新的一次安装了
+            current + (versionId to transform(state))
+        }
+        _aggregateProgress.value = aggregate(updated.values.filter { it.isActive })
+    }
+
+    /**
+     * @brief 把多个安装的进度加起来。
+     */
+    private fun aggregate(active: List<InstallState>): DownloadProgress {
+        val bytesDownloaded = active.sumOf { it.progress.bytesDownloaded }
+        val totalBytes = active.sumOf { it.progress.totalBytes }
+        val bytesPerSecond = active.sumOf { it.progress.bytesPerSecond }
+        return DownloadProgress(
+            bytesDownloaded = bytesDownloaded,
+            totalBytes = totalBytes,
+            filesCompleted = active.sumOf { it.progress.filesCompleted },
+            totalFiles = active.sumOf { it.progress.totalFiles },
+            bytesPerSecond = bytesPerSecond,
+            etaSeconds = if (bytesPerSecond > 0) (totalBytes - bytesDownloaded).coerceAtLeast(0L) / bytesPerSecond else null,
+            activeConnections = active.sumOf { it.progress.activeConnections }
+        )
+    }
+}
@@ -19,25 +19,40 @@ import io.ktor.client.request.*
 import io.ktor.http.*
 import io.ktor.utils.io.*
 import io.ktor.utils.io.core.*
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.withContext
 import java.io.File
-import java.io.FileInputStream
-import java.io.FileOutputStream
 import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import kotlin.math.roundToInt
+import kotlin.random.Random
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.json.Json
-import kotlinx.coroutines.async
+import kotlinx.serialization.encodeToString
 import kotlinx.coroutines.coroutineScope
-import kotlinx.coroutines.awaitAll
-import kotlinx.coroutines.sync.Semaphore
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeoutOrNull
 
 /**
  * @brief 代表下载和验证单个文件所需的信息。
@@ -56,16 +71,222 @@ data class DownloadTaskInfo(
     val type: String // 例子: "client", "library", "asset_index", "asset_object"
 )
 
+/**
+ * @brief 下载行为的可调参数。
+ *
+ * @property segmentedDownloadThreshold 文件大小超过这个值 (字节) 就拆成多段并行下载。
+ * @property segmentCount 大文件拆分的段数，也就是同时为这个文件开的连接数。小于 2 表示不拆分。
+ * @property workerCount 同时处理下载任务的工作协程数。实际的网络并发还受各主机的自适应限流控制。
+ * @property progressIntervalMillis 进度快照的发布间隔 (毫秒)，默认 100 毫秒 (10 Hz)。
+ * @property backgroundWorkerCount 启动必需的文件都就绪 (可以开始玩) 之后，剩下的资源文件降速到这么多个工作协程，
+ *                                 把带宽和磁盘让给正在启动的游戏。只在传了 `onLaunchable` 时生效。
+ * @property maxAttempts 单个文件最多尝试下载几次 (包括第一次)。临时错误 (5xx、超时、SHA1 不匹配) 才会重试，404 这种不会。
+ * @property retryBaseDelayMillis 第一次重试前的基础等待时间 (毫秒)，之后每次翻倍。
+ * @property retryMaxDelayMillis 重试等待时间的上限 (毫秒)。实际等待时间在上限的一半到全部之间随机，避免大家同时重试。
+ * @property hedgeSmallFiles 是否对小文件启用对冲请求：请求发出后超过首字节耗时的 95 分位还没有数据，就向另一个源再发一份，谁先完成用谁。
+ * @property hedgeMaxBytes 不超过这个大小 (字节) 的文件才对冲。
+ * @property hedgeBudget 对冲请求数占小文件请求数的比例上限 (0 ~ 1)，1 表示最多让请求量翻倍。
+ */
+data class DownloadOptions(
+    val segmentedDownloadThreshold: Long = 8L * 1024 * 1024, // 默认 8 MB 以上的文件拆分
+    val segmentCount: Int = 4,
+    val workerCount: Int = 64,
+    val progressIntervalMillis: Long = 100L,
+    val backgroundWorkerCount: Int = 8,
+    val maxAttempts: Int = 4,
+    val retryBaseDelayMillis: Long = 500L,
+    val retryMaxDelayMillis: Long = 8_000L,
+    val hedgeSmallFiles: Boolean = false,
+    val hedgeMaxBytes: Long = 256L * 1024,
+    val hedgeBudget: Double = 0.1
+)
+
+/**
+ * @brief 单个文件下载失败的记录。
+ *
+ * @property destinationPath 文件的相对路径 (相对于游戏根目录)。
+ * @property url 下载地址。
+ * @property type 下载内容的类型标识。
+ * @property reason 失败原因 (比如 HTTP 状态码、SHA1 不匹配、异常信息)。
+ */
+data class DownloadFailure(
+    val destinationPath: String,
+    val url: String,
+    val type: String,
+    val reason: String
+)
+
+/**
+ * @brief 一次下载执行的结果汇总。
+ *
+ * @property totalFiles 处理过的文件总数 (包括资源索引解析后加入的资源对象)。
+ * @property failures 失败的文件及原因，可以直接拿来重试。
+ */
+data class DownloadReport(
+    val totalFiles: Int,
+    val failures: List<DownloadFailure>
+) {
+    /** @brief 是否所有文件都下载成功并通过校验。 */
+    val isSuccessful: Boolean get() = failures.isEmpty()
+}
+
 /**
  * @brief 管理解析版本信息、生成下载任务、执行下载和验证文件的过程。
  */
 object DownloadManager {
 
+    private const val TAG = "DownloadManager" // 日志来源标识
+
     // Ktor HttpClient 实例。最好由外部注入或通过依赖管理框架提供，
     // 以便更好地控制它的生命周期和配置。这里为了简单起见，
     // 假设调用者会传入一个配置好的实例 (比如来自 MojangApiService)。
 
-    private const val BUFFER_SIZE = 8 * 1024 // 文件下载时用的缓冲区大小 (8 KB)
+    private const val BUFFER_SIZE = 64 * 1024 // 文件下载和校验时用的缓冲区大小 (64 KB)，绝大多数资源文件一块就能装下
+
+    // 下载和校验共用的直接缓冲区池，读网络数据、写文件、算哈希都不用每个文件新建缓冲区
+    private val bufferPool = ByteBufferPool(BUFFER_SIZE, maxPooled = 128)
+
+    // 按主机自适应调整并发数的限流器，所有下载共用一个，这样多个安装任务也共享同一份连接预算
+    private val concurrencyLimiter = AdaptiveConcurrencyLimiter()
+
+    // 按主机的熔断器，所有下载共用：某个主机持续出错时暂时不再往它那里发请求
+    @Volatile
+    private var circuitBreaker = HostCircuitBreaker()
+
+    // 下载源排名，默认只有官方源；用户用 -Dwzs.download.mirrors=bmclapi 启用镜像后，实测更快的源会自动排到前面
+    private val mirrorSelector = MirrorSelector(MirrorSource.configured())
+
+    // 小文件对冲请求的首字节统计和预算，所有下载共用
+    @Volatile
+    private var hedgingController = HedgingController()
+
+    // 全局带宽和写文件限速，所有下载共用；有游戏在运行时自动收紧
+    private val ioLimiter = IoRateLimiter(IoLimits.UNLIMITED, IoLimits.GAME_RUNNING_DEFAULT) { GameLauncher.isGameRunning }
+    private const val PART_FILE_SUFFIX = ".part" // 未完成下载的临时文件后缀
+    private const val PART_STATE_EXTENSION = ".json" // 断点信息文件接在临时文件名后面的后缀 (<目标>.part.json)
+    private const val HEDGE_PART_FILE_SUFFIX = ".hedge.part" // 对冲请求用的临时文件后缀，跟原请求的分开
+    private const val CHECKPOINT_INTERVAL = 1024L * 1024L // 每写入这么多字节更新一次断点信息 (1 MB)
+
+    // 正在进行中的下载，按 SHA1 登记。同时安装的多个版本共用很多库文件，
+    // 同一个文件同一时间只让一个协程去下，其它的等它结束；结果是下载成功的文件，失败或被取消时为 null
+    private val inFlightDownloads = ConcurrentHashMap<String, CompletableDeferred<File?>>()
+
+    /**
+     * @brief 获取各下载主机当前的并发限制和吞吐指标。
+     *
+     * @return 每个主机一条指标。
+     */
+    fun concurrencyMetrics(): List<HostConcurrencyMetrics> = concurrencyLimiter.metrics()
+
+    /**
+     * @brief 获取各下载主机的熔断状态和重试次数。
+     *
+     * @return 每个主机一条指标。
+     */
+    fun circuitBreakerMetrics(): List<CircuitBreakerMetrics> = circuitBreaker.metrics()
+
+    /**
+     * @brief 换一个熔断器 (比如调整失败率阈值、冷却时间)。已有的熔断状态和统计都会清零，
+     *        应该在没有下载进行时调用。
+     *
+     * @param breaker 新的熔断器。
+     */
+    fun configureCircuitBreaker(breaker: HostCircuitBreaker) {
+        circuitBreaker = breaker
+    }
+
+    /**
+     * @brief 设置下载源列表。顺序就是没有测量数据时的优先顺序，之后按实测的延迟和速度自动排名。
+     *        想只用镜像就不要把 `MirrorSource.OFFICIAL` 放进去。
+     *
+     * @param sources 下载源列表，不能为空。
+     */
+    fun configureMirrors(sources: List<MirrorSource>) {
+        if (sources.isEmpty()) {
+            Logger.warn(TAG) { "Ignoring empty mirror list." }
+            return
+        }
+        mirrorSelector.sources = sources
+        Logger.info(TAG) { "Download sources: ${sources.joinToString { it.name }}" }
+    }
+
+    /**
+     * @brief 获取各个下载源的实测延迟、速度和失败率。
+     *
+     * @return 每个 (源, 原始主机) 一条指标。
+     */
+    fun mirrorMetrics(): List<MirrorMetrics> = mirrorSelector.metrics()
+
+    /**
+     * @brief 获取小文件对冲请求的指标 (发了多少、赢了多少、当前的首字节 95 分位)。
+     *
+     * @return 指标快照。
+     */
+    fun hedgeMetrics(): HedgeMetrics = hedgingController.metrics()
+
+    /**
+     * @brief 换一个对冲控制器，首字节样本和预算计数都会清零。应该在没有下载进行时调用。
+     *
+     * @param controller 新的对冲控制器。
+     */
+    fun configureHedging(controller: HedgingController) {
+        hedgingController = controller
+    }
+
+    /**
+     * @brief 设置全局的下载限速。所有下载共用同一组额度，有 `GameLauncher` 启动的游戏在运行时用 [whileGameRunning]，
+     *        游戏都退出后恢复 [normal]。
+     *
+     * @param normal 平时的限额，默认不限。
+     * @param whileGameRunning 游戏运行时的限额。
+     */
+    fun configureIoLimits(normal: IoLimits, whileGameRunning: IoLimits) {
+        ioLimiter.configure(normal, whileGameRunning)
+    }
+
+    /**
+     * @brief 下载失败的类型，决定要不要重试、算不算主机的问题。
+     */
+    private enum class FailureKind {
+        TRANSIENT, // 主机的临时问题 (5xx、429、超时、连接错误)：重试，并计入熔断
+        CONTENT, // 主机正常应答但内容不对 (SHA1 不匹配)：重试，不计入熔断
+        PERMANENT // 重试也没用 (404、403 之类)：直接失败
+    }
+
+    /**
+     * @brief 一次下载尝试的失败信息。
+     *
+     * @property reason 失败原因，最终会出现在 `DownloadFailure` 里。
+     * @property kind 失败类型。
+     */
+    private data class FetchFailure(val reason: String, val kind: FailureKind)
+
+    /**
+     * @brief 服务器返回了错误状态码，带上状态码方便判断要不要重试。
+     */
+    private class HttpStatusException(val status: HttpStatusCode, message: String) : IOException(message)
+
+    /**
+     * @brief 根据 HTTP 状态码判断失败类型：5xx、408、429 是临时的，其它 4xx 重试也没用。
+     */
+    private fun classifyStatus(status: HttpStatusCode): FailureKind = when {
+        status.value >= 500 || status == HttpStatusCode.RequestTimeout || status == HttpStatusCode.TooManyRequests -> FailureKind.TRANSIENT
+        else -> FailureKind.PERMANENT
+    }
+
+    /**
+     * @brief 计算第 [retry] 次重试前的等待时间：指数退避，封顶，再在上限的一半到全部之间随机 (抖动)，
+     *        避免几千个任务在同一时刻一起重试把刚恢复的服务器又打挂。
+     *
+     * @param retry 第几次重试，从 1 开始。
+     * @param options 下载行为参数。
+     * @return 等待时间 (毫秒)。
+     */
+    private fun retryDelayMillis(retry: Int, options: DownloadOptions): Long {
+        val exponential = options.retryBaseDelayMillis.coerceAtLeast(1L) shl (retry - 1).coerceIn(0, 20)
+        val cap = exponential.coerceAtMost(options.retryMaxDelayMillis.coerceAtLeast(1L))
+        return cap / 2 + Random.nextLong(cap / 2 + 1)
+    }
 
     /**
      * @brief 解析版本详情对象 (`VersionDetails`)，生成初始的下载任务列表。
@@ -153,7 +374,7 @@ object DownloadManager {
         // 步骤 4: 添加资源对象的任务 (需要后续步骤完成)
         // 这部分逻辑将在 executeDownloadTasks 中，下载并解析资源索引文件后进行。
 
-        println("DownloadManager: Initial task parsing complete, generated ${tasks.size} tasks (Version: ${details.id}).")
+        Logger.info(TAG) { "Initial task parsing complete, generated ${tasks.size} tasks (Version: ${details.id})." }
         return tasks
     }
 
@@ -259,222 +480,1099 @@ object DownloadManager {
 
     /**
      * @brief 执行下载任务列表，包括下载、验证文件并报告整体进度。
-     *        这个函数会先尝试下载并解析资源索引文件，然后将解析出的资源对象任务
-     *        与初始任务合并，最后并发执行所有下载。
+     *        客户端 JAR、库文件等初始任务会立刻开始下载；资源索引同时在后台下载并解析，
+     *        解析出来的资源对象任务直接加入正在运行的下载中，总大小也随之向上修正。
+     *        已存在的文件会先查 `VerificationIndex`，元数据没变的直接信任，不再重新计算 SHA1。
+     *        上次没下完的文件 (留有 `.part` 和断点信息) 会用 HTTP Range 接着下。
+     *        提供了对象仓库时，仓库里已有的文件直接硬链接过来，不走网络；新下载的文件也会放进仓库。
+     *        任务放进一个优先级队列 (`DownloadTaskQueue`)，由固定数量的工作协程取出来执行，
+     *        不管有多少个文件，同时存在的协程数都是固定的。出队顺序是客户端 JAR 和库文件、本地库、资源文件，
+     *        同一类里小文件在前，所以启动必需的文件总是最先下完。
      *
      * @param tasks 由 `parseDownloadTasks` 生成的初始下载任务列表。
      * @param gameDir 游戏文件的根目录。
      * @param client 用于执行网络请求的 Ktor HttpClient 实例。
-     * @param progressCallback 一个回调函数，用于接收整体下载进度 (范围 0.0 到 1.0)。
-     *                         这个回调会在主线程或后台线程被调用，UI 更新需注意切换线程。
-     * @return 布尔值，指示是否所有必需的文件都已成功下载并通过验证。
+     * @param options 下载行为参数 (比如大文件分段下载的阈值、段数和工作协程数)。
+     * @param progress 用来发布进度快照的 StateFlow。下载线程只累加计数器，
+     *                 快照按 `options.progressIntervalMillis` 的间隔采样发布，结束时再发布一次最终状态。
+     *                 为 `null` 时不统计进度。
+     * @param objectStore 多个实例共享的对象仓库，为 `null` 时不使用仓库，所有文件都直接下载到游戏目录。
+     * @param onLaunchable "可以开始玩" 回调：资源对象以外的文件 (客户端 JAR、库文件、本地库、资源索引) 全部校验通过时调用一次，
+     *                     之后剩下的资源文件降到 `options.backgroundWorkerCount` 个工作协程继续下载。
+     *                     这些文件里有任何一个失败就不会调用。回调在工作协程里执行，不要在里面做耗时操作。
+     * @return 下载结果汇总，包含处理的文件数和每个失败文件的原因。
      */
     suspend fun executeDownloadTasks(
         tasks: List<DownloadTaskInfo>,
         gameDir: File,
         client: HttpClient,
-        progressCallback: (Float) -> Unit
-    ): Boolean {
-        println("DownloadManager: Starting download execution...")
-        var allSuccessful = true // 标记整体是否成功
+        options: DownloadOptions = DownloadOptions(),
+        progress: MutableStateFlow<DownloadProgress>? = null,
+        objectStore: ObjectStore? = null,
+        onLaunchable: (() -> Unit)? = null
+    ): DownloadReport {
+        Logger.info(TAG) { "Starting download execution..." }
+        // 各个工作协程会同时记录结果，用线程安全的容器收集
+        val failures = ConcurrentLinkedQueue<DownloadFailure>()
+        // 同一个目标路径只下载一次，总大小也只算一次
+        val uniqueTasks = tasks.distinctBy { it.destinationPath }
         // --- 并发控制 --- 
-        // 创建一个信号量，限制同时进行的网络下载数量，避免过多连接拖慢速度或被服务器拒绝
-        // 这个值可以根据网络情况调整，8 是一个相对适中的起点
-        // 去TMD几千个文件并发下载，谁顶得住啊，加个锁控制下。降低并发数到 8。
-        val downloadSemaphore = Semaphore(8)
-        // 使用 AtomicLong 来线程安全地累加已下载的总字节数
-        val totalDownloaded = AtomicLong(0)
-        var totalSize: Long // 所有需要下载的文件的总大小
-        // 创建一个可变列表，用于存储所有最终需要下载的任务 (初始任务 + 资源对象任务)
-        val allTasksToDownload = tasks.toMutableList()
-
-        // --- 阶段 1: 预下载并解析资源索引文件 --- 
-        // 从初始任务列表中查找资源索引文件任务
-        val assetIndexTask = allTasksToDownload.find { it.type == "asset_index" }
-        var assetTasks: List<DownloadTaskInfo>? = null // 用于存储解析出的资源对象任务
-        var downloadedAssetIndexSize = 0L // 记录成功下载的资源索引文件大小
-
-        if (assetIndexTask != null) {
-            // 从待下载列表中移除资源索引任务，因为它需要优先单独处理
-            allTasksToDownload.remove(assetIndexTask)
-            println("DownloadManager: Found asset index task, starting pre-download: ${assetIndexTask.destinationPath}")
-            // 调用 downloadFile 下载资源索引，预下载阶段不关心字节级进度
-            val indexDownloaded = downloadFile(
-                task = assetIndexTask,
-                gameDir = gameDir,
-                client = client,
-                onBytesDownloaded = { /* 空回调 */ }
-            )
+        // 网络并发由 concurrencyLimiter 按主机自适应控制 (见 downloadFile)，
+        // 不再用固定的 Semaphore(8)：小资源文件多开连接，大文件少开。
+        // 进度计数器：字节数、文件数、活动连接数都是原子量，各个工作协程直接累加。
+        // 总大小和文件数在资源索引解析完之后会往上修正
+        val tracker = DownloadProgressTracker(uniqueTasks.sumOf { it.size }, uniqueTasks.size)
+        val totalSize = tracker.totalBytes
+        // 预检：按目录顺序把库文件和资源对象目录遍历一遍，之后判断文件在不在都查这张表，不再逐个 stat；
+        // 需要的目录也在这里一次建好
+        // 对象仓库也一起扫一遍：已经在仓库里的文件就不用每个都去仓库 stat 一次再决定要不要放进去
+        val (presence, storePresence) = coroutineScope {
+            val storeScan = objectStore?.let { store -> async { PresenceSnapshot.scan(store.rootDir, listOf("")) } }
+            PresenceSnapshot.scan(gameDir) to storeScan?.await()
+        }
+        withContext(Dispatchers.IO) { presence.ensureDirectories(uniqueTasks.map { it.destinationPath }) }
 
-            if (indexDownloaded) {
-                val assetIndexFile = File(gameDir, assetIndexTask.destinationPath)
-                // 确保下载后的文件确实存在且是一个文件
-                if (assetIndexFile.isFile) {
-                    println("DownloadManager: Asset index pre-download successful, starting parsing...")
-                    // 调用 parseAssetIndex 解析资源索引文件
-                    assetTasks = parseAssetIndex(assetIndexFile)
-                    if (assetTasks != null) {
-                        println("DownloadManager: Successfully parsed ${assetTasks.size} asset object tasks.")
-                        // 记录索引文件大小，用于后续进度计算
-                        downloadedAssetIndexSize = assetIndexTask.size
-                        // 将解析出的资源对象任务添加到总任务列表
-                        allTasksToDownload.addAll(assetTasks)
-                    } else {
-                        println("DownloadManager: Failed to parse asset index file: ${assetIndexFile.path}. Skipping asset object downloads.")
-                        // 这里可以根据需要决定是否将整体标记为失败 (allSuccessful = false)
-                    }
-                } else {
-                     println("DownloadManager: Asset index file not found after download: ${assetIndexFile.path}. Skipping asset object downloads.")
-                    // allSuccessful = false
+        // 资源索引单独拿出来，在后台下载解析，不挡着客户端和库文件
+        val assetIndexTask = uniqueTasks.find { it.type == "asset_index" }
+        val initialTasks = if (assetIndexTask != null) uniqueTasks - assetIndexTask else uniqueTasks
+        if (assetIndexTask == null) {
+             Logger.info(TAG) { "Asset index task not found in initial tasks list." }
+        }
+        Logger.info(TAG) { "Calculated initial download size: ${totalSize.get() / 1024} KB, ${uniqueTasks.size} files (asset objects are added once the index is parsed)." }
+
+        // 启动必需的文件 (资源对象以外的所有文件) 还剩多少个没完成，减到 0 并且都成功时就可以开始玩了
+        val pendingLaunchCritical = AtomicInteger(uniqueTasks.count { it.type != "asset_object" })
+        val launchCriticalFailed = AtomicBoolean(false)
+        val launchable = AtomicBoolean(false)
+
+        // 游戏目录下的校验索引，跳过没变化的文件的哈希计算。同一个游戏目录上同时进行的安装共用一个实例，
+        // 拿的时候不响应取消，拿到之后到 try 之前也不能再有会抛异常或挂起的步骤，否则 finally 里的 release 执行不到
+        val verificationIndex = withContext(NonCancellable + Dispatchers.IO) { VerificationIndex.acquire(gameDir) }
+
+        // 下载并校验单个任务，失败时记下原因
+        suspend fun runTask(task: DownloadTaskInfo): Boolean {
+            Logger.debug(TAG) { "Starting download for ${task.type}: ${task.destinationPath}..." }
+            // 调用 downloadFile 执行单个文件的下载和验证，返回 null 表示成功
+            val failureReason = downloadFileSingleFlight(task, gameDir, client, verificationIndex, objectStore, options, tracker, presence, storePresence)
+            tracker.filesCompleted.incrementAndGet()
+            if (task.type != "asset_object") {
+                if (failureReason != null) launchCriticalFailed.set(true)
+                // 最后一个启动必需的文件完成时检查一次，全部成功就通知调用方
+                if (pendingLaunchCritical.decrementAndGet() == 0 && !launchCriticalFailed.get() && onLaunchable != null) {
+                    launchable.set(true)
+                    Logger.info(TAG) { "All launch-critical files are ready, remaining assets continue in the background." }
+                    onLaunchable()
                 }
-            } else {
-                 println("DownloadManager: Failed to pre-download asset index file: ${assetIndexTask.destinationPath}. Skipping asset object downloads.")
-                 // allSuccessful = false
             }
-        } else {
-             println("DownloadManager: Asset index task not found in initial tasks list.")
+            // 如果单个文件下载或验证失败
+            if (failureReason != null) {
+                Logger.warn(TAG) { "Download or verification failed: ${task.destinationPath} ($failureReason)" }
+                failures.add(DownloadFailure(task.destinationPath, task.url, task.type, failureReason))
+                return false
+            }
+            return true
         }
 
-        // --- 阶段 2: 计算总大小并并发执行所有下载任务 --- 
-        // 计算所有剩余任务 (初始任务 - 索引 + 资源对象) 的总大小
-        totalSize = allTasksToDownload.sumOf { it.size }
-        // 如果资源索引被成功预下载，将其大小预先加到已下载总量中
-        if (downloadedAssetIndexSize > 0) {
-             totalDownloaded.addAndGet(downloadedAssetIndexSize)
-             // 立即报告一次初始进度，反映资源索引已完成
-             val initialProgress = if (totalSize > 0) downloadedAssetIndexSize.toFloat() / totalSize else 0f
-             progressCallback(initialProgress.coerceIn(0f, 1f)) // 确保进度在 0.0 到 1.0 之间
-        }
-        // 打印将要下载的总量和文件数 (不包括已预下载的索引文件的大小)
-        val remainingSize = totalSize - downloadedAssetIndexSize
-        println("DownloadManager: Calculated total download size (excluding pre-downloaded index): ${remainingSize / 1024} KB, ${allTasksToDownload.size} files.")
+        // 待执行的任务队列，按优先级出队。不设容量上限：任务对象很小，几千个资源任务也占不了多少内存，
+        // 而且必须全部进队才能让高优先级的任务排到前面
+        val taskQueue = DownloadTaskQueue()
+        // 可以开始玩之后，编号不小于这个值的工作协程做完手头的任务就退出，剩下的资源文件慢慢下
+        val backgroundWorkerCount = options.backgroundWorkerCount.coerceIn(1, options.workerCount.coerceAtLeast(1))
 
-        // 使用 coroutineScope 创建一个作用域来管理并发的下载任务
+        // 使用 coroutineScope 创建一个作用域来管理生产者和工作协程
         // coroutineScope 会等待其内部启动的所有协程执行完毕
-        coroutineScope { 
-            // 使用 map 将每个下载任务映射为一个 async 任务 (Deferred)
-            val downloadJobs = allTasksToDownload.map { task -> 
-                async(Dispatchers.IO) { // 在 IO 线程池上异步执行每个下载
-                    // 在执行实际下载前，尝试获取信号量的一个许可
-                    // 如果信号量已满 (达到并发上限)，withPermit 会挂起当前协程，直到有许可可用
-                    downloadSemaphore.withPermit {
-                        println("DownloadManager: Starting download for ${task.type}: ${task.destinationPath}...")
-                        // 调用 downloadFile 执行单个文件的下载和验证
-                        // 传入一个 lambda 作为字节进度回调
-                        val success = downloadFile(task, gameDir, client) { bytesDownloaded ->
-                            // 累加刚下载的字节数到总下载量
-                            val currentTotal = totalDownloaded.addAndGet(bytesDownloaded)
-                            // 计算当前整体进度
-                            val progress = if (totalSize > 0) currentTotal.toFloat() / totalSize else 0f
-                            // 调用外部传入的进度回调函数，更新 UI (注意线程安全)
-                            progressCallback(progress.coerceIn(0f, 1f))
+        try {
+            coroutineScope { 
+                // --- 进度采样：固定频率把计数器打成快照发布出去，跟数据块的多少无关 ---
+                val sampler = progress?.let { flow ->
+                    launch {
+                        while (true) {
+                            flow.value = tracker.sample()
+                            delay(options.progressIntervalMillis)
+                        }
+                    }
+                }
+                try {
+                    coroutineScope {
+                        // --- 工作协程：固定数量，从队列里取任务执行，队列关闭且取空后退出 ---
+                        repeat(options.workerCount.coerceAtLeast(1)) { workerIndex ->
+                            launch(Dispatchers.IO) {
+                                while (!(launchable.get() && workerIndex >= backgroundWorkerCount)) {
+                                    val task = taskQueue.take() ?: break
+                                    runTask(task)
+                                }
+                            }
                         }
-                        // 如果单个文件下载或验证失败
-                        if (!success) {
-                            println("DownloadManager: Download or verification failed: ${task.destinationPath}")
-                            allSuccessful = false // 将整体成功标记置为 false
+
+                        // --- 生产者：初始任务和资源对象任务都投进同一个队列，全部投完后关闭队列 ---
+                        launch {
+                            try {
+                                coroutineScope {
+                                    // 资源索引和客户端、库文件同时开始：索引一下完、解析完，就把资源对象任务投进队列
+                                    if (assetIndexTask != null) {
+                                        launch(Dispatchers.IO) assetIndex@{
+                                            Logger.debug(TAG) { "Fetching asset index in parallel: ${assetIndexTask.destinationPath}" }
+                                            if (!runTask(assetIndexTask)) {
+                                                Logger.warn(TAG) { "Failed to download asset index file: ${assetIndexTask.destinationPath}. Skipping asset object downloads." }
+                                                return@assetIndex
+                                            }
+                                            val assetIndexFile = File(gameDir, assetIndexTask.destinationPath)
+                                            // 调用 parseAssetIndex 解析资源索引文件
+                                            val assetTasks = parseAssetIndex(assetIndexFile)
+                                            if (assetTasks == null) {
+                                                Logger.warn(TAG) { "Failed to parse asset index file: ${assetIndexFile.path}. Skipping asset object downloads." }
+                                                failures.add(DownloadFailure(assetIndexTask.destinationPath, assetIndexTask.url, assetIndexTask.type, "Failed to parse asset index"))
+                                                return@assetIndex
+                                            }
+                                            // 先修正总大小，再把资源对象任务投进去
+                                            totalSize.addAndGet(assetTasks.sumOf { it.size })
+                                            tracker.totalFiles.addAndGet(assetTasks.size)
+                                            Logger.info(TAG) { "Successfully parsed ${assetTasks.size} asset object tasks, total size now ${totalSize.get() / 1024} KB." }
+                                            presence.ensureDirectories(assetTasks.map { it.destinationPath }) // 最多 256 个 objects/xx 目录
+                                            assetTasks.forEach { taskQueue.offer(it) }
+                                        }
+                                    }
+                                    // 客户端 JAR、库文件等初始任务立刻投进去，不用等资源索引
+                                    initialTasks.forEach { taskQueue.offer(it) }
+                                }
+                            } finally {
+                                taskQueue.close() // 没有更多任务了，工作协程取完剩下的就退出
+                            }
                         }
-                        success // 返回当前任务的成功状态
-                    } // withPermit 结束，自动释放信号量许可
-                } // async 结束
-            } // map 结束
-            // 等待所有通过 map 创建的 async 任务执行完成
-            downloadJobs.awaitAll() 
-            // allSuccessful 标志已在每个任务内部更新，无需再根据 results 判断
-        } // coroutineScope 结束
+                    }
+                } finally {
+                    sampler?.cancel() // 下载结束，停止采样
+                }
+            } // coroutineScope 结束
+        } finally {
+            // 不管成功失败 (甚至被取消)，都把这次积累的校验结果存下来，下次就不用重新算了
+            withContext(NonCancellable + Dispatchers.IO) { VerificationIndex.release(verificationIndex) }
+        }
+
+        progress?.value = tracker.sample() // 发布最终状态
+        val report = DownloadReport(tracker.filesCompleted.get(), failures.toList())
+        Logger.info(TAG) { "Download execution finished. ${report.totalFiles} files processed, ${report.failures.size} failed." }
+        return report
+    }
+
+    /**
+     * @brief 带去重的 [downloadFile]：同一个 SHA1 同一时间只有一个下载在跑 (跨多次 `executeDownloadTasks` 调用)。
+     *        先下完的那个把校验通过的文件交给等着的任务：目标路径不一样 (比如另一个实例) 就直接硬链接或复制过来，
+     *        不发请求；目标路径一样就再走一遍 `downloadFile`，文件已经在那了，会直接通过校验。
+     *        前一个失败或被取消了，才由等着的任务自己去下载。
+     *        每个任务只报告一次自己的字节数，进度不会重复计算。
+     *
+     * @param presence 预检快照，只用于第一次检查；等过别人之后文件可能已经变了，改为直接 stat。
+     * @param storePresence 对象仓库的预检快照，见 [downloadFile]。
+     * @return 跟 [downloadFile] 一样，成功返回 `null`，失败返回原因。
+     */
+    private suspend fun downloadFileSingleFlight(
+        task: DownloadTaskInfo,
+        gameDir: File,
+        client: HttpClient,
+        verificationIndex: VerificationIndex,
+        objectStore: ObjectStore?,
+        options: DownloadOptions,
+        tracker: DownloadProgressTracker,
+        presence: PresenceSnapshot? = null,
+        storePresence: PresenceSnapshot? = null
+    ): String? {
+        val key = task.sha1.lowercase()
+        val destinationFile = File(gameDir, task.destinationPath)
+        var snapshot = presence
+        while (true) {
+            val mine = CompletableDeferred<File?>()
+            val existing = inFlightDownloads.putIfAbsent(key, mine)
+            if (existing != null) {
+                // 别人正在下同一个文件，等它结束再看
+                Logger.debug(TAG) { "Waiting for in-flight download of ${task.sha1}: ${task.destinationPath}" }
+                val published = existing.await()
+                snapshot = null // 快照已经过时了
+                if (published != null && published.absolutePath != destinationFile.absolutePath &&
+                    placeFromInFlight(task, published, destinationFile, verificationIndex, tracker)
+                ) {
+                    return null
+                }
+                continue // 同一个路径 (downloadFile 会直接认出来)，或者对方失败了，自己来
+            }
+            var result: File? = null
+            try {
+                val failure = downloadFile(task, gameDir, client, verificationIndex, objectStore, options, tracker, snapshot, storePresence)
+                if (failure == null) result = destinationFile
+                return failure
+            } finally {
+                inFlightDownloads.remove(key, mine)
+                mine.complete(result) // 不管成功失败还是被取消，都叫醒等着的任务
+            }
+        }
+    }
 
-        println("DownloadManager: Download execution finished. Overall success state: $allSuccessful")
-        return allSuccessful
+    /**
+     * @brief 把同时下载同一个文件的另一个任务刚下完 (已经校验过) 的文件放到自己的目标位置，优先硬链接。
+     *
+     * @param task 下载任务。
+     * @param source 对方下好的文件。
+     * @param destinationFile 自己的目标文件。
+     * @param verificationIndex 校验索引，放好之后记录进去。
+     * @param tracker 进度计数器。
+     * @return 放好了返回 `true`；对方的文件已经不在了 (或大小变了)、链接和复制都失败时返回 `false`，由调用方自己下载。
+     */
+    private suspend fun placeFromInFlight(
+        task: DownloadTaskInfo,
+        source: File,
+        destinationFile: File,
+        verificationIndex: VerificationIndex,
+        tracker: DownloadProgressTracker
+    ): Boolean {
+        val attributes = VerificationIndex.readAttributes(source)
+        if (attributes == null || attributes.size() != task.size) return false // 刚下完就被删了或者改了，不能用
+        ioLimiter.acquireFileWrite() // 链接不行时会退回复制，也算一次写文件
+        if (!ObjectStore.placeFile(source, destinationFile)) return false
+        Logger.debug(TAG) { "Reused in-flight download of ${task.sha1} from ${source.path}: ${task.destinationPath}" }
+        verificationIndex.record(task.destinationPath, destinationFile, task.sha1)
+        tracker.bytesDownloaded.addAndGet(task.size)
+        return true
     }
 
     /**
      * @brief 下载、验证并保存单个文件。
      *        如果文件已存在且 SHA1 校验通过，就跳过下载。
+     *        文件元数据跟校验索引里的记录一致时直接信任，不读文件内容。
+     *        下载中的数据写在 `<目标>.part` 里，失败或被打断时保留，下次调用会尝试续传。
+     *        下载地址按镜像排名依次尝试 (见 `configureMirrors`)，失败或 SHA1 不匹配就换下一个源，
+     *        同一个源再试时指数退避，总共最多 `options.maxAttempts` 次；主机熔断中时不发请求。
      *
      * @param task 包含文件 URL、目标路径、SHA1 和大小的下载任务信息。
      * @param gameDir 游戏根目录。
      * @param client Ktor HttpClient 实例。
-     * @param onBytesDownloaded 一个回调函数，在每次写入数据块后调用，报告写入的字节数。
-     * @return 布尔值，指示文件是否成功下载或已存在并通过验证。
+     * @param verificationIndex 游戏目录的校验索引，校验通过的文件会记录进去。
+     * @param objectStore 共享对象仓库，可以为 `null`。仓库里有的直接链接过来，校验通过的文件会放进仓库。
+     * @param options 下载行为参数，超过阈值的大文件会分段并行下载。
+     * @param tracker 进度计数器，写入的字节数和活动连接数都记在这里。
+     * @param presence 预检快照。目标路径在快照范围里时直接查表，不再 stat；快照里没有就是不存在，直接去下载。
+     *                 父目录在快照里确认存在时也不再 mkdirs。为 `null` 时全部直接访问文件系统。
+     * @param storePresence 对象仓库的预检快照。本地已有的文件在快照里已经有了 (大小也对) 就不再往仓库里放，
+     *                      省掉每个文件一次仓库的 stat。为 `null` 时每次都交给 `ObjectStore.adopt` 去判断。
+     * @return 文件成功下载或已存在并通过验证时返回 `null`；失败时返回失败原因。
      */
     private suspend fun downloadFile(
         task: DownloadTaskInfo,
         gameDir: File,
         client: HttpClient,
-        onBytesDownloaded: (Long) -> Unit
-    ): Boolean {
+        verificationIndex: VerificationIndex,
+        objectStore: ObjectStore?,
+        options: DownloadOptions,
+        tracker: DownloadProgressTracker,
+        presence: PresenceSnapshot? = null,
+        storePresence: PresenceSnapshot? = null
+    ): String? {
         val destinationFile = File(gameDir, task.destinationPath)
+        val onBytesDownloaded: (Long) -> Unit = { tracker.bytesDownloaded.addAndGet(it) }
 
-        // 检查文件是不是已存在且有效
-        if (destinationFile.exists() && destinationFile.length() == task.size) {
+        // 检查文件是不是已存在且有效 (一次 stat 同时拿到大小、修改时间和文件键；预检快照覆盖的路径直接查表)
+        val attributes = if (presence != null && presence.covers(task.destinationPath)) {
+            presence.attributes(task.destinationPath)
+        } else {
+            VerificationIndex.readAttributes(destinationFile)
+        }
+        // 父目录已经在预检时建好了的话，后面就不用再 mkdirs
+        val parentReady = presence?.hasParentDirectory(task.destinationPath) == true
+        if (attributes != null && attributes.size() == task.size) {
+            // 元数据跟索引记录一致，说明上次校验之后文件没被动过，直接信任
+            // 以前装的实例里的文件也收进仓库，给别的实例用；仓库快照里已经有的就不用管了
+            val adoptIntoStore = objectStore != null &&
+                (storePresence == null || !objectStore.isListedIn(storePresence, task.sha1, task.size))
+            if (verificationIndex.isTrusted(task.destinationPath, attributes, task.sha1)) {
+                if (adoptIntoStore) objectStore?.adopt(destinationFile, task.sha1)
+                onBytesDownloaded(task.size)
+                return null // 跳过下载，也跳过哈希计算
+            }
             val existingSha1 = calculateSha1(destinationFile)
             if (existingSha1 == task.sha1) {
-                println("DownloadManager: File exists and SHA1 matches, skipping: ${task.destinationPath}")
+                Logger.debug(TAG) { "File exists and SHA1 matches, skipping: ${task.destinationPath}" }
+                verificationIndex.record(task.destinationPath, destinationFile, task.sha1) // 记下来，下次就不用再算了
+                if (adoptIntoStore) objectStore?.adopt(destinationFile, task.sha1)
                 // 文件有效，报告它的大小作为已下载字节数，确保进度条能反映跳过的文件
                 onBytesDownloaded(task.size)
-                return true // 跳过下载
+                return null // 跳过下载
             }
              else {
-                 println("DownloadManager: File exists but SHA1 mismatch (Expected: ${task.sha1}, Got: $existingSha1). Redownloading: ${task.destinationPath}")
+                 Logger.warn(TAG) { "File exists but SHA1 mismatch (Expected: ${task.sha1}, Got: $existingSha1). Redownloading: ${task.destinationPath}" }
+                 verificationIndex.invalidate(task.destinationPath)
                  destinationFile.delete() // 删除损坏的文件
              }
-        } else if (destinationFile.exists()) {
-             println("DownloadManager: File exists but size mismatch (Expected: ${task.size}, Got: ${destinationFile.length()}). Redownloading: ${task.destinationPath}")
+        } else if (attributes != null) {
+             Logger.warn(TAG) { "File exists but size mismatch (Expected: ${task.size}, Got: ${attributes.size()}). Redownloading: ${task.destinationPath}" }
+             verificationIndex.invalidate(task.destinationPath)
              destinationFile.delete() // 删除大小错误的文件
         }
 
-        // 确保目标文件的父目录存在
-        destinationFile.parentFile?.mkdirs()
+        // 共享仓库里已经有这个对象了 (别的实例下过)，直接链接过来，不走网络。
+        // 实例里的文件和仓库对象是硬链接，某个实例里原地改坏了文件，仓库里的也跟着坏了，
+        // 所以链接之前先算一遍仓库对象的 SHA1，不对就从仓库里删掉，重新下载
+        if (objectStore != null && objectStore.contains(task.sha1, task.size)) {
+            val storedSha1 = calculateSha1(objectStore.objectFile(task.sha1))
+            if (storedSha1 != task.sha1) {
+                Logger.warn(TAG) { "Object store copy of ${task.destinationPath} is corrupted (Expected: ${task.sha1}, Got: $storedSha1). Evicting and redownloading." }
+                objectStore.evict(task.sha1)
+            } else {
+                ioLimiter.acquireFileWrite() // 链接不行时会退回复制，也算一次写文件
+                if (objectStore.materialize(task.sha1, destinationFile, ensureParent = !parentReady)) {
+                    Logger.debug(TAG) { "Materialized from object store: ${task.destinationPath}" }
+                    verificationIndex.record(task.destinationPath, destinationFile, task.sha1) // 上面刚算过 SHA1，可以记
+                    onBytesDownloaded(task.size)
+                    return null
+                }
+            }
+        }
+
+        // 确保目标文件的父目录存在 (预检时没建好的才需要)
+        if (!parentReady) destinationFile.parentFile?.mkdirs()
+
+        // 执行下载：按镜像排名依次尝试各个候选地址，失败 (包括 SHA1 不匹配) 就换下一个；
+        // 再次用到同一个地址时先退避。主机熔断中就不发请求，直接算一次失败
+        val candidates = mirrorSelector.candidates(task.url, task.size, verifiable = task.sha1.isNotBlank())
+        val tried = BooleanArray(candidates.size) // 这个地址是不是已经试过了
+        val exhausted = BooleanArray(candidates.size) // 这个地址明确没有这个文件 (404 之类)，不用再试
+        val maxAttempts = options.maxAttempts.coerceAtLeast(1)
+        val hedgeable = options.hedgeSmallFiles && task.size <= options.hedgeMaxBytes
+        var current = 0
+        var retries = 0
+        var lastFailure = "Download failed"
+        for (attempt in 1..maxAttempts) {
+            val candidate = candidates[current]
+            if (attempt > 1) circuitBreaker.recordRetry(candidate.host)
+            if (tried[current]) {
+                retries++
+                val backoff = retryDelayMillis(retries, options)
+                Logger.info(TAG) { "Retrying ${task.destinationPath} via ${candidate.mirror} in $backoff ms (attempt $attempt/$maxAttempts, last error: $lastFailure)" }
+                delay(backoff)
+            } else if (attempt > 1) {
+                Logger.info(TAG) { "Failing over ${task.destinationPath} to ${candidate.mirror} (last error: $lastFailure)" }
+            }
+            tried[current] = true
+
+            val failure = if (circuitBreaker.tryAcquire(candidate.host)) {
+                if (hedgeable) {
+                    // 对冲请求优先发给排名第二的源，只有一个源时就是同一个源的另一个连接
+                    val alternate = candidates[(current + 1) % candidates.size]
+                    fetchHedged(task, destinationFile, candidate, alternate, client, verificationIndex, options, tracker)
+                } else {
+                    fetchOnce(task, destinationFile, candidate, client, verificationIndex, options, tracker)
+                }
+            } else {
+                FetchFailure("Circuit breaker open for ${candidate.host}", FailureKind.TRANSIENT)
+            }
+            if (failure == null) {
+                objectStore?.adopt(destinationFile, task.sha1) // 新下载的文件放进仓库，下一个实例就不用再下了
+                return null
+            }
+            lastFailure = if (candidates.size > 1) "${failure.reason} (${candidate.mirror})" else failure.reason
+            if (failure.kind == FailureKind.PERMANENT) exhausted[current] = true
+            // 换到下一个还能用的地址，都不能用了就放弃
+            current = (1..candidates.size).map { (current + it) % candidates.size }.firstOrNull { !exhausted[it] } ?: break
+        }
+        return lastFailure
+    }
+
+    /**
+     * @brief 对冲请求用的信号：请求什么时候真正发出去 (拿到并发许可之后)、什么时候收到第一个字节。
+     */
+    private class RequestProbe {
+        val started = CompletableDeferred<Unit>()
+        val firstByte = CompletableDeferred<Unit>()
+    }
+
+    /**
+     * @brief 一次下载尝试：先拿到目标主机的并发许可，下载并校验，用完后把传输量和结果反馈给限流器、熔断器和镜像排名。
+     *        调用方已经通过 `circuitBreaker.tryAcquire` 拿到了熔断器的放行 (半开时就是探测名额)，
+     *        不管怎么结束 (包括还在排队等许可时被取消) 这里都会归还它，调用方不用再管。
+     *
+     * @param task 下载任务 (原始地址)。
+     * @param destinationFile 目标文件。
+     * @param candidate 这次用的候选地址。
+     * @param client Ktor HttpClient 实例。
+     * @param verificationIndex 校验索引。
+     * @param options 下载行为参数。
+     * @param tracker 进度计数器。
+     * @param probe 对冲请求用的信号，不对冲时为 `null`。有的话还会记录首字节耗时。
+     * @param partSuffix 临时文件的后缀，同一个文件同时有两个请求 (对冲) 时要用不同的临时文件。
+     * @return 成功返回 `null`，失败返回失败信息。
+     */
+    private suspend fun fetchOnce(
+        task: DownloadTaskInfo,
+        destinationFile: File,
+        candidate: MirrorCandidate,
+        client: HttpClient,
+        verificationIndex: VerificationIndex,
+        options: DownloadOptions,
+        tracker: DownloadProgressTracker,
+        probe: RequestProbe? = null,
+        partSuffix: String = PART_FILE_SUFFIX
+    ): FetchFailure? {
+        val host = candidate.host
+        val transferredBytes = AtomicLong(0) // 这次真正从网络收到的字节数，分段下载时会被多个协程同时累加
+        val resumedBytes = AtomicLong(0) // 续传时 .part 里已有的字节数，只算进进度，不算这次的传输量
+        var permitAcquired = false // 拿到并发许可之前被取消的话，只需要归还熔断器的放行
+        var failure: FetchFailure? = null
+        var finished = false // false 表示被取消，不参与并发调整和熔断
+        try {
+            // 两个等待都放在 try 里：排队时被取消 (比如对冲输了) 也要走 finally，不然半开的探测名额就永远占着了
+            ioLimiter.acquireFileWrite() // 先过写文件的限速再占连接，等待时不占着连接
+            concurrencyLimiter.acquire(host)
+            permitAcquired = true
+            tracker.activeConnections.incrementAndGet()
+            val startNanos = System.nanoTime()
+            probe?.started?.complete(Unit)
+            failure = fetchAndVerify(
+                task.copy(url = candidate.url), destinationFile, client, verificationIndex, options, host, partSuffix,
+                // 首字节在第一次读到数据时就报告，不等缓冲区写满：小文件写满一块缓冲区时整个响应体都收完了
+                onFirstByte = probe?.let { signals ->
+                    {
+                        if (signals.firstByte.complete(Unit)) hedgingController.recordFirstByte(System.nanoTime() - startNanos)
+                    }
+                },
+                onBytesResumed = { bytes ->
+                    resumedBytes.addAndGet(bytes)
+                    tracker.bytesDownloaded.addAndGet(bytes)
+                }
+            ) { bytes ->
+                transferredBytes.addAndGet(bytes)
+                tracker.bytesDownloaded.addAndGet(bytes)
+            }
+            finished = true
+            if (failure == null) {
+                // 按这次实际传输的字节数算速度，续传时已有的那部分不是这次下的
+                mirrorSelector.recordSuccess(candidate, transferredBytes.get(), System.nanoTime() - startNanos)
+            } else {
+                mirrorSelector.recordFailure(candidate)
+            }
+            return failure
+        } finally {
+            if (!permitAcquired) {
+                circuitBreaker.onCancelled(host) // 请求根本没发出去，没有结论
+            } else {
+                if (!finished || failure != null) {
+                    // 失败或被取消 (比如对冲输了) 时，把这次尝试报告过的字节数退回去，
+                    // 重试续传时会重新报告已有的部分，进度不会重复计算
+                    tracker.bytesDownloaded.addAndGet(-(transferredBytes.get() + resumedBytes.get()))
+                }
+                tracker.activeConnections.decrementAndGet()
+                // 只有主机的临时问题才让限流器收缩、让熔断器计数；404、SHA1 不匹配说明主机本身是正常应答的
+                val hostHealthy = failure?.kind != FailureKind.TRANSIENT
+                concurrencyLimiter.release(host, transferredBytes.get(), if (finished) hostHealthy else null)
+                when {
+                    !finished -> circuitBreaker.onCancelled(host)
+                    hostHealthy -> circuitBreaker.onSuccess(host)
+                    else -> circuitBreaker.onFailure(host)
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief 带对冲的一次下载尝试 (只用于小文件)：先向 [primary] 发请求，如果请求发出去之后
+     *        过了最近首字节耗时的 95 分位还没收到数据，并且预算允许，就向 [alternate] 再发一份。
+     *        谁先下完并校验通过就用谁，另一个取消；一个失败了就等另一个。两个请求写各自的临时文件。
+     *
+     * @return 成功返回 `null`；都失败时返回原请求的失败信息。
+     */
+    private suspend fun fetchHedged(
+        task: DownloadTaskInfo,
+        destinationFile: File,
+        primary: MirrorCandidate,
+        alternate: MirrorCandidate,
+        client: HttpClient,
+        verificationIndex: VerificationIndex,
+        options: DownloadOptions,
+        tracker: DownloadProgressTracker
+    ): FetchFailure? = coroutineScope {
+        hedgingController.onEligibleRequest()
+        val probe = RequestProbe()
+        // 熔断器的放行已经拿到了，要由 fetchOnce 负责归还：UNDISPATCHED 保证它一定会开始执行 (进到它的 try 里)，
+        // 不会因为还没被调度就被取消而把放行漏掉
+        val primaryAttempt = async(start = CoroutineStart.UNDISPATCHED) {
+            fetchOnce(task, destinationFile, primary, client, verificationIndex, options, tracker, probe)
+        }
+
+        // 等请求真正发出去 (排队等并发许可的时间不算)，再等到 95 分位还没有首字节才对冲
+        val hedgeDelay = hedgingController.hedgeDelayMillis()
+        val shouldHedge = hedgeDelay != null && select {
+            primaryAttempt.onAwait { false }
+            probe.started.onAwait { true }
+        } && withTimeoutOrNull(hedgeDelay) {
+            select {
+                primaryAttempt.onAwait { }
+                probe.firstByte.onAwait { }
+            }
+        } == null
+        // 先问熔断器再扣预算：备用源熔断中时根本不会发对冲请求，不能算进已发出的对冲数里
+        if (!shouldHedge || !circuitBreaker.tryAcquire(alternate.host)) {
+            return@coroutineScope primaryAttempt.await()
+        }
+        if (!hedgingController.tryAcquireHedge(options.hedgeBudget)) {
+            circuitBreaker.onCancelled(alternate.host) // 预算不够，熔断器的放行 (可能是探测名额) 还回去
+            return@coroutineScope primaryAttempt.await()
+        }
+
+        Logger.debug(TAG) { "No first byte for ${task.destinationPath} after $hedgeDelay ms, hedging via ${alternate.mirror}." }
+        val hedgeAttempt = async(start = CoroutineStart.UNDISPATCHED) {
+            fetchOnce(task, destinationFile, alternate, client, verificationIndex, options, tracker, partSuffix = HEDGE_PART_FILE_SUFFIX)
+        }
+        // 先结束的那个成功了就用它；失败了就等另一个
+        val (hedgeFinishedFirst, firstResult) = select<Pair<Boolean, FetchFailure?>> {
+            primaryAttempt.onAwait { false to it }
+            hedgeAttempt.onAwait { true to it }
+        }
+        val loser = if (hedgeFinishedFirst) primaryAttempt else hedgeAttempt
+        if (firstResult == null) {
+            loser.cancelAndJoin()
+            if (hedgeFinishedFirst) hedgingController.recordHedgeWin()
+            // 输的那个留下的临时文件没用了
+            val loserSuffix = if (hedgeFinishedFirst) PART_FILE_SUFFIX else HEDGE_PART_FILE_SUFFIX
+            withContext(Dispatchers.IO) {
+                discardPartFile(File(destinationFile.path + loserSuffix), File(destinationFile.path + loserSuffix + PART_STATE_EXTENSION))
+            }
+            return@coroutineScope null
+        }
+        val secondResult = loser.await()
+        if (secondResult == null && !hedgeFinishedFirst) hedgingController.recordHedgeWin()
+        if (secondResult == null) null else primaryAttempt.await()
+    }
+
+    /**
+     * @brief 把任务下载到 `.part` 文件，校验通过后换成正式文件。
+     *
+     * @param task 下载任务。
+     * @param destinationFile 最终的目标文件。
+     * @param client Ktor HttpClient 实例。
+     * @param verificationIndex 校验索引，成功后记录进去。
+     * @param options 下载行为参数。
+     * @param host 下载地址的主机标识，分段下载多开连接时按它申请并发许可。
+     * @param partSuffix 临时文件的后缀，默认 `.part`。
+     * @param onFirstByte 单连接下载第一次从响应体读到数据时调用一次，可以为 `null`。
+     * @param onBytesResumed 续传时报告 `.part` 里已有的字节数 (只算进度，不是这次传输的)。
+     * @param onBytesDownloaded 字节进度回调，只报告这次从网络收到的字节。
+     * @return 下载并校验成功返回 `null`，否则返回失败信息。
+     */
+    private suspend fun fetchAndVerify(
+        task: DownloadTaskInfo,
+        destinationFile: File,
+        client: HttpClient,
+        verificationIndex: VerificationIndex,
+        options: DownloadOptions,
+        host: String,
+        partSuffix: String = PART_FILE_SUFFIX,
+        onFirstByte: (() -> Unit)? = null,
+        onBytesResumed: (Long) -> Unit,
+        onBytesDownloaded: (Long) -> Unit
+    ): FetchFailure? {
+        // 数据先写到 <目标>.part，旁边的 <目标>.part.json 记录断点信息，校验通过后再改名成正式文件
+        val partFile = File(destinationFile.path + partSuffix)
+        val stateFile = File(destinationFile.path + partSuffix + PART_STATE_EXTENSION)
 
-        // 执行下载
         return try {
-            // 使用 Ktor 发起 GET 请求
-            client.prepareGet(task.url).execute { response ->
-                if (!response.status.isSuccess()) {
-                    println("DownloadManager: Download failed for ${task.destinationPath}: HTTP status ${response.status}")
-                    return@execute false // HTTP 请求失败
+            // 大文件分段并行下载；上次是单连接下了一半的，继续用单连接续传，不浪费已有数据
+            val previousState = withContext(Dispatchers.IO) { readPartState(task, partFile, stateFile) }
+            val useSegments = options.segmentCount > 1 && task.size >= options.segmentedDownloadThreshold &&
+                (previousState == null || previousState.segments != null)
+            var result = if (useSegments) {
+                fetchSegmentedToPartFile(task, partFile, stateFile, client, options, host, previousState, onBytesResumed, onBytesDownloaded)
+            } else {
+                fetchToPartFile(task, partFile, stateFile, client, onFirstByte, onBytesResumed, onBytesDownloaded)
+            }
+            // 断点信息跟服务器对不上 (比如 416) 或服务器不支持分段时，丢掉 .part 用单连接从头再来一次
+            if (result.status == PartFetchStatus.RESTART) {
+                discardPartFile(partFile, stateFile)
+                result = fetchToPartFile(task, partFile, stateFile, client, onFirstByte, onBytesResumed, onBytesDownloaded)
+            }
+            if (result.status != PartFetchStatus.COMPLETED) {
+                // HTTP 请求失败，.part 留着下次接着下
+                return FetchFailure(result.failureReason ?: "Download failed", result.failureKind)
+            }
+
+            // 流结束时摘要也算完了 (断点续传时包含之前那一段)，直接比对 SHA1
+            val downloadedSha1 = result.sha1
+            if (downloadedSha1 == task.sha1) {
+                withContext(Dispatchers.IO) {
+                    // 校验通过，把 .part 换成正式文件，断点信息也就没用了
+                    Files.move(partFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                    stateFile.delete()
                 }
+                Logger.debug(TAG) { "Download complete and SHA1 verified (SHA1: $downloadedSha1): ${task.destinationPath}" }
+                verificationIndex.record(task.destinationPath, destinationFile, task.sha1) // 下载完成，更新索引
+                null // 验证成功
+            } else {
+                Logger.warn(TAG) { "Download complete but SHA1 mismatch (Expected: ${task.sha1}, Got: $downloadedSha1). File might be corrupted: ${task.destinationPath}" }
+                discardPartFile(partFile, stateFile) // 删除校验失败的文件，这种数据没法续传
+                FetchFailure("SHA1 mismatch (expected ${task.sha1}, got $downloadedSha1)", FailureKind.CONTENT) // 验证失败
+            }
+        } catch (e: CancellationException) {
+            throw e // 取消不算失败，交给上层处理
+        } catch (e: Exception) {
+            Logger.warn(TAG) { "Exception during download for ${task.destinationPath}: ${e.message}" }
+            // 不删 .part 文件，断点信息已经在 fetchToPartFile 里记下了，下次可以接着下
+            // 下载过程中发生异常：分段请求的错误状态码按状态码判断，其它 (超时、连接断开) 都当作临时问题
+            val kind = if (e is HttpStatusException) classifyStatus(e.status) else FailureKind.TRANSIENT
+            FetchFailure("${e::class.simpleName}: ${e.message}", kind)
+        }
+    }
 
-                val channel: ByteReadChannel = response.body()
-                // 使用 FileOutputStream 把响应体写入文件
-                withContext(Dispatchers.IO) { // 确保文件写入在 IO 线程执行
-                    FileOutputStream(destinationFile).use { outputStream ->
-                        val buffer = ByteArray(BUFFER_SIZE)
-                        var bytesCopied: Long = 0
-                        while (true) {
-                            val read = channel.readAvailable(buffer)
-                            if (read <= 0) break // 读取结束
-                            outputStream.write(buffer, 0, read)
-                            bytesCopied += read
-                            onBytesDownloaded(read.toLong()) // 报告刚写入的字节数
-                        }
-                        println("DownloadManager: File write complete: ${task.destinationPath} ($bytesCopied bytes)")
+    /**
+     * @brief `fetchToPartFile` 的结果状态。
+     */
+    private enum class PartFetchStatus {
+        COMPLETED, // 数据流完整写入了 .part 文件
+        FAILED, // 请求失败 (比如 HTTP 错误)
+        RESTART // 断点信息没法用，需要丢掉 .part 重新下载
+    }
+
+    /**
+     * @brief `fetchToPartFile` 的返回值。
+     * @property status 结果状态。
+     * @property sha1 完成时整个文件 (包括续传前已有的部分) 的 SHA1，只有 COMPLETED 时才有值。
+     * @property failureReason 失败原因，只有 FAILED 时才有值。
+     * @property failureKind 失败类型，只有 FAILED 时才有意义。
+     */
+    private data class PartFetchResult(
+        val status: PartFetchStatus,
+        val sha1: String? = null,
+        val failureReason: String? = null,
+        val failureKind: FailureKind = FailureKind.TRANSIENT
+    )
+
+    /**
+     * @brief 记录在 `.part.json` 里的断点信息。
+     *        只有 sha1、size 都跟当前任务一致时才会续传，防止把不同文件的数据拼到一起；url 可以不同，换了镜像也能接着下。
+     *
+     * @property url 下载地址。
+     * @property sha1 期望的 SHA1。
+     * @property size 期望的文件大小。
+     * @property offset 单连接下载时，已经确认写入 .part 文件的字节数。
+     * @property segments 分段下载时每一段的进度；单连接下载时为 `null`。
+     */
+    @Serializable
+    private data class PartFileState(
+        val url: String,
+        val sha1: String,
+        val size: Long,
+        val offset: Long,
+        val segments: List<SegmentState>? = null
+    )
+
+    /**
+     * @brief 分段下载中单个分段的进度。
+     *
+     * @property start 分段在文件中的起始位置 (包含)。
+     * @property end 分段的结束位置 (不包含)。
+     * @property written 这一段已经写入的字节数。
+     */
+    @Serializable
+    private data class SegmentState(
+        val start: Long,
+        val end: Long,
+        val written: Long
+    )
+
+    private val partStateJson = Json { ignoreUnknownKeys = true } // 断点信息用的 Json 实例
+
+    /**
+     * @brief 把任务的数据下载到 `.part` 文件里，能续传就续传。
+     *        有可用的断点时带上 `Range: bytes=N-` 请求头：服务器回 206 就接着写，
+     *        回 200 (不支持 Range) 就从头写。写的过程中定期更新断点信息。
+     *
+     * @param task 下载任务。
+     * @param partFile 临时数据文件。
+     * @param stateFile 断点信息文件。
+     * @param client Ktor HttpClient 实例。
+     * @param onFirstByte 第一次从响应体读到数据时调用一次 (对冲请求的首字节信号)，可以为 `null`。
+     * @param onBytesResumed 续传时把已有的字节数报告一次。
+     * @param onBytesDownloaded 字节进度回调，报告从网络收到的字节数。
+     * @return 下载结果，完成时带上整个文件的 SHA1。
+     */
+    private suspend fun fetchToPartFile(
+        task: DownloadTaskInfo,
+        partFile: File,
+        stateFile: File,
+        client: HttpClient,
+        onFirstByte: (() -> Unit)?,
+        onBytesResumed: (Long) -> Unit,
+        onBytesDownloaded: (Long) -> Unit
+    ): PartFetchResult {
+        // 边写边算 SHA1：写进文件的同一块缓冲区顺手喂给摘要，不用写完再把文件读一遍
+        val digest = MessageDigest.getInstance("SHA-1")
+        // 看看有没有上次留下的断点，有的话摘要会先恢复到断点处的状态
+        val resumeOffset = withContext(Dispatchers.IO) { prepareResume(task, partFile, stateFile, digest) }
+
+        // 使用 Ktor 发起 GET 请求，有断点就只要后面那一段
+        return client.prepareGet(task.url) {
+            if (resumeOffset > 0) {
+                header(HttpHeaders.Range, "bytes=$resumeOffset-")
+            }
+        }.execute { response ->
+            val startOffset = when {
+                resumeOffset > 0 && response.status == HttpStatusCode.PartialContent -> {
+                    // 确认服务器给的确实是从断点开始的那一段
+                    val contentRange = response.headers[HttpHeaders.ContentRange]
+                    if (contentRange == null || !contentRange.startsWith("bytes $resumeOffset-")) {
+                        Logger.warn(TAG) { "Unexpected Content-Range '$contentRange' for ${task.destinationPath}, restarting download." }
+                        return@execute PartFetchResult(PartFetchStatus.RESTART)
                     }
+                    Logger.info(TAG) { "Resuming ${task.destinationPath} at byte $resumeOffset." }
+                    onBytesResumed(resumeOffset) // 已有的部分也算进进度
+                    resumeOffset
                 }
+                response.status == HttpStatusCode.RequestedRangeNotSatisfiable -> {
+                    Logger.info(TAG) { "Server rejected resume range for ${task.destinationPath}, restarting download." }
+                    return@execute PartFetchResult(PartFetchStatus.RESTART)
+                }
+                response.status.isSuccess() -> {
+                    if (resumeOffset > 0) {
+                        // 服务器不支持 Range，回了完整内容，那就从头写，摘要也要重置
+                        Logger.info(TAG) { "Server ignored Range for ${task.destinationPath}, falling back to full download." }
+                        digest.reset()
+                    }
+                    0L
+                }
+                else -> {
+                    Logger.warn(TAG) { "Download failed for ${task.destinationPath}: HTTP status ${response.status}" }
+                    return@execute PartFetchResult(
+                        PartFetchStatus.FAILED,
+                        failureReason = "HTTP status ${response.status}",
+                        failureKind = classifyStatus(response.status)
+                    ) // HTTP 请求失败
+                }
+            }
 
-                // 下载完成后再次验证 SHA1
-                val downloadedSha1 = calculateSha1(destinationFile)
-                if (downloadedSha1 == task.sha1) {
-                    println("DownloadManager: Download complete and SHA1 verified (SHA1: $downloadedSha1): ${task.destinationPath}")
-                    true // 验证成功
+            val channel: ByteReadChannel = response.body()
+            // 小文件 (剩下的数据一块缓冲区就装得下) 走快速路径：读满一次写一次，不写断点信息，
+            // 几千个资源文件就省掉了几千次 .part.json 的写入，反正这么小也不值得续传
+            val smallFile = task.size - startOffset <= bufferPool.bufferSize
+            // 用 FileChannel 把响应体写入 .part 文件 (续传时追加，否则覆盖)
+            withContext(Dispatchers.IO) { // 确保文件写入在 IO 线程执行
+                val openOptions = if (startOffset > 0) {
+                    arrayOf(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
                 } else {
-                    println("DownloadManager: Download complete but SHA1 mismatch (Expected: ${task.sha1}, Got: $downloadedSha1). File might be corrupted: ${task.destinationPath}")
-                    destinationFile.delete() // 删除校验失败的文件
-                    false // 验证失败
+                    arrayOf(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                }
+                FileChannel.open(partFile.toPath(), *openOptions).use { fileChannel ->
+                    bufferPool.use { buffer ->
+                        var offset = startOffset
+                        var lastCheckpoint = startOffset
+                        if (!smallFile) writePartState(stateFile, task, offset)
+                        try {
+                            var endOfStream = false
+                            var firstByteSeen = onFirstByte == null
+                            while (!endOfStream) {
+                                // 尽量把缓冲区填满再写，减少系统调用；小文件通常一次就读完了
+                                buffer.clear()
+                                while (buffer.hasRemaining()) {
+                                    val read = channel.readAvailable(buffer)
+                                    if (read < 0) {
+                                        endOfStream = true
+                                        break
+                                    }
+                                    if (read > 0 && !firstByteSeen) {
+                                        firstByteSeen = true
+                                        onFirstByte?.invoke() // 真正的首字节，不等这块缓冲区填满
+                                    }
+                                }
+                                buffer.flip()
+                                val read = buffer.remaining()
+                                if (read == 0) break // 读取结束
+                                // 同一块缓冲区先喂给摘要，再写进文件
+                                buffer.mark()
+                                digest.update(buffer)
+                                buffer.reset()
+                                while (buffer.hasRemaining()) {
+                                    fileChannel.write(buffer)
+                                }
+                                offset += read
+                                onBytesDownloaded(read.toLong()) // 报告刚写入的字节数
+                                ioLimiter.acquireBytes(read.toLong()) // 全局限速：额度不够就在这里等，下一块读得就慢了
+                                // 每写一段就更新一次断点，被杀掉的时候最多丢这一段
+                                if (!smallFile && offset - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                                    writePartState(stateFile, task, offset)
+                                    lastCheckpoint = offset
+                                }
+                            }
+                        } finally {
+                            // 不管是正常结束还是中途出错，都把当前写到哪记下来
+                            if (!smallFile) writePartState(stateFile, task, offset)
+                        }
+                    }
                 }
             }
+            PartFetchResult(PartFetchStatus.COMPLETED, toHexString(digest.digest()))
+        }
+    }
+
+    /**
+     * @brief 分段下载时，某个分段在运行中的进度。
+     */
+    private class SegmentProgress(val start: Long, val end: Long, initialWritten: Long) {
+        val written = AtomicLong(initialWritten) // 已写入的字节数，多个协程会读它
+        val remaining: Long get() = end - start - written.get()
+    }
+
+    /**
+     * @brief 服务器对分段请求没有返回 206 时抛出，用来取消其它分段并回退到单连接下载。
+     */
+    private class RangeNotSupportedException(message: String) : IOException(message)
+
+    /**
+     * @brief 把大文件拆成几个字节区间，并行下载到预先分配好大小的 `.part` 文件里。
+     *        每个分段用 `FileChannel` 按位置写入，互不干扰；每段的进度都记在断点信息里，
+     *        被打断后可以按段续传。因为数据不是按顺序到达的，全部写完后再对整个文件算一次 SHA1。
+     *
+     * @param task 下载任务。
+     * @param partFile 临时数据文件。
+     * @param stateFile 断点信息文件。
+     * @param client Ktor HttpClient 实例。
+     * @param options 下载参数 (段数)。
+     * @param host 下载地址的主机标识。第一个连接用调用方已经拿到的许可，之后每多开一个连接都要再拿一个。
+     * @param previousState 上次留下的断点信息，有分段进度的话会接着下。
+     * @param onBytesResumed 续传时把各段已有的字节数报告一次。
+     * @param onBytesDownloaded 字节进度回调，报告从网络收到的字节数。
+     * @return 下载结果；服务器不支持 Range 时返回 RESTART，由调用方改用单连接下载。
+     */
+    private suspend fun fetchSegmentedToPartFile(
+        task: DownloadTaskInfo,
+        partFile: File,
+        stateFile: File,
+        client: HttpClient,
+        options: DownloadOptions,
+        host: String,
+        previousState: PartFileState?,
+        onBytesResumed: (Long) -> Unit,
+        onBytesDownloaded: (Long) -> Unit
+    ): PartFetchResult {
+        // 有可用的分段断点就接着用，否则重新切分
+        val segments = previousState?.segments
+            ?.takeIf { partFile.length() == task.size } // 预分配过的文件大小必须对得上
+            ?.map { SegmentProgress(it.start, it.end, it.written.coerceIn(0L, it.end - it.start)) }
+            ?: splitIntoSegments(task.size, options.segmentCount)
+
+        // 预分配文件大小，各个分段直接往自己的位置写
+        withContext(Dispatchers.IO) {
+            RandomAccessFile(partFile, "rw").use { if (it.length() != task.size) it.setLength(task.size) }
+        }
+        val resumedBytes = segments.sumOf { it.written.get() }
+        if (resumedBytes > 0) {
+            Logger.info(TAG) { "Resuming segmented download of ${task.destinationPath} ($resumedBytes bytes already present)." }
+            onBytesResumed(resumedBytes) // 已有的部分也算进进度
+        } else {
+            Logger.debug(TAG) { "Downloading ${task.destinationPath} in ${segments.size} segments." }
+        }
+
+        // 多个分段协程会同时更新断点，写文件时加个锁
+        val stateLock = Any()
+        val checkpoint = {
+            synchronized(stateLock) {
+                writePartState(stateFile, PartFileState(
+                    url = task.url, sha1 = task.sha1, size = task.size, offset = 0L,
+                    segments = segments.map { SegmentState(it.start, it.end, it.written.get()) }
+                ))
+            }
+        }
+
+        try {
+            withContext(Dispatchers.IO) {
+                checkpoint()
+                FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE).use { fileChannel ->
+                    try {
+                        // 每个连接从队列里取分段下载，取完就结束
+                        val pending = ConcurrentLinkedQueue(segments.filter { it.remaining > 0 })
+                        coroutineScope {
+                            repeat(pending.size) { connection ->
+                                launch {
+                                    // 第一个连接用调用方的许可；其它的各自再要一个，要不到就不开这个连接，
+                                    // 分段留在队列里让已经开着的连接接着下。不能挂起等：拿着许可等许可会互相卡死
+                                    val extraPermit = connection > 0
+                                    if (extraPermit && !concurrencyLimiter.tryAcquire(host)) return@launch
+                                    try {
+                                        while (true) {
+                                            val segment = pending.poll() ?: break
+                                            fetchSegment(task, segment, fileChannel, client, checkpoint, onBytesDownloaded)
+                                        }
+                                    } finally {
+                                        // 传输量和成败由调用方那个许可统一报告，这里只还许可
+                                        if (extraPermit) concurrencyLimiter.release(host, 0L, null)
+                                    }
+                                }
+                            }
+                        }
+                    } finally {
+                        checkpoint() // 不管成功失败，都把各段写到哪记下来
+                    }
+                }
+            }
+        } catch (e: RangeNotSupportedException) {
+            Logger.info(TAG) { "${e.message}, falling back to single connection for ${task.destinationPath}." }
+            return PartFetchResult(PartFetchStatus.RESTART)
+        }
+
+        // 分段是乱序写入的，没法边下边算，这里对整个文件算一次
+        val sha1 = withContext(Dispatchers.IO) { calculateSha1(partFile) }
+        return PartFetchResult(PartFetchStatus.COMPLETED, sha1)
+    }
+
+    /**
+     * @brief 下载单个分段，按位置写进共享的 `FileChannel`。
+     *
+     * @param task 下载任务。
+     * @param segment 要下载的分段 (从它已写入的位置继续)。
+     * @param fileChannel `.part` 文件的写入通道。
+     * @param client Ktor HttpClient 实例。
+     * @param checkpoint 更新断点信息的函数。
+     * @param onBytesDownloaded 字节进度回调。
+     */
+    private suspend fun fetchSegment(
+        task: DownloadTaskInfo,
+        segment: SegmentProgress,
+        fileChannel: FileChannel,
+        client: HttpClient,
+        checkpoint: () -> Unit,
+        onBytesDownloaded: (Long) -> Unit
+    ) {
+        val rangeStart = segment.start + segment.written.get()
+        val rangeEnd = segment.end - 1 // HTTP Range 的结束位置是包含的
+        client.prepareGet(task.url) {
+            header(HttpHeaders.Range, "bytes=$rangeStart-$rangeEnd")
+        }.execute { response ->
+            if (response.status != HttpStatusCode.PartialContent) {
+                if (response.status.isSuccess()) {
+                    throw RangeNotSupportedException("Server returned ${response.status} for a range request")
+                }
+                throw HttpStatusException(response.status, "HTTP status ${response.status} for segment $rangeStart-$rangeEnd")
+            }
+            val channel: ByteReadChannel = response.body()
+            bufferPool.use { buffer ->
+                var position = rangeStart
+                var sinceCheckpoint = 0L
+                while (position <= rangeEnd) {
+                    // 最多只读到分段末尾，防止服务器多给数据写到别的分段里
+                    buffer.clear()
+                    buffer.limit(minOf(buffer.capacity().toLong(), rangeEnd - position + 1).toInt())
+                    val read = channel.readAvailable(buffer)
+                    if (read <= 0) break
+                    buffer.flip()
+                    while (buffer.hasRemaining()) {
+                        position += fileChannel.write(buffer, position) // 按位置写，不影响其它分段
+                    }
+                    segment.written.addAndGet(read.toLong())
+                    onBytesDownloaded(read.toLong())
+                    ioLimiter.acquireBytes(read.toLong()) // 全局限速
+                    sinceCheckpoint += read
+                    if (sinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                        checkpoint()
+                        sinceCheckpoint = 0L
+                    }
+                }
+            }
+            if (segment.remaining > 0) {
+                throw IOException("Segment $rangeStart-$rangeEnd ended early (${segment.remaining} bytes missing)")
+            }
+        }
+    }
+
+    /**
+     * @brief 把文件平均切成若干段。
+     *
+     * @param size 文件大小。
+     * @param count 段数。
+     * @return 分段列表，最后一段会包含除不尽的余数。
+     */
+    private fun splitIntoSegments(size: Long, count: Int): List<SegmentProgress> {
+        val segmentSize = size / count
+        return (0 until count).map { i ->
+            val start = i * segmentSize
+            val end = if (i == count - 1) size else start + segmentSize
+            SegmentProgress(start, end, 0L)
+        }
+    }
+
+    /**
+     * @brief 检查上次留下的 `.part` 文件能不能续传。
+     *        能续传的话，把断点之后可能不完整的数据截掉，再把已有部分重新喂给摘要，
+     *        这样续传完成后算出来的仍然是整个文件的 SHA1。
+     *
+     * @param task 下载任务。
+     * @param partFile 临时数据文件。
+     * @param stateFile 断点信息文件。
+     * @param digest 要恢复状态的 SHA1 摘要实例。
+     * @return 续传的起始偏移；不能续传时返回 0。
+     */
+    private fun prepareResume(task: DownloadTaskInfo, partFile: File, stateFile: File, digest: MessageDigest): Long {
+        val state = readPartState(task, partFile, stateFile) ?: return 0L // 没有可用的断点
+        if (state.segments != null) return 0L // 分段下载留下的断点，单连接没法接着用
+        val offset = minOf(state.offset, partFile.length())
+        if (offset <= 0L || offset >= task.size) return 0L // 没什么可续的，或者数据有问题，从头下
+
+        return try {
+            // 截掉断点之后的数据，那部分可能是被打断时没写完整的
+            RandomAccessFile(partFile, "rw").use { it.setLength(offset) }
+            // 重新读一遍已有部分，恢复摘要的中间状态
+            FileChannel.open(partFile.toPath(), StandardOpenOption.READ).use { updateDigest(digest, it) }
+            offset
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to prepare resume for ${task.destinationPath}: ${e.message}" }
+            digest.reset()
+            0L
+        }
+    }
+
+    /**
+     * @brief 读取并检查 `.part` 文件的断点信息。
+     *
+     * @param task 下载任务。
+     * @param partFile 临时数据文件。
+     * @param stateFile 断点信息文件。
+     * @return 属于这个任务的断点信息；没有、读不出来或者对不上时返回 `null`。
+     */
+    private fun readPartState(task: DownloadTaskInfo, partFile: File, stateFile: File): PartFileState? {
+        if (!partFile.isFile || !stateFile.isFile) return null // 没有断点
+
+        val state = try {
+            partStateJson.decodeFromString<PartFileState>(stateFile.readText())
         } catch (e: Exception) {
-            println("DownloadManager: Exception during download for ${task.destinationPath}: ${e.message}")
-            // e.printStackTrace() // 可以取消注释以获取详细堆栈跟踪
-            // 尝试删除可能不完整的文件
-            try {
-                 if (destinationFile.exists()) {
-                     destinationFile.delete()
-                 }
-             } catch (deleteException: SecurityException) {
-                 println("DownloadManager: Security exception while trying to delete failed download file ${destinationFile.path}: ${deleteException.message}")
-             }
-            false // 下载过程中发生异常
+            Logger.warn(TAG) { "Unreadable resume state for ${task.destinationPath}: ${e.message}" }
+            return null
+        }
+        // 断点必须属于同一个文件。不比较 url：换了镜像下的还是同一个文件 (最后有 SHA1 校验把关)
+        if (state.sha1 != task.sha1 || state.size != task.size) {
+            return null
+        }
+        return state
+    }
+
+    /**
+     * @brief 写入断点信息文件。写失败只会导致下次不能续传，所以这里不抛异常。
+     */
+    private fun writePartState(stateFile: File, task: DownloadTaskInfo, offset: Long) {
+        writePartState(stateFile, PartFileState(task.url, task.sha1, task.size, offset))
+    }
+
+    /**
+     * @brief 写入断点信息文件 (完整版本，分段下载用)。
+     */
+    private fun writePartState(stateFile: File, state: PartFileState) {
+        try {
+            stateFile.writeText(partStateJson.encodeToString(state))
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to write resume state ${stateFile.path}: ${e.message}" }
+        }
+    }
+
+    /**
+     * @brief 删除 `.part` 文件和它的断点信息。
+     */
+    private fun discardPartFile(partFile: File, stateFile: File) {
+        try {
+            partFile.delete()
+            stateFile.delete()
+        } catch (e: SecurityException) {
+            Logger.warn(TAG) { "Security exception while deleting partial download ${partFile.path}: ${e.message}" }
         }
     }
 
@@ -489,27 +1587,55 @@ object DownloadManager {
             if (!file.isFile) return null // 确保是文件且存在
 
             val digest = MessageDigest.getInstance("SHA-1") // 获取 SHA-1 摘要实例
-            FileInputStream(file).use { fis -> // 使用 try-with-resources 确保流关闭
-                val byteArray = ByteArray(1024) // 读取缓冲区
-                var bytesCount: Int
-                while (fis.read(byteArray).also { bytesCount = it } != -1) { // 循环读取文件内容
-                    digest.update(byteArray, 0, bytesCount) // 更新摘要
-                }
-            }
+            FileChannel.open(file.toPath(), StandardOpenOption.READ).use { updateDigest(digest, it) } // use 确保通道关闭
             // 把计算出的摘要字节数组转换为十六进制字符串
-            digest.digest().joinToString("") { "%02x".format(it) }
+            toHexString(digest.digest())
         } catch (e: IOException) {
-            println("DownloadManager: IOException while calculating SHA1 for file ${file.name}: ${e.message}")
+            Logger.warn(TAG) { "IOException while calculating SHA1 for file ${file.name}: ${e.message}" }
             null // IO 错误
         } catch (e: NoSuchAlgorithmException) {
-             println("DownloadManager: SHA-1 algorithm not found. This should not happen.")
+             Logger.error(TAG) { "SHA-1 algorithm not found. This should not happen." }
              null // 基本不可能发生
         } catch (e: SecurityException) {
-             println("DownloadManager: Security exception while calculating SHA1 for file ${file.name} (Permission denied?): ${e.message}")
+             Logger.warn(TAG) { "Security exception while calculating SHA1 for file ${file.name} (Permission denied?): ${e.message}" }
              null // 权限问题
         }
     }
 
+    /**
+     * @brief 用池里的直接缓冲区把文件通道剩下的内容全部读一遍，喂给摘要。
+     *
+     * @param digest 要更新的摘要实例。
+     * @param fileChannel 要读取的文件通道 (从当前位置读到末尾)。
+     */
+    private fun updateDigest(digest: MessageDigest, fileChannel: FileChannel) {
+        bufferPool.use { buffer ->
+            while (fileChannel.read(buffer) >= 0) {
+                buffer.flip()
+                digest.update(buffer)
+                buffer.clear()
+            }
+        }
+    }
+
+    /**
+     * @brief 把摘要字节数组转换成小写十六进制字符串 (跟 Mojang JSON 里的 SHA1 格式一致)。
+     *
+     * @param bytes 摘要字节数组。
+     * @return 十六进制字符串。
+     */
+    private fun toHexString(bytes: ByteArray): String {
+        val hexChars = CharArray(bytes.size * 2)
+        bytes.forEachIndexed { i, b ->
+            val v = b.toInt() and 0xFF
+            hexChars[i * 2] = HEX_DIGITS[v ushr 4]
+            hexChars[i * 2 + 1] = HEX_DIGITS[v and 0x0F]
+        }
+        return String(hexChars)
+    }
+
+    private val HEX_DIGITS = "0123456789abcdef".toCharArray() // 十六进制字符表
+
     // --- 资源索引解析相关 --- 
 
     /**
@@ -535,18 +1661,20 @@ object DownloadManager {
 
     /**
      * @brief 读取并解析已下载的资源索引 JSON 文件，生成资源对象的下载任务列表。
+     *        `InstallVerifier` 也用它列出一个版本应有的资源文件。
      *
      * @param assetIndexFile 指向本地资源索引 JSON 文件的 `File` 对象。
      * @return 包含所有资源对象下载任务 (`DownloadTaskInfo`) 的列表，如果解析失败就返回 `null`。
      */
-    private fun parseAssetIndex(assetIndexFile: File): List<DownloadTaskInfo>? {
+    fun parseAssetIndex(assetIndexFile: File): List<DownloadTaskInfo>? {
         return try {
             val jsonContent = assetIndexFile.readText() // 读取文件内容
             val json = Json { ignoreUnknownKeys = true } // 创建 Json 解析器实例
             val indexData = json.decodeFromString<AssetIndex>(jsonContent) // 解析 JSON
 
             // 把解析出的 objects 映射转换为 DownloadTaskInfo 列表
-            indexData.objects.map { (_, objectInfo) ->
+            // 多个资源名可能指向同一个哈希 (同一个文件)，按哈希去重，免得重复下载、进度重复计算
+            indexData.objects.values.distinctBy { it.hash }.map { objectInfo ->
                 // 构造资源对象的 URL (基于哈希值)
                 // URL 格式: https://resources.download.minecraft.net/xx/xxxxxxxx...
                 val hashPrefix = objectInfo.hash.substring(0, 2) // 取哈希值的前两个字符
@@ -563,8 +1691,7 @@ object DownloadManager {
                 )
             }
         } catch (e: Exception) {
-            println("DownloadManager: Error parsing asset index file ${assetIndexFile.name}: ${e.message}")
-            e.printStackTrace() // 打印详细错误
+            Logger.error(TAG, e) { "Error parsing asset index file ${assetIndexFile.name}: ${e.message}" }
             null // 解析失败
         }
     }
@@ -0,0 +1,288 @@
+/**
+ * @file DownloadMirrors.kt
+ * @brief 下载镜像源：把 Mojang 官方的下载地址改写到镜像 (比如 BMCLAPI)，并按实测的延迟和吞吐给各个源排序。
+ *        国内直连 Mojang 的服务器很慢，镜像通常快得多；但镜像也可能缺文件、出错或者内容不对，
+ *        所以每个文件都有一串按当前排名排好的候选地址，一个不行就换下一个。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.net.URI
+import java.net.URISyntaxException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * @brief 一个下载源。
+ *
+ * @property name 源的名字，用于日志和指标。
+ * @property rewrites 原始主机 -> 镜像地址前缀。比如 `"libraries.minecraft.net" to "https://bmclapi2.bangbang93.com/maven"`，
+ *                    原地址的路径会直接接在前缀后面。主机带端口时写成 `"host:port"`。
+ * @property passthrough 是否直接使用原地址 (官方源)。为 `true` 时忽略 [rewrites]。
+ */
+data class MirrorSource(
+    val name: String,
+    val rewrites: Map<String, String> = emptyMap(),
+    val passthrough: Boolean = false
+) {
+    /**
+     * @brief 把原始地址改写成这个源的地址。
+     *
+     * @param url 原始下载地址。
+     * @return 改写后的地址；这个源不提供这个主机的文件时返回 `null`。
+     */
+    fun rewrite(url: String): String? {
+        if (passthrough) return url
+        val uri = parseUri(url) ?: return null
+        val prefix = rewrites[hostKey(uri)] ?: return null
+        val query = uri.rawQuery?.let { "?$it" } ?: ""
+        return prefix.trimEnd('/') + (uri.rawPath ?: "") + query
+    }
+
+    companion object {
+        /** @brief Mojang 官方源，直接用 JSON 里的地址。 */
+        val OFFICIAL = MirrorSource("official", passthrough = true)
+
+        private const val BMCLAPI_ROOT = "https://bmclapi2.bangbang93.com"
+
+        /** @brief BMCLAPI 镜像 (bangbang93 维护)，国内访问快。 */
+        val BMCLAPI = MirrorSource(
+            "bmclapi",
+            mapOf(
+                "piston-data.mojang.com" to BMCLAPI_ROOT,
+                "piston-meta.mojang.com" to BMCLAPI_ROOT,
+                "launcher.mojang.com" to BMCLAPI_ROOT,
+                "launchermeta.mojang.com" to BMCLAPI_ROOT,
+                "libraries.minecraft.net" to "$BMCLAPI_ROOT/maven",
+                "resources.download.minecraft.net" to "$BMCLAPI_ROOT/assets"
+            )
+        )
+
+        /**
+         * @brief 获取地址的主机标识：没写端口时就是主机名，写了端口时是 `host:port`。
+         *
+         * @param url 地址。
+         * @return 主机标识，地址无法解析时返回 `null`。
+         */
+        fun hostKey(url: String): String? = parseUri(url)?.let { hostKey(it) }
+
+        /** @brief 可以按名字启用的第三方镜像。 */
+        val KNOWN_MIRRORS = listOf(BMCLAPI)
+
+        /**
+         * @brief 按配置生成下载源列表。官方源总是在第一个；第三方镜像要用户自己启用，默认不用，
+         *        免得没问过用户就把请求 (包括探索请求) 发到别人的服务器上。
+         *
+         * @param spec 逗号分隔的镜像名 (比如 `"bmclapi"`)，一般来自系统属性 `wzs.download.mirrors`。为 `null` 或空时只用官方源。
+         * @return 下载源列表。不认识的名字会被忽略。
+         */
+        fun configured(spec: String? = System.getProperty(MIRRORS_PROPERTY)): List<MirrorSource> {
+            val names = spec?.split(',')?.map { it.trim().lowercase() }?.filter { it.isNotEmpty() }.orEmpty()
+            return listOf(OFFICIAL) + KNOWN_MIRRORS.filter { it.name in names }
+        }
+
+        /** @brief 启用第三方镜像的系统属性，比如 `-Dwzs.download.mirrors=bmclapi`。 */
+        const val MIRRORS_PROPERTY = "wzs.download.mirrors"
+
+        private fun hostKey(uri: URI): String? {
+            val host = uri.host ?: return null
+            return if (uri.port == -1) host else "$host:${uri.port}"
+        }
+
+        private fun parseUri(url: String): URI? = try {
+            URI(url)
+        } catch (e: URISyntaxException) {
+            null
+        }
+    }
+}
+
+/**
+ * @brief 某个文件的一个候选下载地址。
+ *
+ * @property mirror 来自哪个源。
+ * @property url 改写后的地址。
+ * @property host 改写后地址的主机标识，用于限流和熔断。
+ * @property statsKey 排名统计用的键 (源 + 原始主机)，同一个源对不同类型的文件 (库、资源) 分开统计。
+ */
+data class MirrorCandidate(
+    val mirror: String,
+    val url: String,
+    val host: String,
+    val statsKey: String
+)
+
+/**
+ * @brief 某个源在某类文件上的实测指标快照。
+ *
+ * @property mirror 源的名字。
+ * @property originalHost 原始主机 (也就是文件类型)。
+ * @property samples 成功的请求数。
+ * @property latencyMillis 小文件请求耗时的滑动平均 (毫秒)，还没有样本时为 `null`。
+ * @property throughputBytesPerSecond 大文件下载速度的滑动平均 (字节/秒)，还没有样本时为 `null`。
+ * @property failureRate 失败率的滑动平均 (0 ~ 1)。
+ */
+data class MirrorMetrics(
+    val mirror: String,
+    val originalHost: String,
+    val samples: Long,
+    val latencyMillis: Double?,
+    val throughputBytesPerSecond: Double?,
+    val failureRate: Double
+)
+
+/**
+ * @brief 按实测结果给下载源排序。线程安全。
+ *        每个 (源, 原始主机) 分别统计小文件的耗时、大文件的速度和失败率，估算下载某个大小的文件要花多久，
+ *        估算最快的排最前面。还没测够的源按配置顺序排在测过的后面；每隔 [EXPLORE_INTERVAL] 次
+ *        把样本最少的源提到最前面试一次，网络情况变了排名也能跟着变。
+ *
+ * @param sources 下载源列表，顺序就是没有测量数据时的优先顺序。
+ */
+class MirrorSelector(sources: List<MirrorSource>) {
+
+    /** @brief 当前的下载源列表，可以运行时替换 (比如用户在设置里换了镜像)，已有的测量数据会保留。 */
+    @Volatile
+    var sources: List<MirrorSource> = sources
+
+    private val stats = ConcurrentHashMap<String, MirrorStats>() // 键是 MirrorCandidate.statsKey
+    private val requestCounter = AtomicLong(0)
+
+    /**
+     * @brief 获取某个文件按当前排名排好的候选地址。
+     *
+     * @param url 原始下载地址。
+     * @param size 文件大小，用来估算每个源要花的时间。
+     * @param verifiable 下载下来的内容能不能校验 (有没有 SHA1)。不能校验的只用原地址，镜像给错了也发现不了。
+     * @return 候选地址，至少有一个 (没有源能提供时就是原地址本身)。
+     */
+    fun candidates(url: String, size: Long, verifiable: Boolean = true): List<MirrorCandidate> {
+        val originalHost = MirrorSource.hostKey(url) ?: return listOf(MirrorCandidate(MirrorSource.OFFICIAL.name, url, url, url))
+        if (!verifiable) {
+            return listOf(MirrorCandidate(MirrorSource.OFFICIAL.name, url, originalHost, "${MirrorSource.OFFICIAL.name}|$originalHost"))
+        }
+        val candidates = sources.mapNotNull { source ->
+            val rewritten = source.rewrite(url) ?: return@mapNotNull null
+            MirrorCandidate(source.name, rewritten, MirrorSource.hostKey(rewritten) ?: originalHost, "${source.name}|$originalHost")
+        }.distinctBy { it.url }
+        if (candidates.isEmpty()) {
+            return listOf(MirrorCandidate(MirrorSource.OFFICIAL.name, url, originalHost, "${MirrorSource.OFFICIAL.name}|$originalHost"))
+        }
+        if (candidates.size == 1) return candidates
+
+        // 测过的按估算耗时从快到慢，没测够的按配置顺序排在后面
+        val ranked = candidates.withIndex().sortedWith(
+            compareBy<IndexedValue<MirrorCandidate>>(
+                { if (estimateMillis(it.value, size) == null) 1 else 0 },
+                { estimateMillis(it.value, size) ?: 0.0 },
+                { it.index }
+            )
+        ).map { it.value }
+
+        // 时不时让样本最少的源先上，保证每个源的数据都是新的
+        if (requestCounter.incrementAndGet() % EXPLORE_INTERVAL == 0L) {
+            val leastSampled = ranked.minBy { stats[it.statsKey]?.samples ?: 0L }
+            return listOf(leastSampled) + (ranked - leastSampled)
+        }
+        return ranked
+    }
+
+    /**
+     * @brief 记录一次成功的下载。
+     *
+     * @param candidate 用的是哪个候选地址。
+     * @param bytes 下载的字节数。
+     * @param elapsedNanos 花费的时间 (纳秒)，包括建连和等待首字节。
+     */
+    fun recordSuccess(candidate: MirrorCandidate, bytes: Long, elapsedNanos: Long) {
+        statsFor(candidate).recordSuccess(bytes, elapsedNanos)
+    }
+
+    /**
+     * @brief 记录一次失败 (出错、缺文件或 SHA1 不匹配)。
+     *
+     * @param candidate 用的是哪个候选地址。
+     */
+    fun recordFailure(candidate: MirrorCandidate) {
+        statsFor(candidate).recordFailure()
+    }
+
+    /**
+     * @brief 获取各个源的实测指标。
+     *
+     * @return 每个用到过的 (源, 原始主机) 一条指标，按原始主机和源名排序。
+     */
+    fun metrics(): List<MirrorMetrics> = stats.entries.map { (key, value) ->
+        value.metrics(key.substringBefore('|'), key.substringAfter('|'))
+    }.sortedWith(compareBy({ it.originalHost }, { it.mirror }))
+
+    private fun statsFor(candidate: MirrorCandidate): MirrorStats =
+        stats.computeIfAbsent(candidate.statsKey) { MirrorStats() }
+
+    /**
+     * @brief 估算用这个候选地址下载 [size] 字节要多久 (毫秒)，样本不够时返回 `null`。
+     *        估算 = 请求延迟 + 大小 / 速度，再按失败率加惩罚 (失败重来的代价)。
+     */
+    private fun estimateMillis(candidate: MirrorCandidate, size: Long): Double? {
+        val stat = stats[candidate.statsKey] ?: return null
+        return stat.estimateMillis(size)
+    }
+
+    /**
+     * @brief 单个 (源, 原始主机) 的滑动统计。
+     */
+    private class MirrorStats {
+        private val lock = Any()
+        var samples = 0L
+            private set
+        private var failureSamples = 0L
+        private var latencyMillis: Double? = null
+        private var throughput: Double? = null // 字节/秒
+        private var failureRate = 0.0
+
+        fun recordSuccess(bytes: Long, elapsedNanos: Long) = synchronized(lock) {
+            samples++
+            val elapsedMillis = elapsedNanos.coerceAtLeast(1L) / 1_000_000.0
+            if (bytes <= LATENCY_SAMPLE_MAX_BYTES) {
+                // 小文件的耗时基本就是延迟
+                latencyMillis = ewma(latencyMillis, elapsedMillis)
+            } else {
+                throughput = ewma(throughput, bytes * 1000.0 / elapsedMillis)
+            }
+            failureRate = ewma(failureRate, 0.0)
+        }
+
+        fun recordFailure() = synchronized(lock) {
+            failureSamples++
+            failureRate = ewma(failureRate, 1.0)
+        }
+
+        fun estimateMillis(size: Long): Double? = synchronized(lock) {
+            if (samples + failureSamples < MIN_SAMPLES) return null
+            val latency = latencyMillis ?: 0.0
+            val transfer = throughput?.let { size * 1000.0 / it } ?: 0.0
+            // 一直失败、还没成功过的源排到最后
+            val base = if (samples == 0L) Double.MAX_VALUE / 4 else latency + transfer
+            base * (1.0 + FAILURE_PENALTY * failureRate)
+        }
+
+        fun metrics(mirror: String, originalHost: String): MirrorMetrics = synchronized(lock) {
+            MirrorMetrics(mirror, originalHost, samples, latencyMillis, throughput, failureRate)
+        }
+
+        private fun ewma(previous: Double?, sample: Double): Double =
+            if (previous == null) sample else previous + EWMA_ALPHA * (sample - previous)
+    }
+
+    companion object {
+        private const val EXPLORE_INTERVAL = 16L // 每多少次请求探索一次样本最少的源
+        private const val MIN_SAMPLES = 3L // 至少这么多个样本才参与按耗时排名
+        private const val LATENCY_SAMPLE_MAX_BYTES = 256L * 1024 // 不超过这个大小的文件算延迟样本，更大的算速度样本
+        private const val EWMA_ALPHA = 0.2 // 滑动平均的新样本权重
+        private const val FAILURE_PENALTY = 4.0 // 失败率对估算耗时的放大系数
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @file DownloadProgress.kt
+ * @brief 下载进度快照和进度统计器。
+ *        下载线程只管累加计数器，由一个采样协程按固定频率生成快照发布到 StateFlow，
+ *        UI 拿到的永远是最新的一份，不会被每个数据块的回调淹没。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * @brief 某一时刻的整体下载进度。
+ *
+ * @property bytesDownloaded 已完成的字节数 (包括校验后直接跳过的文件和续传前已有的部分)。
+ * @property totalBytes 需要的总字节数。资源索引解析完后会往上修正。
+ * @property filesCompleted 已处理完的文件数 (成功或失败都算)。
+ * @property totalFiles 需要处理的文件总数，同样会随资源索引修正。
+ * @property bytesPerSecond 当前速度 (字节/秒)，经过平滑处理。
+ * @property etaSeconds 预计剩余时间 (秒)；速度还没测出来时为 `null`。
+ * @property activeConnections 正在传输数据的连接数。
+ */
+data class DownloadProgress(
+    val bytesDownloaded: Long = 0L,
+    val totalBytes: Long = 0L,
+    val filesCompleted: Int = 0,
+    val totalFiles: Int = 0,
+    val bytesPerSecond: Long = 0L,
+    val etaSeconds: Long? = null,
+    val activeConnections: Int = 0
+) {
+    /** @brief 整体进度，范围 0.0 到 1.0。 */
+    val fraction: Float
+        get() = if (totalBytes > 0) (bytesDownloaded.toFloat() / totalBytes).coerceIn(0f, 1f) else 0f
+}
+
+/**
+ * @brief 一次下载执行的进度计数器。
+ *        计数器可以被任意线程并发更新；[sample] 只应该由一个采样协程调用。
+ *
+ * @param initialTotalBytes 初始的总字节数。
+ * @param initialTotalFiles 初始的文件总数。
+ */
+class DownloadProgressTracker(initialTotalBytes: Long, initialTotalFiles: Int) {
+
+    val bytesDownloaded = AtomicLong(0)
+    val totalBytes = AtomicLong(initialTotalBytes)
+    val filesCompleted = AtomicInteger(0)
+    val totalFiles = AtomicInteger(initialTotalFiles)
+    val activeConnections = AtomicInteger(0)
+
+    // --- 速度计算，只在采样协程里访问 ---
+    private var lastSampleNanos = System.nanoTime()
+    private var lastSampleBytes = 0L
+    private var smoothedRate = -1.0 // 平滑后的速度 (字节/秒)，负数表示还没有采样过
+
+    /**
+     * @brief 生成一份进度快照，同时根据距上次采样的增量更新速度。
+     *
+     * @return 当前进度快照。
+     */
+    fun sample(): DownloadProgress {
+        val now = System.nanoTime()
+        val bytes = bytesDownloaded.get()
+        val elapsed = now - lastSampleNanos
+        if (elapsed > 0) {
+            val instantRate = (bytes - lastSampleBytes) * 1_000_000_000.0 / elapsed
+            // 指数滑动平均，免得速度和剩余时间跳来跳去
+            smoothedRate = if (smoothedRate < 0) instantRate else smoothedRate + RATE_SMOOTHING * (instantRate - smoothedRate)
+            lastSampleNanos = now
+            lastSampleBytes = bytes
+        }
+        val total = totalBytes.get()
+        val rate = smoothedRate.coerceAtLeast(0.0)
+        return DownloadProgress(
+            bytesDownloaded = bytes,
+            totalBytes = total,
+            filesCompleted = filesCompleted.get(),
+            totalFiles = totalFiles.get(),
+            bytesPerSecond = rate.toLong(),
+            etaSeconds = if (rate >= 1.0) ((total - bytes).coerceAtLeast(0L) / rate).toLong() else null,
+            activeConnections = activeConnections.get()
+        )
+    }
+
+    companion object {
+        private const val RATE_SMOOTHING = 0.3 // 平滑系数，越大越跟手，越小越稳
+    }
+}
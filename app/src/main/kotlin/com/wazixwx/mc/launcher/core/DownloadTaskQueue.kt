@@ -0,0 +1,89 @@
+/**
+ * @file DownloadTaskQueue.kt
+ * @brief 按优先级出队的下载任务队列。
+ *        启动游戏必须的文件 (客户端 JAR、库文件) 排在最前面，几千个资源文件排在最后，
+ *        不会出现客户端 JAR 排在一堆音效后面的情况。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.channels.Channel
+import java.util.PriorityQueue
+
+/**
+ * @brief 下载任务的优先级类别，按声明顺序从高到低。
+ */
+enum class DownloadPriority {
+    LAUNCH_CRITICAL, // 客户端 JAR 和库文件，没有它们游戏启动不了
+    NATIVE, // 本地库
+    ASSET_INDEX, // 资源索引
+    ASSET_OBJECT; // 资源文件，缺了也能进游戏 (只是暂时没声音、没贴图)
+
+    companion object {
+        /**
+         * @brief 根据任务类型判断优先级类别。
+         *
+         * @param task 下载任务。
+         * @return 优先级类别，不认识的类型按启动必需处理。
+         */
+        fun of(task: DownloadTaskInfo): DownloadPriority = when (task.type) {
+            "native" -> NATIVE
+            "asset_index" -> ASSET_INDEX
+            "asset_object" -> ASSET_OBJECT
+            else -> LAUNCH_CRITICAL // "client"、"library" 以及以后新加的类型
+        }
+    }
+}
+
+/**
+ * @brief 给多个工作协程共用的优先级队列：先按 [DownloadPriority] 排，同一类里小文件在前 (尽快凑齐文件数)，
+ *        再按加入顺序。线程安全。
+ *        每放入一个任务就往信号通道里放一个许可，工作协程拿到许可再取任务，所以取的时候队列一定不为空。
+ */
+class DownloadTaskQueue {
+
+    /**
+     * @brief 队列里的一项，带上加入顺序用来打破平局。
+     */
+    private class Entry(val task: DownloadTaskInfo, val priority: DownloadPriority, val sequence: Long)
+
+    private val lock = Any()
+    private val queue = PriorityQueue(
+        compareBy<Entry>({ it.priority }, { it.task.size }, { it.sequence })
+    )
+    private val signals = Channel<Unit>(Channel.UNLIMITED) // 每个任务对应一个许可
+    private var nextSequence = 0L
+
+    /**
+     * @brief 放入一个任务。
+     *
+     * @param task 下载任务。
+     */
+    fun offer(task: DownloadTaskInfo) {
+        synchronized(lock) {
+            queue.add(Entry(task, DownloadPriority.of(task), nextSequence++))
+        }
+        signals.trySend(Unit)
+    }
+
+    /**
+     * @brief 不会再有新任务了。已经放进去的任务还能被取完。
+     */
+    fun close() {
+        signals.close()
+    }
+
+    /**
+     * @brief 取出优先级最高的任务，队列暂时为空时挂起等待。
+     *
+     * @return 下一个任务；队列已关闭并且取空时返回 `null`。
+     */
+    suspend fun take(): DownloadTaskInfo? {
+        signals.receiveCatching().getOrNull() ?: return null
+        return synchronized(lock) { queue.poll()?.task }
+    }
+}
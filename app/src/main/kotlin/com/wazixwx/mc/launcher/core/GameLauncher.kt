@@ -12,6 +12,10 @@ import kotlinx.serialization.Serializable
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
 
 /**
  * @file GameLauncher.kt
@@ -24,6 +28,48 @@ import kotlinx.coroutines.launch
  */
 object GameLauncher {
 
+    private const val TAG = "GameLauncher" // 日志来源标识
+
+    private val _runningGames = MutableStateFlow(0)
+
+    /** @brief 当前由启动器启动、还没退出的游戏进程数。下载限速会据此收紧或放开。 */
+    val runningGames: StateFlow<Int> = _runningGames.asStateFlow()
+
+    /** @brief 是否有游戏正在运行。 */
+    val isGameRunning: Boolean get() = _runningGames.value > 0
+
+    // 解析本地版本 JSON 用
+    private val versionJsonParser = Json { ignoreUnknownKeys = true; isLenient = true }
+
+    /**
+     * @brief 读取游戏目录里的版本 JSON (`versions/<id>/<id>.json`)，不联网。
+     *        安装时这个文件从版本 JSON 仓库写出来，启动时直接读它就行。
+     *
+     * @param gameDir 游戏根目录。
+     * @param versionId 版本 ID。
+     * @param expectedSha1 期望的 SHA1 (来自版本清单或安装记录)。给了就校验，对不上 (比如 Mojang 重新发布了这个版本) 时返回 `null`。
+     * @return 版本详情；文件不存在、SHA1 对不上或解析失败时返回 `null`。
+     */
+    fun readLocalVersionDetails(gameDir: File, versionId: String, expectedSha1: String? = null): VersionDetails? {
+        val file = VersionJsonStore.localVersionJson(gameDir, versionId)
+        return try {
+            if (!file.isFile) return null
+            val bytes = file.readBytes()
+            if (expectedSha1 != null && !VersionJsonStore.sha1Hex(bytes).equals(expectedSha1, ignoreCase = true)) {
+                Logger.info(TAG) { "${file.path} does not match SHA1 $expectedSha1, ignoring it." }
+                return null
+            }
+            versionJsonParser.decodeFromString<VersionDetails>(bytes.decodeToString())
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to read ${file.path}: ${e.message}" }
+            null
+        } catch (e: IllegalArgumentException) {
+            // SerializationException 也是 IllegalArgumentException
+            Logger.warn(TAG) { "Failed to parse ${file.path}: ${e.message}" }
+            null
+        }
+    }
+
     /**
      * @brief 启动指定的 Minecraft 版本。
      *
@@ -47,36 +93,36 @@ object GameLauncher {
         jvmArgs: List<String>,
         maxMemoryMb: Int
     ): Boolean {
-        println("GameLauncher: Preparing to launch version ${versionDetails.id}...")
+        Logger.info(TAG) { "Preparing to launch version ${versionDetails.id}..." }
         // 确保目标目录存在，如果没有则创建
         gameDir.mkdirs()
         nativesDir.mkdirs()
 
         try {
             // 步骤 1: 解压缩本地库 (Natives)
-            println("GameLauncher: Extracting natives...")
+            Logger.info(TAG) { "Extracting natives..." }
             val nativesExtracted = extractNatives(versionDetails, gameDir, nativesDir)
             if (!nativesExtracted) {
-                 println("GameLauncher: Failed to extract natives.")
+                 Logger.warn(TAG) { "Failed to extract natives." }
                  return false
             }
-            println("GameLauncher: Natives successfully extracted to ${nativesDir.absolutePath}")
+            Logger.info(TAG) { "Natives successfully extracted to ${nativesDir.absolutePath}" }
 
             // 步骤 2: 构建 Java 类路径 (Classpath)
-            println("GameLauncher: Building Classpath...")
+            Logger.info(TAG) { "Building Classpath..." }
             val classpath = buildClasspath(versionDetails, gameDir)
             if (classpath.isEmpty()) {
-                println("GameLauncher: Failed to build Classpath (missing core JAR?)")
+                Logger.warn(TAG) { "Failed to build Classpath (missing core JAR?)" }
                 return false
             }
-            println("GameLauncher: Classpath built successfully.") // 如果需要调试，可以在此打印 Classpath 内容
+            Logger.debug(TAG) { "Classpath built successfully." } // 如果需要调试，可以在此打印 Classpath 内容
 
             // 步骤 3: 获取游戏主类名
             val mainClass = versionDetails.mainClass
-            println("GameLauncher: Main class: $mainClass")
+            Logger.info(TAG) { "Main class: $mainClass" }
 
             // 步骤 4: 组装 Java 虚拟机 (JVM) 参数
-            println("GameLauncher: Assembling JVM arguments...")
+            Logger.info(TAG) { "Assembling JVM arguments..." }
             val finalJvmArgs = assembleJvmArguments(
                 versionDetails = versionDetails,
                 nativesDir = nativesDir,
@@ -84,24 +130,24 @@ object GameLauncher {
                 customArgs = jvmArgs,
                 maxMemoryMb = maxMemoryMb
             )
-            println("GameLauncher: JVM arguments assembled.") // 如果需要调试，可以打印参数
+            Logger.debug(TAG) { "JVM arguments assembled." } // 如果需要调试，可以打印参数
 
             // 步骤 5: 组装游戏参数
-            println("GameLauncher: Assembling game arguments...")
+            Logger.info(TAG) { "Assembling game arguments..." }
             val gameArguments = assembleGameArguments(
                 versionDetails = versionDetails,
                 gameDir = gameDir,
                 username = username
             )
-            println("GameLauncher: Game arguments assembled.") // 如果需要调试，可以打印参数
+            Logger.debug(TAG) { "Game arguments assembled." } // 如果需要调试，可以打印参数
 
             // 步骤 6: 查找 Java 可执行文件路径
             val javaPath = findJavaExecutable()
             if (javaPath == null) {
-                println("GameLauncher: Java executable not found. Ensure JAVA_HOME is set or 'java' is in the system PATH.")
+                Logger.warn(TAG) { "Java executable not found. Ensure JAVA_HOME is set or 'java' is in the system PATH." }
                 return false
             }
-             println("GameLauncher: Using Java executable: $javaPath")
+             Logger.info(TAG) { "Using Java executable: $javaPath" }
 
             // 步骤 7: 构建完整的启动命令
              val command = mutableListOf<String>()
@@ -110,16 +156,22 @@ object GameLauncher {
              command.add(mainClass)
              command.addAll(gameArguments)
 
-             println("GameLauncher: Final launch command: ${command.joinToString(" ")}") // 打印完整命令，方便调试
+             Logger.info(TAG) { "Final launch command: ${command.joinToString(" ")}" } // 打印完整命令，方便调试
 
              val processBuilder = ProcessBuilder(command)
                  .directory(gameDir) // 设置游戏进程的工作目录
                  .redirectErrorStream(true) // 把错误流重定向到标准输出流，方便统一处理
 
             // 步骤 8: 启动进程
-            println("GameLauncher: Starting game process...")
+            Logger.info(TAG) { "Starting game process..." }
             val process = processBuilder.start()
-            println("GameLauncher: Game process started (PID: ${process.pid()}).") // 试试打印进程 ID
+            Logger.info(TAG) { "Game process started (PID: ${process.pid()})." } // 试试打印进程 ID
+            // 记下正在运行的游戏，进程退出时再减掉 (onExit 在后台线程回调，不阻塞启动流程)
+            _runningGames.update { it + 1 }
+            process.onExit().thenRun {
+                _runningGames.update { it - 1 }
+                Logger.info(TAG) { "Game process [${versionDetails.id}] exited with code ${process.exitValue()}." }
+            }
 
             // 恢复并完善异步输出读取逻辑
             // 使用 CoroutineScope 在 IO 调度器上启动两个协程来分别读取标准输出和标准错误流
@@ -129,12 +181,14 @@ object GameLauncher {
             outputScope.launch {
                 try {
                     process.inputStream.bufferedReader().useLines { lines ->
-                        // 逐行读取并打印，可以加个前缀区分一下
+                        // 逐行读取并打印，可以加个前缀区分一下。
+                        // 游戏输出不走 Logger：Logger 的队列满了会丢日志，崩溃堆栈一行都不能少。
+                        // 这里直接同步打印，控制台慢的时候卡住的只是读管道的协程，不是下载线程
                         lines.forEach { println("[Game/${versionDetails.id}/OUT]: $it") }
                     }
-                    println("GameLauncher: Standard output stream reading finished for game [${versionDetails.id}].")
+                    Logger.info(TAG) { "Standard output stream reading finished for game [${versionDetails.id}]." }
                 } catch (e: IOException) {
-                     println("GameLauncher: IOException while reading standard output for game [${versionDetails.id}]: ${e.message}")
+                     Logger.warn(TAG) { "IOException while reading standard output for game [${versionDetails.id}]: ${e.message}" }
                      // 可以根据需要处理异常，比如记个日志啥的
                 }
             }
@@ -146,11 +200,11 @@ object GameLauncher {
                  try {
                     // 注意：如果 redirectErrorStream(true) 生效，错误流可能是空的或者没数据
                     process.errorStream.bufferedReader().useLines { lines ->
-                         lines.forEach { System.err.println("[Game/${versionDetails.id}/ERR]: $it") } // 打印到标准错误
+                         lines.forEach { System.err.println("[Game/${versionDetails.id}/ERR]: $it") } // 打印到标准错误，同样不走 Logger 的队列
                     }
-                     println("GameLauncher: Standard error stream reading finished for game [${versionDetails.id}].")
+                     Logger.info(TAG) { "Standard error stream reading finished for game [${versionDetails.id}]." }
                  } catch (e: IOException) {
-                     println("GameLauncher: IOException while reading standard error for game [${versionDetails.id}]: ${e.message}")
+                     Logger.warn(TAG) { "IOException while reading standard error for game [${versionDetails.id}]: ${e.message}" }
                  }
             }
 
@@ -160,14 +214,13 @@ object GameLauncher {
             // 对于启动器来说，通常不需要阻塞等待游戏退出，让游戏在后台跑就行了。
 
             // 之前的逻辑是启动了就算成功
-            println("GameLauncher: Process for version ${versionDetails.id} started successfully.")
+            Logger.info(TAG) { "Process for version ${versionDetails.id} started successfully." }
             // 后面可以考虑加个对进程的等待或者监控机制
 
             return true // 表明进程启动了 (不代表游戏运行正常)
 
         } catch (e: Exception) {
-            println("GameLauncher: Failed to launch game: ${e.message}")
-            e.printStackTrace()
+            Logger.error(TAG, e) { "Failed to launch game: ${e.message}" }
             return false
         }
     }
@@ -181,17 +234,17 @@ object GameLauncher {
      * @return 如果所有需要的本地库都成功提取 (或无需提取)，则返回 `true`，否则返回 `false`。
      */
     private fun extractNatives(versionDetails: VersionDetails, gameDir: File, nativesDir: File): Boolean {
-        println("GameLauncher: Starting to extract natives for version ${versionDetails.id}...")
+        Logger.info(TAG) { "Starting to extract natives for version ${versionDetails.id}..." }
         var allExtracted = true // 标记整体提取是不是成功了
 
         // 确定当前操作系统的本地库分类标识符 (例如 "natives-windows")
         val nativeClassifier = getNativeClassifier()
         if (nativeClassifier == null) {
-            println("GameLauncher: Unknown OS ($osName), cannot determine native classifier. Skipping extraction.")
+            Logger.warn(TAG) { "Unknown OS ($osName), cannot determine native classifier. Skipping extraction." }
             // 这里可以考虑是返回错误还是仅记录警告。当前假设未知操作系统不需要本地库。
             return true
         }
-        println("GameLauncher: Using native classifier: $nativeClassifier")
+        Logger.info(TAG) { "Using native classifier: $nativeClassifier" }
 
         // 遍历版本详情中的所有库信息
         for (library in versionDetails.libraries) { // 直接遍历非空列表
@@ -212,20 +265,20 @@ object GameLauncher {
             val nativeName = library.natives?.get(nativeClassifier) ?: nativeClassifier // 获取正确的分类器名称
             val nativeJarPath = DownloadManager.getLibraryPath(library.name, nativeName)
             if (nativeJarPath == null) {
-                println("GameLauncher: Error - Could not generate native artifact path for library ${library.name} (classifier: $nativeName).") // 修正错误信息
+                Logger.warn(TAG) { "Error - Could not generate native artifact path for library ${library.name} (classifier: $nativeName)." } // 修正错误信息
                 allExtracted = false
                 continue // 缺少路径，无法处理
             }
 
             val nativeJarFile = File(gameDir, "libraries/$nativeJarPath")
             if (!nativeJarFile.isFile) {
-                println("GameLauncher: Error - Native library JAR file not found: ${nativeJarFile.absolutePath}")
+                Logger.warn(TAG) { "Error - Native library JAR file not found: ${nativeJarFile.absolutePath}" }
                 allExtracted = false
                 continue // JAR 文件缺失，无法提取
             }
 
             // 4. 从本地库 JAR 文件中提取内容
-            println("GameLauncher: Extracting natives from ${nativeJarFile.name}...")
+            Logger.debug(TAG) { "Extracting natives from ${nativeJarFile.name}..." }
             try {
                 // 使用 ZipFile 安全地打开和读取 JAR 文件
                 ZipFile(nativeJarFile).use { zipFile ->
@@ -262,28 +315,28 @@ object GameLauncher {
                                  extractedCount++ // 增加成功提取计数
                              }
                          } catch (ioe: IOException) {
-                            println("GameLauncher: IOException while extracting ${entry.name} from ${nativeJarFile.name}: ${ioe.message}")
+                            Logger.warn(TAG) { "IOException while extracting ${entry.name} from ${nativeJarFile.name}: ${ioe.message}" }
                             // 这里可以考虑是否一次提取失败就应中止整个过程
                             allExtracted = false // 标记整体提取过程失败
                             // 可以记录更详细的信息，但目前选择继续尝试提取其他文件
                          } catch(se: SecurityException){
-                            println("GameLauncher: Security exception while creating ${outputFile.path}: ${se.message}")
+                            Logger.warn(TAG) { "Security exception while creating ${outputFile.path}: ${se.message}" }
                             allExtracted = false // 标记整体提取过程失败
                          }
                     } // 内层 forEach 结束 (遍历 ZipEntry)
-                    println("GameLauncher: Extracted $extractedCount files from ${nativeJarFile.name}.")
+                    Logger.debug(TAG) { "Extracted $extractedCount files from ${nativeJarFile.name}." }
                 } // ZipFile.use 结束
             } catch (e: IOException) {
-                println("GameLauncher: IOException while opening or reading native library JAR ${nativeJarFile.name}: ${e.message}")
+                Logger.warn(TAG) { "IOException while opening or reading native library JAR ${nativeJarFile.name}: ${e.message}" }
                 allExtracted = false
             } catch (e: SecurityException){ // 捕获打开 ZipFile 时可能的安全异常
-                println("GameLauncher: Security exception while opening native library JAR ${nativeJarFile.name}: ${e.message}")
+                Logger.warn(TAG) { "Security exception while opening native library JAR ${nativeJarFile.name}: ${e.message}" }
                 allExtracted = false
             }
         } // 外层 for 循环结束 (遍历 libraries)
 
         if (!allExtracted) {
-            println("GameLauncher: Errors encountered during native library extraction.")
+            Logger.warn(TAG) { "Errors encountered during native library extraction." }
         }
 
         return allExtracted
@@ -299,29 +352,29 @@ object GameLauncher {
      *         如果发生错误或缺少必要文件 (如核心 JAR)，则返回空列表。
      */
     private fun buildClasspath(versionDetails: VersionDetails, gameDir: File): List<String> {
-        println("GameLauncher: Starting to build Classpath for version ${versionDetails.id}...")
+        Logger.info(TAG) { "Starting to build Classpath for version ${versionDetails.id}..." }
         val classpathEntries = mutableListOf<String>() // 用于存储 Classpath 条目的列表
 
         // 步骤 1: 添加客户端核心 JAR 文件
         val clientJarPath = "versions/${versionDetails.id}/${versionDetails.id}.jar"
         val clientJarFile = File(gameDir, clientJarPath)
         if (!clientJarFile.isFile) { // 检查文件是否存在且确实是一个文件
-             println("GameLauncher: Critical error - Client core JAR file not found: ${clientJarFile.absolutePath}")
+             Logger.error(TAG) { "Critical error - Client core JAR file not found: ${clientJarFile.absolutePath}" }
              return emptyList() // 缺少核心 JAR，无法启动
         }
         classpathEntries.add(clientJarFile.absolutePath)
-        println("GameLauncher: Added client core JAR: ${clientJarFile.name}")
+        Logger.debug(TAG) { "Added client core JAR: ${clientJarFile.name}" }
 
         // 步骤 2: 添加所需的库文件
         var missingLibs = false // 标记是不是缺少库文件
         val currentNativeClassifier = getNativeClassifier() // 获取当前系统分类器
-        println("GameLauncher: Current Native Classifier: $currentNativeClassifier")
+        Logger.debug(TAG) { "Current Native Classifier: $currentNativeClassifier" }
 
         for (library in versionDetails.libraries) { // 直接遍历非空列表
-             println("--- Processing Library: ${library.name} ---") // <-- 记录库名
+             Logger.debug(TAG) { "--- Processing Library: ${library.name} ---" } // <-- 记录库名
             // 检查库的应用规则
             if (!checkRules(library.rules)) {
-                 println("GameLauncher: Skipping library due to rules: ${library.name}")
+                 Logger.debug(TAG) { "Skipping library due to rules: ${library.name}" }
                 continue // 跳过当前库
             }
 
@@ -329,48 +382,48 @@ object GameLauncher {
             val hasNativesForCurrentOS = currentNativeClassifier != null &&
                 (library.natives?.containsKey(currentNativeClassifier) == true ||
                  library.downloads?.classifiers?.containsKey(currentNativeClassifier) == true)
-            println("GameLauncher: Has Natives for current OS ($currentNativeClassifier)? $hasNativesForCurrentOS") // <-- 记录 native 检查结果
+            Logger.debug(TAG) { "Has Natives for current OS ($currentNativeClassifier)? $hasNativesForCurrentOS" } // <-- 记录 native 检查结果
 
             // --- 根据是不是 Natives 决定处理方式 --- 
             if (hasNativesForCurrentOS) {
                  // 明确跳过包含 Natives 的库
-                 println("GameLauncher: Skipping native library for classpath: ${library.name}")
+                 Logger.debug(TAG) { "Skipping native library for classpath: ${library.name}" }
                  continue 
             } else {
                 // --- 处理非 Natives 库的主构件 --- 
                 val artifact = library.downloads?.artifact
-                println("GameLauncher: Artifact path: ${artifact?.path}") // <-- 记录 artifact 路径
+                Logger.debug(TAG) { "Artifact path: ${artifact?.path}" } // <-- 记录 artifact 路径
                 if (artifact?.path == null) {
                     // 没有主构件路径，跳过
-                    println("GameLauncher: Skipping library with no main artifact path: ${library.name}")
+                    Logger.debug(TAG) { "Skipping library with no main artifact path: ${library.name}" }
                     continue 
                 }
 
                 // --- 检查普通库文件是否存在 --- 
                 val libraryPath = "libraries/${artifact.path}" 
                 val libraryFile = File(gameDir, libraryPath)
-                println("GameLauncher: Checking for non-native library file: ${libraryFile.absolutePath}") // <-- 记录文件检查
+                Logger.debug(TAG) { "Checking for non-native library file: ${libraryFile.absolutePath}" } // <-- 记录文件检查
 
                 if (!libraryFile.isFile) {
                     // 普通库文件缺失，记录错误
-                    println("GameLauncher: ERROR - Required library file not found: ${libraryFile.absolutePath}")
+                    Logger.error(TAG) { "ERROR - Required library file not found: ${libraryFile.absolutePath}" }
                     missingLibs = true // 标记发现缺失库
                 } else {
                     // 普通库文件存在，添加到 Classpath
-                    println("GameLauncher: Adding library to classpath: ${libraryFile.name}")
+                    Logger.debug(TAG) { "Adding library to classpath: ${libraryFile.name}" }
                     classpathEntries.add(libraryFile.absolutePath)
                 }
             }
-             println("--- Finished Library: ${library.name} ---") // <-- 记录完成
+             Logger.debug(TAG) { "--- Finished Library: ${library.name} ---" } // <-- 记录完成
         } // for 循环 (遍历 libraries) 结束
 
         // 如果在遍历过程中发现有库文件缺失，则中止启动
         if (missingLibs) {
-             println("GameLauncher: Aborting launch due to missing library files.")
+             Logger.error(TAG) { "Aborting launch due to missing library files." }
              return emptyList()
         }
 
-        println("GameLauncher: Classpath built successfully with ${classpathEntries.size} entries.")
+        Logger.info(TAG) { "Classpath built successfully with ${classpathEntries.size} entries." }
         return classpathEntries
     }
 
@@ -391,7 +444,7 @@ object GameLauncher {
         customArgs: List<String>,
         maxMemoryMb: Int
     ): List<String> {
-        println("GameLauncher: Assembling JVM arguments...")
+        Logger.info(TAG) { "Assembling JVM arguments..." }
         val finalArgs = mutableListOf<String>() // 存储最终的 JVM 参数
 
         // 步骤 1: 定义参数模板中可能用到的占位符及其替换值
@@ -410,7 +463,7 @@ object GameLauncher {
         // 步骤 3: 处理版本特定的 JVM 参数 (来自 version.json)
         // 优先用现代的 arguments.jvm 格式 (列表形式，支持规则)
         if (versionDetails.arguments?.jvm != null) {
-            println("GameLauncher: Using new arguments.jvm format.")
+            Logger.info(TAG) { "Using new arguments.jvm format." }
             versionDetails.arguments.jvm.forEach { arg ->
                 // 用辅助函数处理单个参数 (可能是字符串或带规则的对象)
                 processArgument(arg, placeholderValues)?.let { processedArgs ->
@@ -423,7 +476,7 @@ object GameLauncher {
             // 回退方案：处理旧版 jvmArguments (单一字符串格式)
             // 注意：旧版格式通常只存在于非常老的版本 JSON 中，现在已经很少见了
             // 且官方并未明确定义旧版字符串参数格式，这里的解析基于常见实践
-             println("GameLauncher: Detected legacy jvmArguments format, attempting to parse.")
+             Logger.info(TAG) { "Detected legacy jvmArguments format, attempting to parse." }
              // 简单的按空格分割（可能对带空格的参数有问题，但旧格式通常不这么用）
              val legacyArgs = versionDetails.jvmArguments.split(" ").filter { it.isNotBlank() }
              legacyArgs.forEach { legacyArg ->
@@ -432,7 +485,7 @@ object GameLauncher {
         }
         */
         else {
-            println("GameLauncher: Warning - JVM arguments definition not found (neither new nor legacy format).")
+            Logger.warn(TAG) { "Warning - JVM arguments definition not found (neither new nor legacy format)." }
             // 就算没有版本特定的 JVM 参数，核心参数（比如内存、classpath）还是会加的
         }
         // 已基本实现回退逻辑 (回退部分已注释掉)
@@ -440,12 +493,12 @@ object GameLauncher {
         // 步骤 4: 确保核心 JVM 参数存在 (主要是 -Djava.library.path 和 -cp)
         // 检查本地库路径是不是已经通过占位符替换加进去了，如果没有，手动加
         if (finalArgs.none { it.startsWith("-Djava.library.path=") }) {
-             println("GameLauncher: Manually adding -Djava.library.path argument.")
+             Logger.info(TAG) { "Manually adding -Djava.library.path argument." }
              finalArgs.add("-Djava.library.path=${nativesDir.absolutePath}")
         }
         // 检查 Classpath 是不是已经通过占位符替换加进去了，如果没有，手动加
          if (finalArgs.none { it == "-cp" }) {
-             println("GameLauncher: Manually adding -cp argument.")
+             Logger.info(TAG) { "Manually adding -cp argument." }
              finalArgs.add("-cp")
              finalArgs.add(classpath.joinToString(File.pathSeparator))
         }
@@ -457,13 +510,13 @@ object GameLauncher {
              if (finalArgs.none { it.startsWith(key) }) { // 如果最终参数列表里不存在以此键开头的参数
                  finalArgs.add(customArg) // 就添加自定义参数
              } else {
-                 println("GameLauncher: Skipping duplicate custom JVM argument: $customArg (already provided by version or defaults)")
+                 Logger.info(TAG) { "Skipping duplicate custom JVM argument: $customArg (already provided by version or defaults)" }
              }
          }
         // // 或者简单粗暴地直接加所有自定义参数，让用户自己负责覆盖问题
         // finalArgs.addAll(customArgs)
 
-        println("GameLauncher: Final assembled JVM arguments: ${finalArgs.joinToString(" ")}")
+        Logger.debug(TAG) { "Final assembled JVM arguments: ${finalArgs.joinToString(" ")}" }
         return finalArgs
     }
 
@@ -480,7 +533,7 @@ object GameLauncher {
         gameDir: File,
         username: String
     ): List<String> {
-         println("GameLauncher: Assembling game arguments...")
+         Logger.info(TAG) { "Assembling game arguments..." }
         val finalArgs = mutableListOf<String>() // 存储最终的游戏参数
 
         // 步骤 1: 定义参数模板中可能用到的占位符及其替换值
@@ -508,7 +561,7 @@ object GameLauncher {
         // 步骤 2: 处理版本特定的游戏参数 (来自 version.json)
         // 优先用现代的 arguments.game 格式 (列表形式，支持规则)
         if (versionDetails.arguments?.game != null) {
-             println("GameLauncher: Using new arguments.game format.")
+             Logger.info(TAG) { "Using new arguments.game format." }
              versionDetails.arguments.game.forEach { arg ->
                  // 复用处理 JVM 参数的辅助函数，传入游戏相关的占位符
                  processArgument(arg, placeholderValues)?.let { processedArgs ->
@@ -517,21 +570,21 @@ object GameLauncher {
              }
         } else if (versionDetails.minecraftArguments != null) {
              // 回退方案：处理旧版 minecraftArguments (单一字符串格式)
-             println("GameLauncher: Detected legacy minecraftArguments format, attempting to parse.")
+             Logger.info(TAG) { "Detected legacy minecraftArguments format, attempting to parse." }
              // 按空格分割，然后替换占位符
              val legacyArgs = versionDetails.minecraftArguments.split(" ").filter { it.isNotBlank() }
              legacyArgs.forEach { legacyArg ->
                  finalArgs.add(replacePlaceholders(legacyArg, placeholderValues))
              }
         } else {
-            println("GameLauncher: Warning - Game arguments definition not found (neither new nor legacy format).")
+            Logger.warn(TAG) { "Warning - Game arguments definition not found (neither new nor legacy format)." }
         }
 
         // // TODO: 添加对旧版 versionDetails.minecraftArguments (单一字符串格式) 的支持作为回退方案
         // // 这需要先将字符串按空格分割，然后对每个部分调用 replacePlaceholders
         // 已基本实现回退逻辑
 
-        println("GameLauncher: Final assembled game arguments: ${finalArgs.joinToString(" ")}")
+        Logger.debug(TAG) { "Final assembled game arguments: ${finalArgs.joinToString(" ")}" }
         return finalArgs
     }
 
@@ -701,13 +754,13 @@ object GameLauncher {
                         }
                     }
                 } catch (e: Exception) {
-                     println("GameLauncher: 解析带规则的参数对象失败: $argElement. 错误: ${e.message}")
+                     Logger.warn(TAG) { "解析带规则的参数对象失败: $argElement. 错误: ${e.message}" }
                      emptyList() // 解析失败，视为空参数
                 }
             }
             // 情况 3: 参数是其他未知的 JSON 类型
             else -> {
-                println("GameLauncher: 警告 - 跳过未知的参数 JSON 类型: ${argElement::class.simpleName}")
+                Logger.warn(TAG) { "警告 - 跳过未知的参数 JSON 类型: ${argElement::class.simpleName}" }
                 emptyList() // 返回空列表
             }
         }
@@ -0,0 +1,122 @@
+/**
+ * @file HedgingController.kt
+ * @brief 小文件下载的 "对冲请求" 控制。
+ *        几千个小资源文件里总有几个请求卡住不动，整个安装要等最慢的那几个。
+ *        一个请求等了比最近 95% 的请求都久还没收到第一个字节，就换一个连接或镜像再发一份，谁先下完用谁。
+ *        多发的请求有预算上限，不会让请求量翻倍。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+/**
+ * @brief 对冲请求的指标快照。
+ *
+ * @property eligibleRequests 可以对冲的小文件请求数 (包括没有触发对冲的)。
+ * @property hedgesIssued 实际多发出去的请求数。
+ * @property hedgesWon 多发的请求比原请求先下完的次数。
+ * @property budgetRejected 因为超出预算没有发出去的对冲次数。
+ * @property p95FirstByteMillis 当前的首字节耗时 95 分位 (毫秒)，样本不够时为 `null`。
+ */
+data class HedgeMetrics(
+    val eligibleRequests: Long,
+    val hedgesIssued: Long,
+    val hedgesWon: Long,
+    val budgetRejected: Long,
+    val p95FirstByteMillis: Long?
+)
+
+/**
+ * @brief 统计小文件请求的首字节耗时，决定什么时候发对冲请求，并控制对冲预算。线程安全。
+ *        首字节耗时保存在一个环形缓冲区里 (最近 [SAMPLE_WINDOW] 个)，每进来 [RECOMPUTE_INTERVAL] 个新样本重算一次 95 分位。
+ */
+class HedgingController {
+
+    private val lock = Any()
+    private val samples = LongArray(SAMPLE_WINDOW) // 首字节耗时 (纳秒) 的环形缓冲区
+    private var sampleCount = 0
+    private var nextSample = 0
+    private var samplesSinceRecompute = 0
+    private var p95Nanos: Long? = null // 缓存的 95 分位
+
+    private var eligibleRequests = 0L
+    private var hedgesIssued = 0L
+    private var hedgesWon = 0L
+    private var budgetRejected = 0L
+
+    /**
+     * @brief 记一次可以对冲的请求 (用来算预算)。
+     */
+    fun onEligibleRequest() = synchronized(lock) {
+        eligibleRequests++
+    }
+
+    /**
+     * @brief 记录一个首字节耗时样本。
+     *
+     * @param nanos 从发出请求到收到第一个字节的时间 (纳秒)。
+     */
+    fun recordFirstByte(nanos: Long) = synchronized(lock) {
+        samples[nextSample] = nanos
+        nextSample = (nextSample + 1) % SAMPLE_WINDOW
+        if (sampleCount < SAMPLE_WINDOW) sampleCount++
+        if (++samplesSinceRecompute >= RECOMPUTE_INTERVAL || p95Nanos == null && sampleCount >= MIN_SAMPLES) {
+            samplesSinceRecompute = 0
+            p95Nanos = if (sampleCount >= MIN_SAMPLES) {
+                val sorted = samples.copyOf(sampleCount).also { it.sort() }
+                sorted[((sampleCount - 1) * 95) / 100]
+            } else {
+                null
+            }
+        }
+    }
+
+    /**
+     * @brief 请求发出后等多久还没有首字节就该对冲了。
+     *
+     * @return 等待时间 (毫秒)；样本还不够时返回 `null`，表示先不对冲。
+     */
+    fun hedgeDelayMillis(): Long? = synchronized(lock) {
+        p95Nanos?.let { (it / 1_000_000L).coerceAtLeast(MIN_HEDGE_DELAY_MILLIS) }
+    }
+
+    /**
+     * @brief 申请发一个对冲请求。多发的请求数不能超过可对冲请求数的 [budget] 倍。
+     *
+     * @param budget 预算比例，0 ~ 1。1 表示最多让请求量翻倍。
+     * @return 预算允许返回 `true`。
+     */
+    fun tryAcquireHedge(budget: Double): Boolean = synchronized(lock) {
+        if (hedgesIssued + 1 > eligibleRequests * budget.coerceIn(0.0, 1.0)) {
+            budgetRejected++
+            false
+        } else {
+            hedgesIssued++
+            true
+        }
+    }
+
+    /**
+     * @brief 记一次对冲请求胜出。
+     */
+    fun recordHedgeWin() = synchronized(lock) {
+        hedgesWon++
+    }
+
+    /**
+     * @brief 获取对冲指标快照。
+     */
+    fun metrics(): HedgeMetrics = synchronized(lock) {
+        HedgeMetrics(eligibleRequests, hedgesIssued, hedgesWon, budgetRejected, p95Nanos?.let { it / 1_000_000L })
+    }
+
+    companion object {
+        private const val SAMPLE_WINDOW = 512 // 保留最近多少个首字节样本
+        private const val RECOMPUTE_INTERVAL = 32 // 每多少个新样本重算一次分位数
+        private const val MIN_SAMPLES = 20 // 样本少于这个数时不对冲，分位数还不可信
+        private const val MIN_HEDGE_DELAY_MILLIS = 20L // 对冲等待时间的下限，本地网络太快时不至于每个请求都对冲
+    }
+}
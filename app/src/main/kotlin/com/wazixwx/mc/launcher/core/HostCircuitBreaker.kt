@@ -0,0 +1,217 @@
+/**
+ * @file HostCircuitBreaker.kt
+ * @brief 按主机的熔断器。
+ *        某个下载主机最近的请求大多在出错 (5xx、超时、连接失败) 时先 "断开" 一段时间，期间发往它的请求直接失败，
+ *        不再占着连接和工作协程去等一个明显挂掉的服务器；冷却之后放一个探测请求过去，成功了再恢复。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * @brief 熔断器的状态。
+ */
+enum class CircuitState {
+    CLOSED, // 正常，请求照常发
+    OPEN, // 已熔断，冷却期内的请求直接失败
+    HALF_OPEN // 冷却结束，正在放一个探测请求过去看看恢复了没有
+}
+
+/**
+ * @brief 某个主机的熔断和重试指标快照。
+ *
+ * @property host 主机名。
+ * @property state 当前熔断状态。
+ * @property recentFailures 最近一个统计窗口里失败的请求数。
+ * @property recentRequests 最近一个统计窗口里的请求数。
+ * @property timesOpened 累计熔断的次数。
+ * @property rejected 熔断期间被直接拒绝的请求数。
+ * @property retries 累计重试的次数。
+ */
+data class CircuitBreakerMetrics(
+    val host: String,
+    val state: CircuitState,
+    val recentFailures: Int,
+    val recentRequests: Int,
+    val timesOpened: Long,
+    val rejected: Long,
+    val retries: Long
+)
+
+/**
+ * @brief 按主机分别统计的熔断器，线程安全。
+ *        用法：发请求之前调用 [tryAcquire]，返回 `false` 就别发了；请求结束后按结果调用
+ *        [onSuccess]、[onFailure] 或 [onCancelled]。
+ *        只有说明主机本身有问题的失败 (5xx、429、超时、连接错误) 才算 [onFailure]；
+ *        404、SHA1 不匹配这类主机正常应答的失败算 [onSuccess]。
+ *        几十个请求同时在跑，看 "连续失败几次" 很容易被偶发错误触发，所以按最近 [windowSize] 个请求的失败率判断。
+ *
+ * @param windowSize 统计失败率用的最近请求数。
+ * @param minimumRequests 窗口里至少有这么多个请求才判断，刚开始的几个失败不会直接熔断。
+ * @param failureRateThreshold 失败率达到这个比例就熔断。
+ * @param openDurationMillis 熔断后的冷却时间 (毫秒)。探测再失败时冷却时间翻倍，最多到 [maxOpenDurationMillis]。
+ * @param maxOpenDurationMillis 冷却时间的上限 (毫秒)。
+ */
+class HostCircuitBreaker(
+    private val windowSize: Int = 20,
+    private val minimumRequests: Int = 20,
+    private val failureRateThreshold: Double = 0.6,
+    private val openDurationMillis: Long = 15_000L,
+    private val maxOpenDurationMillis: Long = 120_000L
+) {
+
+    private val hosts = ConcurrentHashMap<String, HostCircuit>() // 每个主机一个熔断器
+
+    /**
+     * @brief 判断现在能不能向这个主机发请求。
+     *        冷却期刚过时只放第一个调用方过去当探测请求，其它的继续被拒绝，直到探测有结果。
+     *
+     * @param host 主机名。
+     * @return 可以发请求返回 `true`，熔断中返回 `false`。
+     */
+    fun tryAcquire(host: String): Boolean = circuit(host).tryAcquire()
+
+    /** @brief 请求成功 (或者主机正常应答了)，探测成功时恢复。 */
+    fun onSuccess(host: String) = circuit(host).onSuccess()
+
+    /** @brief 请求因为主机的问题失败，失败率到阈值就熔断。 */
+    fun onFailure(host: String) = circuit(host).onFailure()
+
+    /** @brief 请求被取消，没有结论；如果它是探测请求，就把探测机会让给下一个。 */
+    fun onCancelled(host: String) = circuit(host).onCancelled()
+
+    /** @brief 记一次重试，只用于统计。 */
+    fun recordRetry(host: String) = circuit(host).recordRetry()
+
+    /**
+     * @brief 获取所有主机的熔断和重试指标。
+     *
+     * @return 每个用到过的主机一条指标，按主机名排序。
+     */
+    fun metrics(): List<CircuitBreakerMetrics> = hosts.values.map { it.metrics() }.sortedBy { it.host }
+
+    private fun circuit(host: String): HostCircuit = hosts.computeIfAbsent(host) { HostCircuit(it) }
+
+    /**
+     * @brief 单个主机的熔断状态机。
+     */
+    private inner class HostCircuit(val host: String) {
+        private val lock = Any()
+        private var state = CircuitState.CLOSED
+        private val outcomes = BooleanArray(windowSize) // 环形缓冲区，记录最近的请求是否失败
+        private var outcomeCount = 0 // 缓冲区里有效的记录数
+        private var nextOutcome = 0 // 下一条记录写到哪
+        private var recentFailures = 0 // 缓冲区里失败的记录数
+        private var openUntilNanos = 0L
+        private var currentOpenMillis = openDurationMillis // 这一轮的冷却时间，探测失败会翻倍
+        private var probeInFlight = false // 半开状态下是不是已经有探测请求在跑了
+        private var timesOpened = 0L
+        private var rejected = 0L
+        private var retries = 0L
+
+        fun tryAcquire(): Boolean = synchronized(lock) {
+            when (state) {
+                CircuitState.CLOSED -> true
+                CircuitState.OPEN -> {
+                    if (System.nanoTime() - openUntilNanos >= 0) {
+                        // 冷却结束，放这一个请求过去探测
+                        state = CircuitState.HALF_OPEN
+                        probeInFlight = true
+                        Logger.info(TAG) { "[$host] cooldown elapsed, sending a probe request." }
+                        true
+                    } else {
+                        rejected++
+                        false
+                    }
+                }
+                CircuitState.HALF_OPEN -> {
+                    if (probeInFlight) {
+                        rejected++
+                        false
+                    } else {
+                        probeInFlight = true
+                        true
+                    }
+                }
+            }
+        }
+
+        fun onSuccess() = synchronized(lock) {
+            when (state) {
+                CircuitState.HALF_OPEN -> {
+                    Logger.info(TAG) { "[$host] probe succeeded, circuit closed." }
+                    state = CircuitState.CLOSED
+                    currentOpenMillis = openDurationMillis
+                    probeInFlight = false
+                    clearOutcomesLocked()
+                }
+                CircuitState.CLOSED -> recordOutcomeLocked(failed = false)
+                CircuitState.OPEN -> Unit // 熔断之前就发出去的请求，结果不影响状态
+            }
+        }
+
+        fun onFailure() = synchronized(lock) {
+            when (state) {
+                CircuitState.HALF_OPEN -> {
+                    // 探测失败，冷却时间翻倍再断开
+                    currentOpenMillis = (currentOpenMillis * 2).coerceAtMost(maxOpenDurationMillis)
+                    openLocked()
+                }
+                CircuitState.CLOSED -> {
+                    recordOutcomeLocked(failed = true)
+                    if (outcomeCount >= minimumRequests && recentFailures >= outcomeCount * failureRateThreshold) {
+                        openLocked()
+                    }
+                }
+                CircuitState.OPEN -> Unit
+            }
+        }
+
+        fun onCancelled() = synchronized(lock) {
+            if (state == CircuitState.HALF_OPEN) probeInFlight = false
+        }
+
+        fun recordRetry() = synchronized(lock) {
+            retries++
+        }
+
+        private fun openLocked() {
+            state = CircuitState.OPEN
+            probeInFlight = false
+            openUntilNanos = System.nanoTime() + currentOpenMillis * 1_000_000L
+            timesOpened++
+            Logger.warn(TAG) { "[$host] $recentFailures of the last $outcomeCount requests failed, circuit open for $currentOpenMillis ms." }
+        }
+
+        private fun recordOutcomeLocked(failed: Boolean) {
+            if (outcomeCount == windowSize) {
+                if (outcomes[nextOutcome]) recentFailures-- // 挤掉最老的一条
+            } else {
+                outcomeCount++
+            }
+            outcomes[nextOutcome] = failed
+            if (failed) recentFailures++
+            nextOutcome = (nextOutcome + 1) % windowSize
+        }
+
+        private fun clearOutcomesLocked() {
+            outcomes.fill(false)
+            outcomeCount = 0
+            nextOutcome = 0
+            recentFailures = 0
+        }
+
+        fun metrics(): CircuitBreakerMetrics = synchronized(lock) {
+            CircuitBreakerMetrics(host, state, recentFailures, outcomeCount, timesOpened, rejected, retries)
+        }
+    }
+
+    companion object {
+        private const val TAG = "HostCircuitBreaker" // 日志来源标识
+    }
+}
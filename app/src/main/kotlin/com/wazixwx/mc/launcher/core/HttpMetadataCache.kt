@@ -0,0 +1,252 @@
+/**
+ * @file HttpMetadataCache.kt
+ * @brief 元数据请求 (版本清单、版本 JSON) 的磁盘缓存。
+ *        响应体连同 ETag / Last-Modified 一起存下来，下次请求带上 `If-None-Match` / `If-Modified-Since`，
+ *        服务器回 304 就直接用磁盘上的内容，不再传整个文件。
+ *        地址里带 SHA1 的 (比如 `piston-meta.mojang.com/v1/packages/<sha1>/1.21.json`) 内容不会变，
+ *        缓存过一次就再也不请求网络。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.call.body
+import io.ktor.client.request.get
+import io.ktor.client.request.header
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpStatusCode
+import io.ktor.http.isSuccess
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+/**
+ * @brief 缓存条目的元数据，跟响应体分开存。
+ *
+ * @property url 请求地址。
+ * @property etag 服务器给的 ETag，没有时为 `null`。
+ * @property lastModified 服务器给的 Last-Modified，没有时为 `null`。
+ * @property storedAt 最近一次从服务器确认 (200 或 304) 的时间 (毫秒时间戳)。
+ */
+@Serializable
+data class CachedResponseMeta(
+    val url: String,
+    val etag: String? = null,
+    val lastModified: String? = null,
+    val storedAt: Long = 0L
+)
+
+/**
+ * @brief 一次读取的结果。
+ *
+ * @property body 响应体文本。
+ * @property source 内容是从哪来的。
+ */
+data class CachedBody(
+    val body: String,
+    val source: CacheSource
+)
+
+/**
+ * @brief 内容的来源。
+ */
+enum class CacheSource {
+    /** @brief 从服务器下载的新内容 (200)。 */
+    NETWORK,
+
+    /** @brief 服务器确认没变 (304)，用的是磁盘上的内容。 */
+    REVALIDATED,
+
+    /** @brief 地址带 SHA1，内容不可变，直接用磁盘上的内容，没发请求。 */
+    IMMUTABLE,
+
+    /** @brief 请求失败，退回磁盘上的旧内容 (可能已经过时)。 */
+    STALE,
+
+    /** @brief 离线模式，没发请求，直接用磁盘上的内容 (可能已经过时)。 */
+    OFFLINE
+}
+
+/**
+ * @brief 元数据请求的磁盘缓存。线程安全：条目都是先写临时文件再原子替换，同一地址并发请求最多各写一遍。
+ *
+ * @param cacheDir 缓存目录，每个地址对应 `<SHA1(地址)>.body` 和 `<SHA1(地址)>.meta.json` 两个文件。
+ */
+class HttpMetadataCache(private val cacheDir: File) {
+
+    /**
+     * @brief 获取一个地址的内容，尽量用缓存。
+     *        带 SHA1 的地址有缓存 (而且内容的 SHA1 对得上) 就不请求网络；
+     *        其它地址带着上次的校验器发条件请求，304 用磁盘内容，200 更新缓存。
+     *        请求失败时如果有旧内容就退回旧内容。
+     *
+     * @param client 发请求用的 HttpClient。
+     * @param url 地址。
+     * @param allowNetwork 是否允许请求网络。为 `false` (离线) 时只读磁盘，有缓存就用，没有就返回 `null`。
+     * @return 内容和来源；请求失败又没有缓存时返回 `null`。
+     */
+    suspend fun fetch(client: HttpClient, url: String, allowNetwork: Boolean = true): CachedBody? {
+        val key = sha1Hex(url.toByteArray())
+        val bodyFile = File(cacheDir, "$key$BODY_SUFFIX")
+        val metaFile = File(cacheDir, "$key$META_SUFFIX")
+
+        val immutableSha1 = immutableSha1Of(url)
+        val cachedBody = withContext(Dispatchers.IO) { readBytes(bodyFile) }
+        val cachedMeta = if (cachedBody != null) withContext(Dispatchers.IO) { readMeta(metaFile) } else null
+
+        // 内容不可变：有缓存且没被改坏就直接用
+        if (immutableSha1 != null && cachedBody != null) {
+            if (sha1Hex(cachedBody).equals(immutableSha1, ignoreCase = true)) {
+                Logger.debug(TAG) { "Immutable cache hit: $url" }
+                return CachedBody(cachedBody.decodeToString(), CacheSource.IMMUTABLE)
+            }
+            Logger.warn(TAG) { "Cached body for $url does not match its SHA1, refetching." }
+        }
+        if (!allowNetwork) {
+            Logger.debug(TAG) { "Offline, serving ${if (cachedBody != null) "cached copy" else "nothing"} for $url" }
+            return cachedBody?.let { CachedBody(it.decodeToString(), CacheSource.OFFLINE) }
+        }
+        // 条件请求只在缓存完整 (内容和校验器都在) 时才带
+        val validators = cachedMeta?.takeIf { cachedBody != null && immutableSha1 == null }
+
+        return try {
+            val response = client.get(url) {
+                validators?.etag?.let { header(HttpHeaders.IfNoneMatch, it) }
+                validators?.lastModified?.let { header(HttpHeaders.IfModifiedSince, it) }
+            }
+            when {
+                response.status == HttpStatusCode.NotModified && cachedBody != null && validators != null -> {
+                    Logger.debug(TAG) { "Not modified, serving from disk: $url" }
+                    withContext(Dispatchers.IO) { writeMeta(metaFile, validators.copy(storedAt = System.currentTimeMillis())) }
+                    CachedBody(cachedBody.decodeToString(), CacheSource.REVALIDATED)
+                }
+                response.status.isSuccess() -> {
+                    val bytes = response.body<ByteArray>()
+                    if (immutableSha1 != null && !sha1Hex(bytes).equals(immutableSha1, ignoreCase = true)) {
+                        // 内容跟地址里的 SHA1 对不上，不缓存，免得把坏内容永久钉在磁盘上
+                        Logger.warn(TAG) { "Response for $url does not match the SHA1 in its URL, not caching it." }
+                    } else {
+                        val meta = CachedResponseMeta(
+                            url = url,
+                            etag = response.headers[HttpHeaders.ETag],
+                            lastModified = response.headers[HttpHeaders.LastModified],
+                            storedAt = System.currentTimeMillis()
+                        )
+                        withContext(Dispatchers.IO) { store(bodyFile, bytes, metaFile, meta) }
+                    }
+                    CachedBody(bytes.decodeToString(), CacheSource.NETWORK)
+                }
+                else -> {
+                    Logger.warn(TAG) { "Request for $url failed with HTTP ${response.status}." }
+                    staleOrNull(url, cachedBody)
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // 网络错误之类，有旧内容就先用着
+            Logger.warn(TAG) { "Request for $url failed: ${e.message}" }
+            staleOrNull(url, cachedBody)
+        }
+    }
+
+    /**
+     * @brief 只读磁盘，不请求网络。
+     *
+     * @param url 地址。
+     * @return 缓存的内容；没有缓存时返回 `null`。
+     */
+    suspend fun cached(url: String): String? = withContext(Dispatchers.IO) {
+        readBytes(File(cacheDir, "${sha1Hex(url.toByteArray())}$BODY_SUFFIX"))?.decodeToString()
+    }
+
+    private fun staleOrNull(url: String, cachedBody: ByteArray?): CachedBody? {
+        if (cachedBody == null) return null
+        Logger.info(TAG) { "Serving possibly stale cached copy of $url." }
+        return CachedBody(cachedBody.decodeToString(), CacheSource.STALE)
+    }
+
+    /**
+     * @brief 写入一个条目：先写响应体再写元数据，都是临时文件 + 原子替换。
+     *        中途失败最多是元数据旧了，下次条件请求时服务器会回 200，缓存自己就修好了。
+     */
+    private fun store(bodyFile: File, body: ByteArray, metaFile: File, meta: CachedResponseMeta) {
+        try {
+            cacheDir.mkdirs()
+            writeAtomically(bodyFile, body)
+            writeMeta(metaFile, meta)
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to cache ${meta.url}: ${e.message}" }
+        } catch (e: SecurityException) {
+            Logger.warn(TAG) { "Permission denied caching ${meta.url}: ${e.message}" }
+        }
+    }
+
+    private fun writeMeta(metaFile: File, meta: CachedResponseMeta) {
+        try {
+            writeAtomically(metaFile, metaJson.encodeToString(meta).toByteArray())
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to write cache metadata ${metaFile.path}: ${e.message}" }
+        }
+    }
+
+    private fun writeAtomically(target: File, bytes: ByteArray) {
+        val temp = File(target.parentFile, "${target.name}.${System.nanoTime()}.tmp")
+        try {
+            temp.writeBytes(bytes)
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            temp.delete() // 移动成功后临时文件已经不在了，这里只是兜底
+        }
+    }
+
+    private fun readBytes(file: File): ByteArray? = try {
+        if (file.isFile) file.readBytes() else null
+    } catch (e: IOException) {
+        Logger.warn(TAG) { "Failed to read cache file ${file.path}: ${e.message}" }
+        null
+    }
+
+    private fun readMeta(file: File): CachedResponseMeta? = try {
+        if (file.isFile) metaJson.decodeFromString<CachedResponseMeta>(file.readText()) else null
+    } catch (e: IOException) {
+        null
+    } catch (e: SerializationException) {
+        null // 元数据坏了就当没有校验器，发普通请求
+    }
+
+    companion object {
+        private const val TAG = "HttpMetadataCache" // 日志来源标识
+        private const val BODY_SUFFIX = ".body"
+        private const val META_SUFFIX = ".meta.json"
+
+        private val metaJson = Json { ignoreUnknownKeys = true }
+
+        // 地址路径里单独一段 40 位十六进制，就是内容的 SHA1 (Mojang 的 piston-meta / piston-data 都是这样)
+        private val SHA1_SEGMENT = Regex("/([0-9a-fA-F]{40})/")
+
+        /**
+         * @brief 从地址里找出内容的 SHA1。
+         *
+         * @param url 地址。
+         * @return 地址带 SHA1 时返回它 (说明内容不可变)，否则返回 `null`。
+         */
+        fun immutableSha1Of(url: String): String? = SHA1_SEGMENT.find(url.substringBefore('?'))?.groupValues?.get(1)
+
+        private fun sha1Hex(bytes: ByteArray): String =
+            MessageDigest.getInstance("SHA-1").digest(bytes).joinToString("") { "%02x".format(it) }
+    }
+}
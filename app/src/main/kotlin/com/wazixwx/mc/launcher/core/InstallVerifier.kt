@@ -0,0 +1,261 @@
+/**
+ * @file InstallVerifier.kt
+ * @brief "校验安装"：不下载任何文件，只把一个版本应有的所有文件 (客户端 JAR、库、本地库、资源索引和资源对象)
+ *        重新算一遍 SHA1，报告缺失、大小不对和内容损坏的文件，以及校验的速度 (MB/s)。
+ *        哈希计算放在一个按 CPU 核数开线程的 ForkJoin 线程池上并行做，大文件用内存映射读取。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import com.wazixwx.mc.launcher.model.VersionDetails
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * @brief 一次校验的结果。
+ *
+ * @property versionId 校验的版本 ID。
+ * @property checkedFiles 检查过的文件数 (包括缺失的)。
+ * @property hashedBytes 实际读取并计算哈希的字节数。
+ * @property missing 不存在的文件 (相对游戏目录的路径)。
+ * @property sizeMismatched 大小跟版本 JSON 里不一样的文件，这些文件不再计算哈希。
+ * @property corrupt 大小对但 SHA1 不对 (或者读不出来) 的文件。
+ * @property assetsChecked 资源对象有没有检查。资源索引本身缺失或损坏时没法列出资源对象，为 `false`。
+ * @property elapsedMillis 耗时 (毫秒)，不包括获取版本详情。
+ * @property threads 计算哈希用的线程数。
+ */
+data class VerifyReport(
+    val versionId: String,
+    val checkedFiles: Int,
+    val hashedBytes: Long,
+    val missing: List<String>,
+    val sizeMismatched: List<String>,
+    val corrupt: List<String>,
+    val assetsChecked: Boolean,
+    val elapsedMillis: Long,
+    val threads: Int
+) {
+    /** @brief 所有文件都存在且完好。 */
+    val isIntact: Boolean
+        get() = assetsChecked && missing.isEmpty() && sizeMismatched.isEmpty() && corrupt.isEmpty()
+
+    /** @brief 有问题的文件总数。 */
+    val problemCount: Int
+        get() = missing.size + sizeMismatched.size + corrupt.size
+
+    /** @brief 哈希计算的吞吐量 (MB/s)，用来比较不同机器的磁盘。 */
+    val throughputMBps: Double
+        get() = if (elapsedMillis <= 0L) 0.0 else hashedBytes / (1024.0 * 1024.0) / (elapsedMillis / 1000.0)
+}
+
+/**
+ * @brief 校验已安装的版本。这是一个单例对象 (object)。
+ *        只读：不会下载、删除或修改任何文件，也不写校验索引 (`VerificationIndex`)，每个文件都真的算一遍哈希。
+ */
+object InstallVerifier {
+
+    private const val TAG = "InstallVerifier" // 日志来源标识
+    private const val MMAP_THRESHOLD = 4L * 1024 * 1024 // 不小于这个大小的文件用内存映射读取
+    private const val MMAP_CHUNK_SIZE = 64L * 1024 * 1024 // 每次映射的窗口大小，免得超大文件占满地址空间
+    private const val READ_BUFFER_SIZE = 256 * 1024 // 小文件读取用的缓冲区大小
+
+    // 每个线程一块读缓冲区，线程池的线程数是固定的，不会越攒越多
+    private val readBuffer = ThreadLocal.withInitial { ByteBuffer.allocate(READ_BUFFER_SIZE) }
+
+    /**
+     * @brief 单个文件的检查结果。
+     */
+    private enum class FileStatus { OK, MISSING, SIZE_MISMATCH, CORRUPT }
+
+    /**
+     * @brief 校验一个版本。
+     *        版本详情按以下顺序获取：传入的 [detailsUrl]、本地的 `versions/<id>/<id>.json`、
+     *        官方版本清单。只会请求这些元数据，游戏文件一个都不下载。
+     *
+     * @param versionId 版本 ID。
+     * @param gameDir 游戏根目录。
+     * @param detailsUrl 版本详情 JSON 的地址，已知时传入可以省掉一次清单请求。
+     * @param parallelism 计算哈希的线程数，默认是 CPU 核数。
+     * @return 校验结果；拿不到版本详情时返回 `null`。
+     */
+    suspend fun verify(
+        versionId: String,
+        gameDir: File = LauncherPaths.defaultGameDir,
+        detailsUrl: String? = null,
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+    ): VerifyReport? {
+        val details = resolveDetails(versionId, gameDir, detailsUrl)
+        if (details == null) {
+            Logger.warn(TAG) { "Cannot verify $versionId: version details unavailable." }
+            return null
+        }
+        return verify(details, gameDir, parallelism)
+    }
+
+    /**
+     * @brief 用已经拿到的版本详情校验。
+     *
+     * @param details 版本详情。
+     * @param gameDir 游戏根目录。
+     * @param parallelism 计算哈希的线程数。
+     * @return 校验结果。
+     */
+    suspend fun verify(
+        details: VersionDetails,
+        gameDir: File,
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+    ): VerifyReport {
+        val threads = parallelism.coerceAtLeast(1)
+        val startNanos = System.nanoTime()
+        val hashedBytes = AtomicLong(0)
+        val tasks = DownloadManager.parseDownloadTasks(details).distinctBy { it.destinationPath }
+        Logger.info(TAG) { "Verifying ${details.id} in ${gameDir.path} with $threads threads..." }
+
+        // 专用的 ForkJoin 线程池，线程数等于核数；哈希是纯 CPU + 顺序读，不跟下载抢 Dispatchers.IO
+        val (statuses, assetsChecked) = ForkJoinPool(threads).asCoroutineDispatcher().use { dispatcher ->
+            // 先单独检查资源索引：它好了才能列出资源对象
+            val assetIndexTask = tasks.find { it.type == "asset_index" }
+            val assetIndexStatus = assetIndexTask?.let { task ->
+                withContext(dispatcher) { checkFile(File(gameDir, task.destinationPath), task, hashedBytes) }
+            }
+            val assetTasks = if (assetIndexTask != null && assetIndexStatus == FileStatus.OK) {
+                withContext(Dispatchers.IO) { DownloadManager.parseAssetIndex(File(gameDir, assetIndexTask.destinationPath)) }
+            } else {
+                null
+            }
+            val remaining = (tasks.filter { it !== assetIndexTask } + (assetTasks ?: emptyList())).distinctBy { it.destinationPath }
+
+            // 大文件先开始，免得最后剩一个大 JAR 只有一个线程在算
+            val checked = coroutineScope {
+                remaining.sortedByDescending { it.size }.map { task ->
+                    async(dispatcher) { task to checkFile(File(gameDir, task.destinationPath), task, hashedBytes) }
+                }.awaitAll()
+            }
+            val indexResult = if (assetIndexTask != null && assetIndexStatus != null) listOf(assetIndexTask to assetIndexStatus) else emptyList()
+            (indexResult + checked) to (assetTasks != null)
+        }
+
+        val elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000
+        fun pathsWith(status: FileStatus) = statuses.filter { it.second == status }.map { it.first.destinationPath }.sorted()
+        val report = VerifyReport(
+            versionId = details.id,
+            checkedFiles = statuses.size,
+            hashedBytes = hashedBytes.get(),
+            missing = pathsWith(FileStatus.MISSING),
+            sizeMismatched = pathsWith(FileStatus.SIZE_MISMATCH),
+            corrupt = pathsWith(FileStatus.CORRUPT),
+            assetsChecked = assetsChecked,
+            elapsedMillis = elapsedMillis,
+            threads = threads
+        )
+        Logger.info(TAG) {
+            "Verified ${report.checkedFiles} files of ${details.id} in $elapsedMillis ms " +
+                "(${"%.1f".format(report.throughputMBps)} MB/s, ${report.hashedBytes / (1024 * 1024)} MB hashed): " +
+                "${report.missing.size} missing, ${report.sizeMismatched.size} size mismatched, ${report.corrupt.size} corrupt" +
+                if (assetsChecked) "." else ", asset objects not checked (asset index unusable)."
+        }
+        return report
+    }
+
+    /**
+     * @brief 获取版本详情：优先用给定的地址，其次是本地版本 JSON，最后查官方版本清单。
+     */
+    private suspend fun resolveDetails(versionId: String, gameDir: File, detailsUrl: String?): VersionDetails? {
+        if (detailsUrl != null) return fetchDetails(versionId, gameDir, detailsUrl, HttpMetadataCache.immutableSha1Of(detailsUrl))
+        withContext(Dispatchers.IO) { GameLauncher.readLocalVersionDetails(gameDir, versionId) }?.let { return it }
+        val info = MojangApiService.getVersionManifest()?.versions?.find { it.id == versionId } ?: return null
+        return fetchDetails(versionId, gameDir, info.url, info.sha1 ?: HttpMetadataCache.immutableSha1Of(info.url))
+    }
+
+    /**
+     * @brief 获取版本详情，顺手把版本 JSON 补写到游戏目录。启动只读本地的版本 JSON，
+     *        缺了它的版本 (比如在写本地 JSON 之前装的) 校验一次就能启动。
+     */
+    private suspend fun fetchDetails(versionId: String, gameDir: File, url: String, sha1: String?): VersionDetails? {
+        val details = MojangApiService.getVersionDetails(url, sha1 = sha1) ?: return null
+        if (!MojangApiService.writeLocalVersionJson(gameDir, versionId, url, sha1)) {
+            Logger.warn(TAG) { "Could not write the local version JSON of $versionId, launching it will need the metadata cache." }
+        }
+        return details
+    }
+
+    /**
+     * @brief 检查单个文件：先看在不在、大小对不对，再算 SHA1。
+     *
+     * @param file 要检查的文件。
+     * @param task 文件应有的大小和 SHA1。
+     * @param hashedBytes 累加实际读取的字节数。
+     * @return 检查结果。
+     */
+    private fun checkFile(file: File, task: DownloadTaskInfo, hashedBytes: AtomicLong): FileStatus {
+        val attributes = VerificationIndex.readAttributes(file) ?: return FileStatus.MISSING
+        if (!attributes.isRegularFile) return FileStatus.MISSING
+        if (attributes.size() != task.size) {
+            Logger.debug(TAG) { "Size mismatch (expected ${task.size}, got ${attributes.size()}): ${task.destinationPath}" }
+            return FileStatus.SIZE_MISMATCH
+        }
+        val sha1 = try {
+            sha1Of(file, attributes.size())
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to read ${task.destinationPath}: ${e.message}" }
+            return FileStatus.CORRUPT
+        } catch (e: SecurityException) {
+            Logger.warn(TAG) { "Permission denied reading ${task.destinationPath}: ${e.message}" }
+            return FileStatus.CORRUPT
+        }
+        hashedBytes.addAndGet(attributes.size())
+        if (!sha1.equals(task.sha1, ignoreCase = true)) {
+            Logger.debug(TAG) { "SHA1 mismatch (expected ${task.sha1}, got $sha1): ${task.destinationPath}" }
+            return FileStatus.CORRUPT
+        }
+        return FileStatus.OK
+    }
+
+    /**
+     * @brief 计算文件的 SHA1。大文件按 [MMAP_CHUNK_SIZE] 的窗口逐段内存映射，直接从页缓存喂给摘要，
+     *        不用再复制到堆里；小文件用本线程的读缓冲区读。
+     *
+     * @param file 文件。
+     * @param size 文件大小。
+     * @return 小写十六进制的 SHA1。
+     */
+    private fun sha1Of(file: File, size: Long): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            if (size >= MMAP_THRESHOLD) {
+                val length = channel.size()
+                var position = 0L
+                while (position < length) {
+                    val chunk = minOf(MMAP_CHUNK_SIZE, length - position)
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, chunk))
+                    position += chunk
+                }
+            } else {
+                val buffer = readBuffer.get()
+                buffer.clear()
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip()
+                    digest.update(buffer)
+                    buffer.clear()
+                }
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+}
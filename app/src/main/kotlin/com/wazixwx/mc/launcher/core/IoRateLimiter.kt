@@ -0,0 +1,169 @@
+/**
+ * @file IoRateLimiter.kt
+ * @brief 全局的下载带宽和写文件速率限制。
+ *        后台安装或修复时下载会把网卡和磁盘都占满，正在玩的游戏就会卡顿。
+ *        所有下载共用一组令牌桶：平时按正常限额 (默认不限)，检测到有游戏进程在运行时自动收紧，游戏退出后再放开。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.delay
+
+/**
+ * @brief 一组 I/O 限额。
+ *
+ * @property bytesPerSecond 下载带宽上限 (字节/秒)，0 表示不限。
+ * @property fileWritesPerSecond 每秒最多写入 (新建) 多少个文件，0 表示不限。几千个小资源文件主要是压在磁盘的 IOPS 上。
+ */
+data class IoLimits(
+    val bytesPerSecond: Long = 0L,
+    val fileWritesPerSecond: Int = 0
+) {
+    companion object {
+        /** @brief 不限速。 */
+        val UNLIMITED = IoLimits()
+
+        /** @brief 游戏运行时的默认限额：4 MB/s、每秒 20 个文件，给游戏留出带宽和磁盘。 */
+        val GAME_RUNNING_DEFAULT = IoLimits(bytesPerSecond = 4L * 1024 * 1024, fileWritesPerSecond = 20)
+    }
+}
+
+/**
+ * @brief 令牌桶。按 [ratePerSecond] 的速度补充令牌，最多攒 [capacity] 个。线程安全。
+ *        申请时先把令牌扣掉 (可以扣成负数)，再按欠下的数量睡一会，所以一次申请超过桶容量也不会卡死。
+ *
+ * @param ratePerSecond 每秒补充的令牌数，小于等于 0 表示不限。
+ * @param capacity 桶容量，也就是允许的突发量。
+ */
+class TokenBucket(ratePerSecond: Double, capacity: Double) {
+
+    private val lock = Any()
+    private var rate = ratePerSecond
+    private var capacity = capacity
+    private var tokens = capacity
+    private var lastRefillNanos = System.nanoTime()
+
+    /**
+     * @brief 申请 [amount] 个令牌，不够时挂起等待。
+     *
+     * @param amount 令牌数。
+     */
+    suspend fun acquire(amount: Double) {
+        val waitMillis = synchronized(lock) {
+            if (rate <= 0.0) return // 不限速
+            refillLocked()
+            tokens -= amount
+            if (tokens >= 0.0) 0L else (-tokens / rate * 1000.0).toLong()
+        }
+        if (waitMillis > 0) delay(waitMillis)
+    }
+
+    /**
+     * @brief 修改速率和容量。已经攒下的令牌不会超过新容量。
+     *
+     * @param ratePerSecond 新的速率，小于等于 0 表示不限。
+     * @param capacity 新的容量。
+     */
+    fun setRate(ratePerSecond: Double, capacity: Double) = synchronized(lock) {
+        refillLocked()
+        val wasUnlimited = rate <= 0.0
+        rate = ratePerSecond
+        this.capacity = capacity
+        // 从不限速切过来时从满桶开始；欠着的令牌保留，免得切换限额时被钻空子
+        tokens = if (wasUnlimited) capacity else tokens.coerceAtMost(capacity)
+    }
+
+    private fun refillLocked() {
+        val now = System.nanoTime()
+        if (rate > 0.0) {
+            tokens = (tokens + (now - lastRefillNanos) / 1_000_000_000.0 * rate).coerceAtMost(capacity)
+        }
+        lastRefillNanos = now
+    }
+}
+
+/**
+ * @brief 全局 I/O 限速器：一个带宽令牌桶、一个写文件令牌桶，根据游戏是否在运行在两组限额之间切换。
+ *        每次申请时检查一下游戏状态 (只是读一个计数)，状态变了就调整两个桶的速率。
+ *
+ * @param normalLimits 平时的限额。
+ * @param gameRunningLimits 有游戏进程在运行时的限额。
+ * @param isGameRunning 判断当前是否有游戏在运行。
+ */
+class IoRateLimiter(
+    normalLimits: IoLimits,
+    gameRunningLimits: IoLimits,
+    private val isGameRunning: () -> Boolean
+) {
+
+    @Volatile
+    private var normalLimits = normalLimits
+
+    @Volatile
+    private var gameRunningLimits = gameRunningLimits
+
+    private val lock = Any()
+    private var activeLimits: IoLimits? = null // 当前生效的限额，null 表示还没初始化
+    private val byteBucket = TokenBucket(0.0, 0.0)
+    private val writeBucket = TokenBucket(0.0, 0.0)
+
+    /**
+     * @brief 修改两组限额，立刻生效。
+     *
+     * @param normal 平时的限额。
+     * @param whileGameRunning 游戏运行时的限额。
+     */
+    fun configure(normal: IoLimits, whileGameRunning: IoLimits) {
+        normalLimits = normal
+        gameRunningLimits = whileGameRunning
+        synchronized(lock) { activeLimits = null } // 下次申请时重新套用
+    }
+
+    /**
+     * @brief 申请下载 [bytes] 字节的带宽。
+     *
+     * @param bytes 刚读到 (准备写入) 的字节数。
+     */
+    suspend fun acquireBytes(bytes: Long) {
+        refreshLimits()
+        byteBucket.acquire(bytes.toDouble())
+    }
+
+    /**
+     * @brief 申请写一个新文件。
+     */
+    suspend fun acquireFileWrite() {
+        refreshLimits()
+        writeBucket.acquire(1.0)
+    }
+
+    /**
+     * @brief 根据游戏是否在运行选择限额，变了就更新两个桶。
+     */
+    private fun refreshLimits() {
+        val gameRunning = isGameRunning()
+        val wanted = if (gameRunning) gameRunningLimits else normalLimits
+        synchronized(lock) {
+            if (wanted == activeLimits) return
+            activeLimits = wanted
+            // 突发量给 1/4 秒的额度，带宽至少够一块缓冲区，免得小文件也要排队
+            val bytesRate = wanted.bytesPerSecond.toDouble()
+            byteBucket.setRate(bytesRate, maxOf(bytesRate / 4, 64.0 * 1024))
+            val writesRate = wanted.fileWritesPerSecond.toDouble()
+            writeBucket.setRate(writesRate, maxOf(writesRate / 4, 1.0))
+        }
+        Logger.info(TAG) {
+            "${if (gameRunning) "Game running" else "No game running"}, I/O limits now " +
+                "${if (wanted.bytesPerSecond > 0) "${wanted.bytesPerSecond / 1024} KB/s" else "unlimited bandwidth"}, " +
+                "${if (wanted.fileWritesPerSecond > 0) "${wanted.fileWritesPerSecond} files/s" else "unlimited file writes"}."
+        }
+    }
+
+    companion object {
+        private const val TAG = "IoRateLimiter" // 日志来源标识
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * @file LauncherPaths.kt
+ * @brief 启动器用到的各个目录的统一定义。
+ *        之前这些路径散落在 ViewModel 各处硬编码，现在集中到这里，下载、扫描和启动用的是同一套目录。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.io.File
+
+/**
+ * @brief 启动器目录布局。
+ *        ```
+ *        ~/.wzs_minecraft_launcher/
+ *            minecraft/    默认的游戏实例目录 (libraries、versions、assets ...)
+ *            objects/      所有实例共享的对象仓库，按 SHA1 存放，实例里的文件都是从这里硬链接出去的
+ *            logs/         启动器日志
+ *            cache/http/   版本清单等元数据的 HTTP 缓存
+ *            cache/versions/  版本 JSON 仓库，按 SHA1 存放 (<sha1>.json)
+ *        ```
+ */
+object LauncherPaths {
+
+    /** @brief 启动器的根目录。 */
+    val launcherHome: File = File(System.getProperty("user.home"), ".wzs_minecraft_launcher")
+
+    /** @brief 默认的游戏实例目录。TODO: 以后从设置里读取，支持多个实例。 */
+    val defaultGameDir: File get() = File(launcherHome, "minecraft")
+
+    /** @brief 共享对象仓库目录。 */
+    val objectStoreDir: File get() = File(launcherHome, "objects")
+
+    /** @brief 日志目录。 */
+    val logsDir: File get() = File(launcherHome, "logs")
+
+    /** @brief 元数据 HTTP 缓存目录。 */
+    val httpCacheDir: File get() = File(launcherHome, "cache/http")
+
+    /** @brief 版本 JSON 仓库目录。 */
+    val versionJsonCacheDir: File get() = File(launcherHome, "cache/versions")
+}
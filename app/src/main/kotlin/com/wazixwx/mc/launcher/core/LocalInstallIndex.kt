@@ -0,0 +1,142 @@
+/**
+ * @file LocalInstallIndex.kt
+ * @brief 本地 "完整安装" 记录。
+ *        `VersionScanner` 只看 `versions/<id>` 目录在不在，下载到一半的版本也算 "已安装"；
+ *        这里只记录所有文件都下载并校验通过的版本，离线时只有这些版本可以启动。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * @brief 一个完整安装的版本。
+ *
+ * @property versionId 版本 ID。
+ * @property detailsUrl 版本详情 JSON 的地址，离线启动时用它从元数据缓存里取版本详情。
+ * @property clientJarSize 客户端 JAR 的大小，读取时用来做一次便宜的完整性检查；没有客户端 JAR 的版本为 `null`。
+ * @property fileCount 记录时确认过的文件数 (安装时是不含资源对象的任务数，校验时是检查过的全部文件数)，仅供参考。
+ * @property installedAt 记录时间 (毫秒时间戳)。
+ * @property detailsSha1 安装时用的版本 JSON 的 SHA1，启动时用来确认本地 `versions/<id>/<id>.json` 没被换掉；旧记录里没有，为 `null`。
+ */
+@Serializable
+data class InstalledVersionEntry(
+    val versionId: String,
+    val detailsUrl: String,
+    val clientJarSize: Long? = null,
+    val fileCount: Int = 0,
+    val installedAt: Long = 0L,
+    val detailsSha1: String? = null
+)
+
+/**
+ * @brief 游戏目录下的完整安装记录，存在 `<游戏目录>/.wzs_launcher/installed_versions.json`。
+ *        这是一个单例对象 (object)，读写都加锁，文件很小，每次直接读写整个文件。
+ */
+object LocalInstallIndex {
+
+    private const val TAG = "LocalInstallIndex" // 日志来源标识
+    // 跟校验索引放在同一个启动器隐藏目录里
+    const val INDEX_FILE_PATH = ".wzs_launcher/installed_versions.json"
+
+    private val lock = Any()
+    private val indexJson = Json { ignoreUnknownKeys = true }
+
+    /**
+     * @brief 记录一个刚刚完整安装 (所有文件都校验通过) 的版本。
+     *
+     * @param gameDir 游戏根目录。
+     * @param entry 安装记录。
+     */
+    fun recordInstalled(gameDir: File, entry: InstalledVersionEntry) = synchronized(lock) {
+        val entries = readLocked(gameDir).toMutableMap()
+        entries[entry.versionId] = entry
+        writeLocked(gameDir, entries)
+        Logger.info(TAG) { "Recorded complete install of ${entry.versionId}." }
+    }
+
+    /**
+     * @brief 移除一个版本的记录 (比如校验发现文件有问题)。
+     *
+     * @param gameDir 游戏根目录。
+     * @param versionId 版本 ID。
+     */
+    fun remove(gameDir: File, versionId: String) = synchronized(lock) {
+        val entries = readLocked(gameDir)
+        if (versionId !in entries) return@synchronized
+        writeLocked(gameDir, entries - versionId)
+        Logger.info(TAG) { "Removed $versionId from the complete install index." }
+    }
+
+    /**
+     * @brief 获取一个版本的记录，并检查客户端 JAR 还在、大小没变。
+     *
+     * @param gameDir 游戏根目录。
+     * @param versionId 版本 ID。
+     * @return 记录；没有记录或者客户端 JAR 不对时返回 `null`。
+     */
+    fun completeEntry(gameDir: File, versionId: String): InstalledVersionEntry? {
+        val entry = synchronized(lock) { readLocked(gameDir)[versionId] } ?: return null
+        return entry.takeIf { isClientJarIntact(gameDir, it) }
+    }
+
+    /**
+     * @brief 获取所有完整安装的版本 ID (客户端 JAR 还在、大小没变的)。
+     *
+     * @param gameDir 游戏根目录。
+     * @return 版本 ID 集合。
+     */
+    fun completeVersionIds(gameDir: File): Set<String> {
+        val entries = synchronized(lock) { readLocked(gameDir) }
+        return entries.values.filter { isClientJarIntact(gameDir, it) }.mapTo(HashSet()) { it.versionId }
+    }
+
+    /**
+     * @brief 便宜的完整性检查：只 stat 客户端 JAR，不算哈希 (完整校验见 `InstallVerifier`)。
+     */
+    private fun isClientJarIntact(gameDir: File, entry: InstalledVersionEntry): Boolean {
+        val expectedSize = entry.clientJarSize ?: return true
+        val jar = File(gameDir, "versions/${entry.versionId}/${entry.versionId}.jar")
+        val attributes = VerificationIndex.readAttributes(jar)
+        return attributes != null && attributes.size() == expectedSize
+    }
+
+    private fun readLocked(gameDir: File): Map<String, InstalledVersionEntry> {
+        val file = File(gameDir, INDEX_FILE_PATH)
+        return try {
+            if (!file.isFile) return emptyMap()
+            indexJson.decodeFromString<List<InstalledVersionEntry>>(file.readText()).associateBy { it.versionId }
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to read ${file.path}: ${e.message}" }
+            emptyMap()
+        } catch (e: SerializationException) {
+            // 损坏了就当作没有记录，最坏情况是离线时少几个可启动的版本
+            Logger.warn(TAG) { "Ignoring corrupt install index ${file.path}: ${e.message}" }
+            emptyMap()
+        }
+    }
+
+    private fun writeLocked(gameDir: File, entries: Map<String, InstalledVersionEntry>) {
+        val file = File(gameDir, INDEX_FILE_PATH)
+        val temp = File(file.parentFile, "${file.name}.tmp")
+        try {
+            file.parentFile?.mkdirs()
+            temp.writeText(indexJson.encodeToString(entries.values.sortedBy { it.versionId }))
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to save ${file.path}: ${e.message}" }
+            temp.delete()
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * @file Logger.kt
+ * @brief 启动器的轻量日志门面。
+ *        支持日志级别、延迟构造消息 (级别没开的时候连字符串都不拼)，
+ *        日志事件先放进一个有界的环形队列，由后台线程统一写到控制台和按大小滚动的日志文件，
+ *        下载线程不用去抢控制台的锁。队列满了会丢日志，所以只用于启动器自己的诊断信息；
+ *        游戏进程的输出一行都不能丢，由 `GameLauncher` 直接打印，不经过这里。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.io.IOException
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.time.Instant
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * @brief 日志级别，从低到高。
+ */
+enum class LogLevel {
+    DEBUG, // 调试信息，比如每个文件的下载细节，默认关闭
+    INFO, // 一般信息
+    WARN, // 警告，比如单个文件下载失败
+    ERROR // 错误
+}
+
+/**
+ * @brief 全局日志入口。
+ *        用法：`Logger.debug(TAG) { "Downloading $path" }`，lambda 只有在级别开启时才会执行。
+ *        默认级别是 INFO，可以用系统属性 `-Dwzs.log.level=DEBUG` 调整，也可以运行时改 [level]。
+ */
+object Logger {
+
+    /** @brief 当前的最低输出级别，低于这个级别的日志直接丢弃。 */
+    @Volatile
+    var level: LogLevel = System.getProperty("wzs.log.level")
+        ?.let { name -> LogLevel.values().firstOrNull { it.name.equals(name, ignoreCase = true) } }
+        ?: LogLevel.INFO
+
+    /** @brief 是否同时输出到控制台 (标准输出)。 */
+    @Volatile
+    var consoleEnabled: Boolean = true
+
+    private const val QUEUE_CAPACITY = 8192 // 环形队列容量，满了就丢弃新日志而不是阻塞调用方
+    private const val MAX_FILE_BYTES = 5L * 1024 * 1024 // 单个日志文件最大 5 MB
+    private const val MAX_ROTATED_FILES = 3 // 最多保留 launcher.log.1 ~ launcher.log.3
+
+    // 日志文件放在启动器自己的目录下
+    private val logDir = LauncherPaths.logsDir
+    private val timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault())
+
+    private val queue = ArrayBlockingQueue<LogEvent>(QUEUE_CAPACITY)
+    private val droppedEvents = AtomicLong(0) // 队列满时丢掉的日志条数
+    private val currentFile: File get() = File(logDir, "launcher.log")
+    private var currentFileBytes = 0L // 当前日志文件已写入的大小，只在后台线程里访问
+
+    /**
+     * @brief 队列里的一条日志事件。时间和线程名在调用方线程记下，格式化交给后台线程。
+     */
+    private class LogEvent(
+        val timestamp: Long,
+        val level: LogLevel,
+        val tag: String,
+        val thread: String,
+        val message: String,
+        val throwable: Throwable?
+    )
+
+    // 后台写日志的线程，守护线程，不会挡着 JVM 退出
+    private val writerThread = Thread(::writerLoop, "launcher-log-writer").apply {
+        isDaemon = true
+        start()
+    }
+
+    init {
+        // JVM 退出时把队列里剩下的日志写完
+        Runtime.getRuntime().addShutdownHook(Thread {
+            writerThread.interrupt()
+            writerThread.join(1000)
+        })
+    }
+
+    /**
+     * @brief 判断某个级别的日志当前是否会被输出。
+     *
+     * @param level 日志级别。
+     * @return 会输出返回 `true`。
+     */
+    fun isEnabled(level: LogLevel): Boolean = level >= this.level
+
+    /** @brief 输出 DEBUG 级别日志，[message] 只在级别开启时才会被调用。 */
+    inline fun debug(tag: String, message: () -> String) {
+        if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, tag, message(), null)
+    }
+
+    /** @brief 输出 INFO 级别日志。 */
+    inline fun info(tag: String, message: () -> String) {
+        if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, tag, message(), null)
+    }
+
+    /** @brief 输出 WARN 级别日志，可以附带异常。 */
+    inline fun warn(tag: String, throwable: Throwable? = null, message: () -> String) {
+        if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, tag, message(), throwable)
+    }
+
+    /** @brief 输出 ERROR 级别日志，可以附带异常 (会写出堆栈)。 */
+    inline fun error(tag: String, throwable: Throwable? = null, message: () -> String) {
+        if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, tag, message(), throwable)
+    }
+
+    /**
+     * @brief 把一条日志放进队列，不阻塞。队列满了就丢掉并计数，之后会补一条提示。
+     *        一般不直接调用，用上面几个按级别的函数。
+     *
+     * @param level 日志级别。
+     * @param tag 来源标识，一般是类名。
+     * @param message 日志内容。
+     * @param throwable 附带的异常，可以为 `null`。
+     */
+    fun log(level: LogLevel, tag: String, message: String, throwable: Throwable?) {
+        val event = LogEvent(System.currentTimeMillis(), level, tag, Thread.currentThread().name, message, throwable)
+        if (!queue.offer(event)) {
+            droppedEvents.incrementAndGet()
+        }
+    }
+
+    /**
+     * @brief 后台线程：取出日志事件，写到控制台和日志文件。
+     *        一次尽量多取几条再刷新，减少系统调用。
+     */
+    private fun writerLoop() {
+        val batch = ArrayList<LogEvent>(256)
+        var writer = openLogFile()
+        var running = true
+        while (running) {
+            try {
+                val first = queue.poll(1, TimeUnit.SECONDS)
+                if (first != null) {
+                    batch.add(first)
+                    queue.drainTo(batch, 255)
+                }
+            } catch (e: InterruptedException) {
+                // 退出前把剩下的都取出来
+                queue.drainTo(batch)
+                running = false
+            }
+            if (batch.isEmpty()) continue
+
+            val dropped = droppedEvents.getAndSet(0)
+            if (dropped > 0) {
+                writer = writeLine(writer, "${timeFormatter.format(Instant.now())} WARN  [Logger] Log queue full, dropped $dropped messages", LogLevel.WARN)
+            }
+            for (event in batch) {
+                writer = writeLine(writer, format(event), event.level)
+            }
+            batch.clear()
+            try {
+                writer?.flush()
+            } catch (e: IOException) {
+                writer = null // 写不了文件就只输出到控制台
+            }
+            if (consoleEnabled) System.out.flush()
+        }
+        try {
+            writer?.close()
+        } catch (e: IOException) {
+            // 退出时关不掉就算了
+        }
+    }
+
+    /**
+     * @brief 写一行日志，必要时先滚动日志文件。
+     *
+     * @return 之后继续使用的 writer (滚动后会换成新文件的)。
+     */
+    private fun writeLine(writer: BufferedWriter?, line: String, level: LogLevel): BufferedWriter? {
+        if (consoleEnabled) {
+            if (level >= LogLevel.WARN) System.err.println(line) else println(line)
+        }
+        var current = writer ?: return null
+        try {
+            if (currentFileBytes + line.length > MAX_FILE_BYTES) {
+                current.close()
+                rotateLogFiles()
+                current = openLogFile() ?: return null
+            }
+            current.write(line)
+            current.newLine()
+            currentFileBytes += line.length + 1 // 按字符数估算就够了，不用精确
+        } catch (e: IOException) {
+            System.err.println("Logger: Failed to write log file ${currentFile.path}: ${e.message}")
+            return null
+        }
+        return current
+    }
+
+    /**
+     * @brief 打开 (追加) 当前日志文件，打不开时返回 `null`，只输出到控制台。
+     */
+    private fun openLogFile(): BufferedWriter? {
+        return try {
+            logDir.mkdirs()
+            currentFileBytes = currentFile.length()
+            FileWriter(currentFile, Charsets.UTF_8, true).buffered()
+        } catch (e: IOException) {
+            System.err.println("Logger: Cannot open log file ${currentFile.path}: ${e.message}")
+            null
+        } catch (e: SecurityException) {
+            System.err.println("Logger: Permission denied opening log file ${currentFile.path}: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * @brief 滚动日志文件：launcher.log.2 -> .3，.1 -> .2，launcher.log -> .1，最老的那个删掉。
+     */
+    private fun rotateLogFiles() {
+        File(logDir, "launcher.log.$MAX_ROTATED_FILES").delete()
+        for (i in MAX_ROTATED_FILES - 1 downTo 1) {
+            val file = File(logDir, "launcher.log.$i")
+            if (file.exists()) file.renameTo(File(logDir, "launcher.log.${i + 1}"))
+        }
+        currentFile.renameTo(File(logDir, "launcher.log.1"))
+    }
+
+    /**
+     * @brief 把日志事件格式化成一行 (带异常时附上堆栈)。
+     */
+    private fun format(event: LogEvent): String {
+        val line = "${timeFormatter.format(Instant.ofEpochMilli(event.timestamp))} ${event.level.name.padEnd(5)} " +
+            "[${event.thread}] ${event.tag}: ${event.message}"
+        val throwable = event.throwable ?: return line
+        val stackTrace = StringWriter().also { throwable.printStackTrace(PrintWriter(it)) }
+        return "$line\n${stackTrace.toString().trimEnd()}"
+    }
+}
@@ -18,7 +18,16 @@ import io.ktor.client.plugins.contentnegotiation.* // 内容协商插件，用
 import io.ktor.client.request.* // 用于构建 HTTP 请求 (例如 get)
 import io.ktor.http.* // HTTP 相关的定义 (例如状态码检查 isSuccess)
 import io.ktor.serialization.kotlinx.json.* // Ktor 对 Kotlinx Serialization 的集成
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 // import io.ktor.client.plugins.logging.* // 如果需要详细的网络日志，可以取消注释
 import io.ktor.client.plugins.HttpTimeout // 超时配置插件
 
@@ -29,7 +38,41 @@ import io.ktor.client.plugins.HttpTimeout // 超时配置插件
 object MojangApiService {
 
     // Mojang 官方版本清单 JSON 文件的 URL
-    private const val VERSION_MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest.json"
+    // v2 清单给每个版本都带了版本 JSON 的 SHA1，本地缓存的版本 JSON 是不是最新的一比就知道
+    private const val VERSION_MANIFEST_URL = "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json"
+
+    // 解析版本清单和版本详情用的 Json 实例，内容协商插件也用同一个配置
+    private val json = Json {
+        isLenient = true // 允许 JSON 格式不严格 (比如，末尾逗号)
+        ignoreUnknownKeys = true // 忽略 JSON 里有但数据类里没有定义的字段
+    }
+
+    // 元数据的磁盘缓存：清单走条件请求，带 SHA1 的版本 JSON 缓存一次就不再请求
+    private val metadataCache by lazy { HttpMetadataCache(LauncherPaths.httpCacheDir) }
+
+    // 版本 JSON 仓库，按 SHA1 存放，同一个 SHA1 只下载一次
+    private val versionJsonStore by lazy { VersionJsonStore(LauncherPaths.versionJsonCacheDir) }
+
+    // 解析过的版本详情，按版本 JSON 的 SHA1 记住；内容不可变，所以永远不用失效
+    private val parsedVersionDetails = ConcurrentHashMap<String, VersionDetails>()
+
+    /**
+     * @brief 强制离线：为 `true` 时版本清单和版本详情都只从本地缓存读取，不发任何请求。
+     */
+    @Volatile
+    var forceOffline: Boolean = false
+        set(value) {
+            field = value
+            if (value) _isOffline.value = true
+        }
+
+    private val _isOffline = MutableStateFlow(false)
+
+    /**
+     * @brief 当前是不是处于离线状态：强制离线，或者最近一次获取版本清单时连不上服务器 (用的是缓存)。
+     *        下一次清单请求成功时自动恢复。
+     */
+    val isOffline: StateFlow<Boolean> = _isOffline.asStateFlow()
 
     // 配置 Ktor HTTP 客户端实例
     private val client = HttpClient(CIO) { // 使用 CIO 引擎，适合在 JVM 环境下运行
@@ -41,10 +84,7 @@ object MojangApiService {
 
         // 安装并配置内容协商插件，让它能自动处理 JSON 响应
         install(ContentNegotiation) {
-            json(Json { // 使用 Kotlinx Serialization 作为 JSON 处理器
-                isLenient = true // 允许 JSON 格式不严格 (比如，末尾逗号)
-                ignoreUnknownKeys = true // 忽略 JSON 里有但数据类里没有定义的字段
-            })
+            json(json) // 使用 Kotlinx Serialization 作为 JSON 处理器
         }
 
         // // 配置默认请求参数 (比如，可以给所有请求加个 User-Agent 头)
@@ -68,6 +108,8 @@ object MojangApiService {
 
     /**
      * @brief 从 Mojang API 异步获取并解析官方的 Minecraft 版本清单。
+     *        经过磁盘缓存：带着上次的 ETag / Last-Modified 发条件请求，没变时服务器回 304，直接用磁盘上的清单。
+     *        网络不通时退回上次缓存的清单，并进入离线状态 (`isOffline`)；强制离线时不请求网络。
      *
      * @return 解析成功就返回 `VersionManifest` 对象，里面包含所有可用版本的信息；
      *         如果网络请求失败或 JSON 解析出错，就返回 `null`。
@@ -75,16 +117,18 @@ object MojangApiService {
     suspend fun getVersionManifest(): VersionManifest? {
         return try {
             println("MojangApiService: Fetching version manifest from Mojang...") // 控制台打印简单日志
-            // 发起 GET 请求到版本清单 URL
-            val response = client.get(VERSION_MANIFEST_URL)
-            // 检查 HTTP 响应状态码是不是表示成功 (2xx)
-            if (!response.status.isSuccess()) {
-                println("MojangApiService: Failed to fetch version manifest, HTTP status: ${response.status}")
+            // 通过缓存请求版本清单 URL (条件请求)
+            val cached = metadataCache.fetch(client, VERSION_MANIFEST_URL, allowNetwork = !forceOffline)
+            // 清单是判断有没有网的依据：服务器有回应就是在线，否则就是离线
+            _isOffline.value = forceOffline || cached == null ||
+                cached.source == CacheSource.STALE || cached.source == CacheSource.OFFLINE
+            if (cached == null) {
+                println("MojangApiService: Failed to fetch version manifest and no cached copy is available.")
                 return null // 请求失败
             }
-            // 使用 Ktor 的内容协商功能自动将响应体解析为 VersionManifest 对象
-            val manifest = response.body<VersionManifest>()
-            println("MojangApiService: Successfully fetched and parsed version manifest.")
+            // 把响应体解析为 VersionManifest 对象
+            val manifest = json.decodeFromString<VersionManifest>(cached.body)
+            println("MojangApiService: Successfully fetched and parsed version manifest (${cached.source}).")
             manifest // 返回解析后的对象
         } catch (e: Exception) {
             // 捕获网络请求或 JSON 解析过程中可能出现的任何异常
@@ -96,29 +140,39 @@ object MojangApiService {
 
     /**
      * @brief 根据给定的 URL，从 Mojang API 异步获取并解析特定 Minecraft 版本的详细信息。
+     *        知道版本 JSON 的 SHA1 (v2 清单里有，官方地址里也带着) 时走版本 JSON 仓库：
+     *        解析过的直接用内存里的结果，仓库里有就只解析不下载，都没有才下载，校验 SHA1 后存进仓库。
+     *        SHA1 不变内容就不变，所以没变的版本既不会重新下载也不会重新解析。
+     *        不知道 SHA1 的地址走元数据缓存 (条件请求)。
      *
      * @param url 指向特定版本 JSON 文件的 URL (通常来自版本清单)。
+     * @param allowNetwork 是否允许请求网络，默认强制离线时不允许。为 `false` 时只读本地缓存。
+     * @param sha1 版本 JSON 的 SHA1，默认从地址里取；取不到时为 `null`。
      * @return 解析成功就返回包含版本详细信息的 `VersionDetails` 对象；
-     *         如果 URL 无效、网络请求失败或 JSON 解析出错，就返回 `null`。
+     *         如果 URL 无效、网络请求失败、内容跟 SHA1 对不上或 JSON 解析出错，就返回 `null`。
      */
-    suspend fun getVersionDetails(url: String): VersionDetails? {
+    suspend fun getVersionDetails(
+        url: String,
+        allowNetwork: Boolean = !forceOffline,
+        sha1: String? = HttpMetadataCache.immutableSha1Of(url)
+    ): VersionDetails? {
         // 对传入的 URL 进行简单的格式校验
         if (!url.startsWith("https://") || !url.endsWith(".json")) {
              println("MojangApiService: Error - Invalid version details URL format: $url")
              return null // URL 格式不符合预期
         }
+        if (sha1 != null) return getStoredVersionDetails(url, sha1.lowercase(), allowNetwork)
         return try {
             println("MojangApiService: Fetching version details from URL: $url")
-            // 发起 GET 请求到指定的版本详情 URL
-            val response = client.get(url)
-            // 检查 HTTP 响应状态码
-            if (!response.status.isSuccess()) {
-                println("MojangApiService: Failed to fetch version details from $url, HTTP status: ${response.status}")
+            // 通过缓存请求指定的版本详情 URL
+            val cached = metadataCache.fetch(client, url, allowNetwork)
+            if (cached == null) {
+                println("MojangApiService: Failed to fetch version details from $url and no cached copy is available.")
                 return null // 请求失败
             }
-            // 自动将响应体解析为 VersionDetails 对象
-            val details = response.body<VersionDetails>()
-            println("MojangApiService: Successfully fetched and parsed version details (ID: ${details.id}).")
+            // 把响应体解析为 VersionDetails 对象
+            val details = json.decodeFromString<VersionDetails>(cached.body)
+            println("MojangApiService: Successfully fetched and parsed version details (ID: ${details.id}, ${cached.source}).")
             details // 返回解析后的对象
         } catch (e: Exception) {
             // 捕获网络或解析异常
@@ -128,6 +182,90 @@ object MojangApiService {
         }
     }
 
+    /**
+     * @brief 按 SHA1 获取版本详情：内存 -> 版本 JSON 仓库 -> 旧的元数据缓存 -> 网络。
+     */
+    private suspend fun getStoredVersionDetails(url: String, sha1: String, allowNetwork: Boolean): VersionDetails? {
+        parsedVersionDetails[sha1]?.let { return it } // 解析过了，连文件都不用读
+        return try {
+            val bytes = withContext(Dispatchers.IO) { versionJsonStore.read(sha1) }
+                ?: importFromMetadataCache(url, sha1)
+                ?: if (allowNetwork) downloadVersionJson(url, sha1) else null
+            if (bytes == null) {
+                println("MojangApiService: Version JSON $sha1 is not stored locally and could not be downloaded.")
+                return null
+            }
+            val details = json.decodeFromString<VersionDetails>(bytes.decodeToString())
+            parsedVersionDetails[sha1] = details
+            println("MojangApiService: Loaded version details (ID: ${details.id}) from stored version JSON $sha1.")
+            details
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            println("MojangApiService: Error fetching or parsing version details from $url: ${e.message}")
+            e.printStackTrace()
+            null
+        }
+    }
+
+    /**
+     * @brief 以前版本 JSON 都存在元数据缓存里，仓库里没有时先看那边有没有，有就搬进仓库，省一次下载。
+     */
+    private suspend fun importFromMetadataCache(url: String, sha1: String): ByteArray? {
+        val bytes = metadataCache.cached(url)?.toByteArray() ?: return null
+        return bytes.takeIf { withContext(Dispatchers.IO) { versionJsonStore.put(sha1, it) } }
+    }
+
+    /**
+     * @brief 下载版本 JSON，校验 SHA1 后存进仓库。对不上时不用这份内容。
+     */
+    private suspend fun downloadVersionJson(url: String, sha1: String): ByteArray? {
+        println("MojangApiService: Fetching version details from URL: $url")
+        val response = client.get(url)
+        if (!response.status.isSuccess()) {
+            println("MojangApiService: Failed to fetch version details from $url: HTTP ${response.status}")
+            return null
+        }
+        val bytes = response.body<ByteArray>()
+        if (!withContext(Dispatchers.IO) { versionJsonStore.put(sha1, bytes) }) {
+            println("MojangApiService: Version JSON from $url does not match SHA1 $sha1, discarding it.")
+            return null
+        }
+        return bytes
+    }
+
+    /**
+     * @brief 把版本 JSON 写到游戏目录的 `versions/<id>/<id>.json`，这样 `GameLauncher` 不联网也能读到。
+     *        知道 SHA1 时从版本 JSON 仓库复制 (本地文件已经是这个内容就不动)，否则从元数据缓存复制。
+     *        需要先调用过一次 `getVersionDetails`，这里不请求网络。
+     *
+     * @param gameDir 游戏根目录。
+     * @param versionId 版本 ID。
+     * @param url 版本 JSON 的地址。
+     * @param sha1 版本 JSON 的 SHA1，默认从地址里取。
+     * @return 写好了 (或者本来就是这个内容) 返回 `true`，本地没有这份版本 JSON 或者写入失败返回 `false`。
+     */
+    suspend fun writeLocalVersionJson(
+        gameDir: File,
+        versionId: String,
+        url: String,
+        sha1: String? = HttpMetadataCache.immutableSha1Of(url)
+    ): Boolean {
+        if (sha1 != null) return withContext(Dispatchers.IO) { versionJsonStore.materialize(sha1, gameDir, versionId) }
+        val body = metadataCache.cached(url) ?: return false
+        return withContext(Dispatchers.IO) {
+            val target = VersionJsonStore.localVersionJson(gameDir, versionId)
+            try {
+                target.parentFile?.mkdirs()
+                target.writeText(body)
+                true
+            } catch (e: IOException) {
+                println("MojangApiService: Failed to write ${target.path}: ${e.message}")
+                false
+            }
+        }
+    }
+
     /**
      * @brief 提供对内部共享的 Ktor HttpClient 实例的访问。
      *        允许其他模块 (比如 DownloadManager) 复用同一个配置好的 HTTP 客户端。
@@ -0,0 +1,168 @@
+/**
+ * @file ObjectStore.kt
+ * @brief 多个游戏实例共享的内容寻址对象仓库。
+ *        客户端 JAR、库文件、资源文件都带有 SHA1，同一个 SHA1 的文件在整台机器上只需要下载和存放一份。
+ *        各个实例目录里的文件通过硬链接指向仓库里的对象，新建一个实例几乎不占网络和磁盘。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * @brief 按 SHA1 存放文件的对象仓库，布局跟 Mojang 的资源目录一样：`<根目录>/<前两位>/<完整 SHA1>`。
+ *        只有校验通过的文件才会放进来；但硬链接共享同一份数据，实例里的文件被原地修改 (或者磁盘坏了)
+ *        仓库里的对象也跟着变，所以链接到实例之前调用方要重新算 SHA1，不对就 [evict]。
+ *        线程安全：同一个对象被并发放入时内容都一样，谁覆盖谁都没关系。
+ *
+ * @param rootDir 仓库的根目录。
+ */
+class ObjectStore(val rootDir: File) {
+
+    /**
+     * @brief 获取某个 SHA1 对应的对象文件位置 (不保证存在)。
+     *
+     * @param sha1 对象的 SHA1。
+     * @return 对象文件。
+     */
+    fun objectFile(sha1: String): File = File(rootDir, objectPath(sha1))
+
+    /**
+     * @brief 判断仓库的预检快照里有没有这个对象 (并且大小对得上)，不碰文件系统。
+     *
+     * @param snapshot 用 `PresenceSnapshot.scan(rootDir, listOf(""))` 拍的仓库快照。
+     * @param sha1 对象的 SHA1。
+     * @param size 期望的大小。
+     * @return 快照里有返回 `true`；没有或者大小不对 (快照拍完之后才放进来的、坏掉的) 返回 `false`。
+     */
+    fun isListedIn(snapshot: PresenceSnapshot, sha1: String, size: Long): Boolean =
+        snapshot.attributes(objectPath(sha1))?.size() == size
+
+    private fun objectPath(sha1: String): String {
+        val hash = sha1.lowercase()
+        return "${hash.take(2)}/$hash"
+    }
+
+    /**
+     * @brief 判断仓库里有没有这个对象 (并且大小对得上)。
+     *
+     * @param sha1 对象的 SHA1。
+     * @param size 期望的大小。
+     * @return 有返回 `true`。
+     */
+    fun contains(sha1: String, size: Long): Boolean {
+        val attributes = VerificationIndex.readAttributes(objectFile(sha1)) ?: return false
+        return attributes.isRegularFile && attributes.size() == size
+    }
+
+    /**
+     * @brief 把仓库里的对象放到目标位置：优先硬链接，不行 (比如跨分区、文件系统不支持) 就复制。
+     *        目标已存在时会被替换。
+     *
+     * @param sha1 对象的 SHA1。
+     * @param target 目标文件。
+     * @param ensureParent 是否先创建目标的父目录。调用方已经批量建好目录时传 `false`，省一次系统调用。
+     * @return 成功返回 `true`。
+     */
+    fun materialize(sha1: String, target: File, ensureParent: Boolean = true): Boolean =
+        placeFile(objectFile(sha1), target, ensureParent)
+
+    /**
+     * @brief 把损坏的对象从仓库里删掉。已经链接到各个实例里的文件不受影响 (它们各自校验时会发现)。
+     *
+     * @param sha1 对象的 SHA1。
+     * @return 删掉了或者本来就没有返回 `true`。
+     */
+    fun evict(sha1: String): Boolean {
+        val target = objectFile(sha1)
+        return try {
+            Files.deleteIfExists(target.toPath())
+            true
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to evict ${target.path} from object store: ${e.message}" }
+            false
+        }
+    }
+
+    /**
+     * @brief 把一个已经校验通过的文件放进仓库 (硬链接过去，不行就复制)。仓库里已经有了就什么都不做。
+     *
+     * @param file 校验通过的文件。
+     * @param sha1 文件的 SHA1。
+     * @return 对象已经在仓库里 (包括原本就有) 返回 `true`。
+     */
+    fun adopt(file: File, sha1: String): Boolean {
+        val target = objectFile(sha1)
+        if (target.isFile) return true
+        target.parentFile?.mkdirs()
+        val temp = File(target.parentFile, "${target.name}.${System.nanoTime()}.tmp")
+        return try {
+            linkOrCopy(file, temp)
+            // 别的协程可能刚放进来同一个对象，内容一样，谁覆盖谁都没关系
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            true
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to add ${file.path} to object store: ${e.message}" }
+            temp.delete()
+            false
+        } catch (e: SecurityException) {
+            Logger.warn(TAG) { "Permission denied adding ${file.path} to object store: ${e.message}" }
+            temp.delete()
+            false
+        }
+    }
+
+    companion object {
+        private const val TAG = "ObjectStore" // 日志来源标识
+
+        /**
+         * @brief 把一个文件放到目标位置：优先硬链接，不行就复制；先放到目标旁边的临时名再原子替换，不会留下半个文件。
+         *        目标已存在时会被替换。仓库往实例里放对象、同一个文件在两个实例里同时下载时共享结果都用它。
+         *
+         * @param source 源文件。
+         * @param target 目标文件。
+         * @param ensureParent 是否先创建目标的父目录。
+         * @return 成功返回 `true`。
+         */
+        fun placeFile(source: File, target: File, ensureParent: Boolean = true): Boolean {
+            if (ensureParent) target.parentFile?.mkdirs()
+            val temp = File(target.parentFile, "${target.name}.${System.nanoTime()}.link")
+            return try {
+                linkOrCopy(source, temp)
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+                true
+            } catch (e: IOException) {
+                Logger.warn(TAG) { "Failed to place ${source.path} at ${target.path}: ${e.message}" }
+                temp.delete()
+                false
+            } catch (e: SecurityException) {
+                Logger.warn(TAG) { "Permission denied placing ${source.path} at ${target.path}: ${e.message}" }
+                temp.delete()
+                false
+            }
+        }
+
+        /**
+         * @brief 优先建硬链接；文件系统不支持或者跨分区时退回复制。
+         *        Java 标准库没有 reflink (写时复制) 的接口，复制就是普通的全量复制。
+         */
+        private fun linkOrCopy(source: File, target: File) {
+            try {
+                Files.createLink(target.toPath(), source.toPath())
+            } catch (e: UnsupportedOperationException) {
+                Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            } catch (e: IOException) {
+                // 跨分区 (EXDEV)、FAT 之类不支持硬链接的文件系统都会走到这里
+                Logger.debug(TAG) { "Hard link ${source.path} -> ${target.path} failed (${e.message}), copying instead." }
+                Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * @file PresenceSnapshot.kt
+ * @brief 下载前的 "文件在不在" 预检。
+ *        几千个资源文件逐个 stat，系统调用随机散在 `assets/objects/xx/` 的 256 个目录里；
+ *        改成开始下载前把 `libraries` 和 `assets/objects` 按目录顺序遍历一遍，得到一张 路径 -> 文件属性 的表，
+ *        之后判断文件在不在、大小对不对都查表，不存在的文件直接进入下载，不再 stat。
+ *        需要的目录也在这里一次性建好，不用每个文件都 mkdirs 一遍。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * @brief 某一时刻游戏目录下几个子目录的文件快照。
+ *        只对遍历过的目录 ([covers] 返回 `true` 的路径) 有效；其它路径还是要自己 stat。
+ *        快照是开始下载时拍的，之后别的安装在同一目录写进来的文件它不知道，所以只在第一次检查时使用。
+ *
+ * @param gameDir 游戏根目录。
+ * @param roots 遍历过的子目录 (相对路径，用 `/` 分隔)，空字符串表示整个根目录。
+ * @param files 遍历到的文件，键是相对路径。
+ * @param directories 已知存在的目录 (相对路径)，建目录时会往里加。
+ */
+class PresenceSnapshot private constructor(
+    private val gameDir: File,
+    private val roots: List<String>,
+    private val files: Map<String, BasicFileAttributes>,
+    private val directories: MutableSet<String>
+) {
+
+    /** @brief 快照里的文件数。 */
+    val fileCount: Int get() = files.size
+
+    /**
+     * @brief 判断某个路径在不在遍历过的范围里。
+     *
+     * @param relativePath 相对游戏根目录的路径。
+     * @return 在范围里返回 `true`，这时 [attributes] 返回 `null` 就说明文件不存在。
+     */
+    fun covers(relativePath: String): Boolean {
+        val path = normalize(relativePath)
+        return roots.any { it.isEmpty() || path.startsWith("$it/") }
+    }
+
+    /**
+     * @brief 查文件属性。
+     *
+     * @param relativePath 相对游戏根目录的路径。
+     * @return 文件属性；快照里没有 (不存在，或者不在遍历范围里) 时返回 `null`。
+     */
+    fun attributes(relativePath: String): BasicFileAttributes? = files[normalize(relativePath)]
+
+    /**
+     * @brief 判断某个文件的父目录是不是已经确认存在 (遍历到的或者 [ensureDirectories] 建好的)。
+     *
+     * @param relativePath 文件的相对路径。
+     * @return 确认存在返回 `true`。
+     */
+    fun hasParentDirectory(relativePath: String): Boolean =
+        parentOf(normalize(relativePath))?.let { it in directories } ?: true
+
+    /**
+     * @brief 一次性建好这些文件需要的父目录。已经存在的目录不会再碰，每个目录只 mkdirs 一次。
+     *
+     * @param relativePaths 文件的相对路径。
+     */
+    fun ensureDirectories(relativePaths: Collection<String>) {
+        val missing = relativePaths.mapNotNullTo(HashSet()) { parentOf(normalize(it)) }.filter { it !in directories }
+        for (dir in missing.sorted()) { // 排序后父目录在前，子目录的 mkdirs 只需要建最后一级
+            if (dir in directories) continue
+            val file = File(gameDir, dir)
+            if (file.isDirectory || file.mkdirs()) {
+                // 这个目录和它所有的上级目录都存在了
+                var current: String? = dir
+                while (current != null && directories.add(current)) {
+                    current = parentOf(current)
+                }
+            } else {
+                Logger.warn(TAG) { "Failed to create directory ${file.path}" }
+            }
+        }
+        if (missing.isNotEmpty()) Logger.debug(TAG) { "Created ${missing.size} directories under ${gameDir.path}." }
+    }
+
+    companion object {
+        private const val TAG = "PresenceSnapshot" // 日志来源标识
+
+        /** @brief 默认遍历的目录：库文件和资源对象，文件数最多的两处。 */
+        val DEFAULT_ROOTS = listOf("libraries", "assets/objects")
+
+        /**
+         * @brief 遍历游戏目录下的几个子目录，拍一张快照。
+         *        每个子目录下的一级子目录 (比如 `assets/objects/00` ~ `ff`) 各开一个协程并行遍历，
+         *        遍历出错的子目录从快照范围里去掉 (那部分回退到逐个 stat)。
+         *        整个过程 (包括列出一级子目录) 都在 IO 线程池里，不会卡住调用方的线程。
+         *
+         * @param gameDir 游戏根目录 (也可以是别的目录，比如对象仓库)。
+         * @param roots 要遍历的子目录 (相对路径)，空字符串表示遍历整个根目录。
+         * @return 快照。
+         */
+        suspend fun scan(gameDir: File, roots: List<String> = DEFAULT_ROOTS): PresenceSnapshot = withContext(Dispatchers.IO) {
+            val startNanos = System.nanoTime()
+            val directories: MutableSet<String> = ConcurrentHashMap.newKeySet()
+            val scannedRoots = roots.map { normalize(it).trimEnd('/') }
+            // 每个一级子目录一个遍历任务，根目录下直接放着的文件单独算一个
+            val results = scannedRoots.flatMap { root ->
+                val rootDir = File(gameDir, root)
+                val children = rootDir.listFiles()?.toList() ?: emptyList()
+                if (rootDir.isDirectory) directories.add(root)
+                children.map { child ->
+                    async { root to walk(gameDir.toPath(), child.toPath(), directories) }
+                }
+            }.awaitAll()
+
+            val failedRoots = results.filter { it.second == null }.map { it.first }.toSet()
+            val files = HashMap<String, BasicFileAttributes>()
+            results.forEach { (_, walked) -> walked?.let { files.putAll(it) } }
+            val coveredRoots = scannedRoots - failedRoots
+            Logger.info(TAG) {
+                "Preflight scan of ${coveredRoots.joinToString()} found ${files.size} files in ${(System.nanoTime() - startNanos) / 1_000_000} ms."
+            }
+            PresenceSnapshot(gameDir, coveredRoots, files, directories)
+        }
+
+        /**
+         * @brief 遍历一个文件或目录。
+         *
+         * @return 遍历到的文件 (相对路径 -> 属性)；遍历出错时返回 `null`。
+         */
+        private fun walk(base: Path, start: Path, directories: MutableSet<String>): Map<String, BasicFileAttributes>? {
+            val found = HashMap<String, BasicFileAttributes>()
+            return try {
+                Files.walkFileTree(start, object : SimpleFileVisitor<Path>() {
+                    override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult {
+                        directories.add(relativize(base, dir))
+                        return FileVisitResult.CONTINUE
+                    }
+
+                    override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+                        if (attrs.isRegularFile) found[relativize(base, file)] = attrs
+                        return FileVisitResult.CONTINUE
+                    }
+                })
+                found
+            } catch (e: IOException) {
+                Logger.warn(TAG) { "Preflight scan of $start failed: ${e.message}" }
+                null
+            } catch (e: SecurityException) {
+                Logger.warn(TAG) { "Permission denied scanning $start: ${e.message}" }
+                null
+            }
+        }
+
+        private fun relativize(base: Path, path: Path): String = normalize(base.relativize(path).toString())
+
+        private fun normalize(path: String): String = path.replace('\\', '/')
+
+        private fun parentOf(path: String): String? = path.substringBeforeLast('/', "").ifEmpty { null }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * @file VerificationIndex.kt
+ * @brief 持久化的文件校验索引。
+ *        记录已经通过 SHA1 校验的文件的元数据 (大小、修改时间、文件键)，
+ *        下次检查时只要元数据没变就直接信任，不用再把整个文件读一遍算哈希。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * @brief 索引里的单条记录，对应一个已经校验通过的文件。
+ *
+ * @property size 校验时文件的大小 (字节)。
+ * @property lastModified 校验时文件的最后修改时间 (纳秒精度，取决于文件系统)。
+ * @property fileKey 文件系统提供的文件唯一标识 (比如 Linux 上的 dev+inode)，Windows 上可能拿不到，就为 `null`。
+ * @property sha1 校验通过时的 SHA1 值。
+ */
+@Serializable
+data class VerifiedFileEntry(
+    val size: Long,
+    val lastModified: Long,
+    val fileKey: String? = null,
+    val sha1: String
+)
+
+/**
+ * @brief 某个根目录 (通常是游戏目录) 下的校验索引。
+ *        键是相对于根目录的路径 (跟 `DownloadTaskInfo.destinationPath` 一致)。
+ *        线程安全，可以被多个下载协程同时读写。
+ *        同一个根目录上同时进行的安装要用 [acquire] 拿到同一个实例，各自 new 一个的话会互相覆盖对方的记录。
+ *
+ * @param rootDir 索引所属的根目录，索引文件本身也存在这个目录下。
+ */
+class VerificationIndex(private val rootDir: File) {
+
+    private val indexFile = File(rootDir, INDEX_FILE_PATH) // 索引文件的位置
+    private val entries = ConcurrentHashMap<String, VerifiedFileEntry>() // 内存中的索引数据
+
+    @Volatile
+    private var dirty = false // 有没有未保存的修改，没改过就不用写盘
+
+    private var loaded = false // 已经从磁盘加载过，由 [acquire] 保证只加载一次，受 this 的锁保护
+    private var users = 0 // 通过 [acquire] 拿着这个实例还没 [release] 的调用方数量，受 [openIndexes] 的锁保护
+
+    /**
+     * @brief 从磁盘加载索引。文件不存在或损坏时就当作空索引，最坏情况只是多算几次哈希。
+     */
+    fun load() {
+        if (!indexFile.isFile) {
+            Logger.info(TAG) { "No index found at ${indexFile.path}, starting empty." }
+            return
+        }
+        try {
+            val loaded = indexJson.decodeFromString<Map<String, VerifiedFileEntry>>(indexFile.readText())
+            entries.putAll(loaded)
+            Logger.info(TAG) { "Loaded ${loaded.size} entries from ${indexFile.path}." }
+        } catch (e: Exception) {
+            // 索引坏了不要紧，直接丢掉重新积累
+            Logger.warn(TAG) { "Failed to load index (${e.message}), starting empty." }
+            entries.clear()
+        }
+    }
+
+    /**
+     * @brief 把索引写回磁盘。先写临时文件再原子替换，避免写一半被打断留下坏文件。
+     *        同一个实例的保存互相排队；临时文件名每次都不一样，另一个进程同时保存也不会写到同一个临时文件里。
+     */
+    @Synchronized
+    fun save() {
+        if (!dirty) return // 没变化就不写
+        // 先清掉标记再取快照：取快照之后才记录的修改会把标记重新置上，下次保存不会漏掉
+        dirty = false
+        var tempFile: File? = null
+        try {
+            val parent = indexFile.parentFile.also { it.mkdirs() }
+            tempFile = Files.createTempFile(parent.toPath(), indexFile.name, ".tmp").toFile()
+            tempFile.writeText(indexJson.encodeToString(entries.toMap()))
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            Logger.info(TAG) { "Saved ${entries.size} entries to ${indexFile.path}." }
+        } catch (e: IOException) {
+            dirty = true // 没存成，下次再试
+            tempFile?.delete()
+            Logger.warn(TAG) { "Failed to save index to ${indexFile.path}: ${e.message}" }
+        }
+    }
+
+    /**
+     * @brief 判断某个文件能不能直接信任 (不用重新算哈希)。
+     *        要求索引里有记录，并且大小、修改时间、文件键和期望的 SHA1 都对得上。
+     *
+     * @param relativePath 相对于根目录的路径。
+     * @param attributes 刚读到的文件属性 (由 [readAttributes] 获取)。
+     * @param expectedSha1 期望的 SHA1 值。
+     * @return 可以信任返回 `true`；没有记录或元数据有变化返回 `false`。
+     */
+    fun isTrusted(relativePath: String, attributes: BasicFileAttributes, expectedSha1: String): Boolean {
+        val entry = entries[relativePath] ?: return false
+        return entry.sha1.equals(expectedSha1, ignoreCase = true) &&
+            entry.size == attributes.size() &&
+            entry.lastModified == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) &&
+            entry.fileKey == attributes.fileKey()?.toString()
+    }
+
+    /**
+     * @brief 记录一个刚刚校验通过的文件。会重新读一次文件属性，拿到写完之后的最终元数据。
+     *
+     * @param relativePath 相对于根目录的路径。
+     * @param file 实际的文件。
+     * @param sha1 校验通过的 SHA1 值。
+     */
+    fun record(relativePath: String, file: File, sha1: String) {
+        val attributes = readAttributes(file) ?: return // 文件都没了，记个啥
+        entries[relativePath] = VerifiedFileEntry(
+            size = attributes.size(),
+            lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+            fileKey = attributes.fileKey()?.toString(),
+            sha1 = sha1.lowercase()
+        )
+        dirty = true
+    }
+
+    /**
+     * @brief 移除某个文件的记录 (比如文件被删掉或者校验失败了)。
+     *
+     * @param relativePath 相对于根目录的路径。
+     */
+    fun invalidate(relativePath: String) {
+        if (entries.remove(relativePath) != null) {
+            dirty = true
+        }
+    }
+
+    companion object {
+        private const val TAG = "VerificationIndex" // 日志来源标识
+        // 索引文件相对于根目录的路径，放在启动器自己的隐藏目录里，不污染游戏目录结构
+        const val INDEX_FILE_PATH = ".wzs_launcher/verification_index.json"
+
+        private val indexJson = Json { ignoreUnknownKeys = true }
+
+        // 正在使用的索引，键是规范化后的根目录路径。没人用了就移除，内存里不会一直留着
+        private val openIndexes = HashMap<String, VerificationIndex>()
+
+        /**
+         * @brief 拿到某个根目录的共享索引，第一次拿时从磁盘加载。用完要调用 [release]。
+         *        同一个根目录上同时进行的安装拿到的是同一个实例，记录不会互相覆盖，也不会同时写同一个索引文件。
+         *        会读磁盘，要在 IO 线程调用。
+         *
+         * @param rootDir 根目录 (通常是游戏目录)。
+         * @return 这个根目录的索引。
+         */
+        fun acquire(rootDir: File): VerificationIndex {
+            val key = rootDir.absoluteFile.normalize().path
+            val index = synchronized(openIndexes) {
+                openIndexes.getOrPut(key) { VerificationIndex(rootDir) }.also { it.users++ }
+            }
+            // 在索引自己的锁里加载：后来的调用方会等第一个加载完，不会拿到半空的索引
+            synchronized(index) {
+                if (!index.loaded) {
+                    index.load()
+                    index.loaded = true
+                }
+            }
+            return index
+        }
+
+        /**
+         * @brief 用完 [acquire] 拿到的索引：先保存，最后一个使用者释放后从共享表里移除。
+         *        会写磁盘，要在 IO 线程调用。
+         *
+         * @param index [acquire] 返回的索引。
+         */
+        fun release(index: VerificationIndex) {
+            index.save() // 先保存再减计数：还没减到 0 时新来的调用方拿到的还是这个实例，不会读到旧的索引文件
+            synchronized(openIndexes) {
+                if (--index.users == 0) {
+                    openIndexes.remove(index.rootDir.absoluteFile.normalize().path)
+                }
+            }
+        }
+
+        /**
+         * @brief 一次系统调用读出文件的大小、修改时间和文件键。
+         *
+         * @param file 要读的文件。
+         * @return 文件属性；文件不存在或读取失败时返回 `null`。
+         */
+        fun readAttributes(file: File): BasicFileAttributes? {
+            return try {
+                Files.readAttributes(file.toPath(), BasicFileAttributes::class.java)
+            } catch (e: NoSuchFileException) {
+                null // 文件不存在，很正常
+            } catch (e: IOException) {
+                Logger.warn(TAG) { "Failed to read attributes of ${file.path}: ${e.message}" }
+                null
+            } catch (e: SecurityException) {
+                Logger.warn(TAG) { "Permission denied reading attributes of ${file.path}: ${e.message}" }
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * @file VersionJsonStore.kt
+ * @brief 按 SHA1 存放的版本 JSON 仓库。
+ *        `version_manifest_v2.json` 给每个版本都带了版本 JSON 的 SHA1，同一个 SHA1 的内容永远不变，
+ *        所以存一次就不用再下载；清单里 SHA1 变了 (Mojang 重新发布了这个版本) 自然就是另一个文件。
+ *        游戏目录里的 `versions/<id>/<id>.json` 也从这里复制出去，启动时直接读本地文件，不用联网。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+/**
+ * @brief 版本 JSON 仓库，每个文件存成 `<cacheDir>/<sha1>.json`。线程安全：写入都是临时文件 + 原子替换。
+ *
+ * @param cacheDir 仓库目录。
+ */
+class VersionJsonStore(private val cacheDir: File) {
+
+    /**
+     * @brief 读取某个 SHA1 的版本 JSON，顺便校验内容 (文件很小，算一遍 SHA1 很便宜)。
+     *
+     * @param sha1 版本 JSON 的 SHA1。
+     * @return 文件内容；没有或者内容被改坏了返回 `null`。
+     */
+    fun read(sha1: String): ByteArray? {
+        val file = fileFor(sha1)
+        val bytes = try {
+            if (!file.isFile) return null
+            file.readBytes()
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to read ${file.path}: ${e.message}" }
+            return null
+        }
+        if (!sha1Hex(bytes).equals(sha1, ignoreCase = true)) {
+            Logger.warn(TAG) { "Stored version JSON ${file.name} is corrupt, discarding it." }
+            file.delete()
+            return null
+        }
+        return bytes
+    }
+
+    /**
+     * @brief 存入一个版本 JSON。内容跟 SHA1 对不上时不存。
+     *
+     * @param sha1 期望的 SHA1 (来自版本清单)。
+     * @param bytes 下载到的内容。
+     * @return 存入成功 (或者已经有了) 返回 `true`。
+     */
+    fun put(sha1: String, bytes: ByteArray): Boolean {
+        if (!sha1Hex(bytes).equals(sha1, ignoreCase = true)) {
+            Logger.warn(TAG) { "Version JSON does not match its SHA1 $sha1, not storing it." }
+            return false
+        }
+        val target = fileFor(sha1)
+        if (target.isFile && target.length() == bytes.size.toLong()) return true
+        return try {
+            cacheDir.mkdirs()
+            writeAtomically(target, bytes)
+            true
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to store version JSON $sha1: ${e.message}" }
+            false
+        }
+    }
+
+    /**
+     * @brief 把仓库里的版本 JSON 写到游戏目录的 `versions/<id>/<id>.json`。
+     *        目标文件内容已经一样时什么都不做。
+     *
+     * @param sha1 版本 JSON 的 SHA1。
+     * @param gameDir 游戏根目录。
+     * @param versionId 版本 ID。
+     * @return 目标文件已经是这个内容 (包括原本就是) 返回 `true`；仓库里没有或者写入失败返回 `false`。
+     */
+    fun materialize(sha1: String, gameDir: File, versionId: String): Boolean {
+        val target = localVersionJson(gameDir, versionId)
+        if (target.isFile && fileSha1(target).equals(sha1, ignoreCase = true)) return true
+        val bytes = read(sha1) ?: return false
+        return try {
+            target.parentFile?.mkdirs()
+            writeAtomically(target, bytes)
+            Logger.debug(TAG) { "Wrote ${target.path} from stored version JSON $sha1." }
+            true
+        } catch (e: IOException) {
+            Logger.warn(TAG) { "Failed to write ${target.path}: ${e.message}" }
+            false
+        }
+    }
+
+    private fun fileFor(sha1: String): File = File(cacheDir, "${sha1.lowercase()}.json")
+
+    private fun writeAtomically(target: File, bytes: ByteArray) {
+        val temp = File(target.parentFile, "${target.name}.${System.nanoTime()}.tmp")
+        try {
+            temp.writeBytes(bytes)
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            temp.delete()
+        }
+    }
+
+    private fun fileSha1(file: File): String? = try {
+        sha1Hex(file.readBytes())
+    } catch (e: IOException) {
+        null
+    }
+
+    companion object {
+        private const val TAG = "VersionJsonStore" // 日志来源标识
+
+        /**
+         * @brief 游戏目录下某个版本的版本 JSON 文件。
+         *
+         * @param gameDir 游戏根目录。
+         * @param versionId 版本 ID。
+         * @return `versions/<id>/<id>.json`。
+         */
+        fun localVersionJson(gameDir: File, versionId: String): File = File(gameDir, "versions/$versionId/$versionId.json")
+
+        /**
+         * @brief 计算内容的 SHA1 (小写十六进制)。
+         */
+        fun sha1Hex(bytes: ByteArray): String =
+            MessageDigest.getInstance("SHA-1").digest(bytes).joinToString("") { "%02x".format(it) }
+    }
+}
@@ -42,22 +42,23 @@ object VersionScanner {
     }
 
     /**
-     * @brief 扫描默认的 Minecraft `versions` 目录，查找已安装的游戏版本。
+     * @brief 扫描游戏目录下的 `versions` 目录，查找已安装的游戏版本。
      *
      * 当前实现说明:
      * -   这个函数目前只通过检查 `versions` 目录下是否存在与版本 ID 同名的**子目录**来判断版本是否"已安装"。
      * -   它 不会 验证该目录下是否包含有效的版本 JSON 文件 (`<version_id>.json`) 或核心 JAR 文件 (`<version_id>.jar`)。
      * -   所以，扫描结果可能包含不完整或已损坏的版本。
      *
+     * @param gameDir 要扫描的游戏目录 (比如 `LauncherPaths.defaultGameDir`)；为 `null` 时扫描系统默认的 `.minecraft` 目录。
      * @return 一个包含已发现的本地版本信息 (`MinecraftVersion`) 的列表。
      *         列表会根据版本 ID (目录名) 进行降序排序。
      *         如果找不到 versions 目录，就返回空列表。
      */
-    fun scanLocalVersions(): List<MinecraftVersion> {
-        val mcDir = getDefaultMinecraftDirectory() // 获取默认的 .minecraft 目录
+    fun scanLocalVersions(gameDir: File? = null): List<MinecraftVersion> {
+        val mcDir = gameDir ?: getDefaultMinecraftDirectory() // 没指定就用默认的 .minecraft 目录
         // 检查获取到的目录是不是有效的
         if (mcDir == null || !mcDir.isDirectory) {
-            println("VersionScanner: Warning - Could not find default Minecraft directory.") // 使用 println 输出警告信息
+            println("VersionScanner: Warning - Could not find Minecraft directory ${mcDir?.absolutePath ?: "(unknown OS)"}.") // 使用 println 输出警告信息
             return emptyList() // 返回空列表表示没找到或无效
         }
 
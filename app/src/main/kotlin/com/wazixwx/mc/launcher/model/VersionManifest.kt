@@ -1,6 +1,7 @@
 /**
  * @file VersionManifest.kt
- * @brief 定义用于解析 Mojang 官方 `version_manifest.json` 文件结构的数据类。
+ * @brief 定义用于解析 Mojang 官方 `version_manifest_v2.json` 文件结构的数据类。
+ *        v2 跟 v1 的结构一样，只是每个版本多了版本 JSON 的 `sha1` 和 `complianceLevel`。
  * @author WaZixwx
  * @date 2025-04-13
  * @version 1.0.0
@@ -13,7 +14,7 @@ import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 
 /**
- * @brief 代表从 Mojang API 获取的版本清单 (`version_manifest.json`) 的根结构。
+ * @brief 代表从 Mojang API 获取的版本清单 (`version_manifest_v2.json`) 的根结构。
  *
  * @property latest 包含最新稳定版和快照版 ID 的对象。
  * @property versions 包含所有可用版本基本信息的列表。
@@ -46,7 +47,9 @@ data class LatestVersions(
  * @property time 这个版本信息最后更新的时间戳字符串 (ISO 8601 格式)。
  * @property releaseTime 版本的实际发布时间戳字符串 (ISO 8601 格式)。
  *                     注意 JSON 字段名是 `releaseTime`，用 `@SerialName` 来映射。
- * // 属性 `complianceLevel` (合规级别) 在 JSON 里有，但目前启动器没用到，所以忽略掉。
+ * @property sha1 版本 JSON 文件的 SHA1 (v2 清单才有)。本地缓存的版本 JSON 以它为准，SHA1 没变就不用重新下载和解析。
+ *                v1 清单或者旧的缓存里没有这个字段，为 `null`。
+ * @property complianceLevel 合规级别 (v2 清单才有)，目前启动器没用到，只是原样保留。
  */
 @Serializable
 data class VersionInfo(
@@ -55,5 +58,7 @@ data class VersionInfo(
     val url: String,
     val time: String,
     @SerialName("releaseTime") // 把 JSON 里的 releaseTime 字段映射到这个属性
-    val releaseTime: String
+    val releaseTime: String,
+    val sha1: String? = null,
+    val complianceLevel: Int? = null
 ) 
\ No newline at end of file
@@ -51,6 +51,11 @@ import androidx.compose.foundation.lazy.items
 import androidx.compose.foundation.BorderStroke
 import androidx.compose.ui.unit.sp
 import com.wazixwx.mc.launcher.core.VersionScanner
+import com.wazixwx.mc.launcher.core.MojangApiService
+import com.wazixwx.mc.launcher.core.DownloadProgress
+import com.wazixwx.mc.launcher.core.InstallState
+import com.wazixwx.mc.launcher.core.InstallStatus
+import com.wazixwx.mc.launcher.core.VerifyReport
 import com.wazixwx.mc.launcher.model.MinecraftVersion
 import com.wazixwx.mc.launcher.vm.VersionsViewModel
 import com.wazixwx.mc.launcher.vm.VersionInfoView
@@ -287,6 +292,11 @@ fun VersionsScreen() {
         Column(modifier = Modifier.fillMaxSize()) {
             // 显示标题
             Text("Available Minecraft Versions", style = MaterialTheme.typography.h6)
+            // 离线时提示一下：列表来自缓存，只有完整安装的版本能启动
+            if (uiState.isOffline) {
+                Spacer(modifier = Modifier.height(4.dp))
+                Text("Offline · showing cached versions, only fully installed versions can be launched", fontSize = 12.sp, color = Color.Gray)
+            }
             Spacer(modifier = Modifier.height(16.dp))
 
             // 处理加载状态
@@ -305,6 +315,16 @@ fun VersionsScreen() {
             } 
             // 处理成功加载版本列表的状态
             else {
+                // 有安装在进行时，在列表上方显示所有安装的合计进度
+                uiState.aggregateProgress?.let { aggregate ->
+                    val activeCount = uiState.installs.values.count { it.isActive }
+                    Text("$activeCount install(s) in progress", fontSize = 12.sp, color = Color.Gray)
+                    Spacer(modifier = Modifier.height(4.dp))
+                    LinearProgressIndicator(progress = aggregate.fraction, modifier = Modifier.fillMaxWidth().height(4.dp))
+                    Spacer(modifier = Modifier.height(4.dp))
+                    Text(formatDownloadProgress(aggregate), fontSize = 12.sp, color = Color.Gray)
+                    Spacer(modifier = Modifier.height(8.dp))
+                }
                 // 版本列表区域 (左侧)
                 Row(modifier = Modifier.fillMaxSize()) {
                     LazyColumn(
@@ -312,17 +332,32 @@ fun VersionsScreen() {
                             .weight(1f) // 占据一部分宽度
                             .padding(end = 8.dp) // 与右侧详情区域的间距
                     ) {
-                        items(uiState.versions) { version ->
+                        // 以版本 ID 作为 key，后台刷新只改了几个条目时只重组那几个
+                        items(uiState.versions, key = { it.id }) { version ->
                             // 为每个版本显示一个卡片项
-                            VersionItem(version, uiState.downloadingVersionId, uiState.downloadProgress) {
+                            VersionItem(
+                                version,
+                                uiState.installs[version.id],
+                                onPlay = {
+                                    // 边下边玩：启动必需的文件一下完就启动游戏，资源文件后台继续下
+                                    println("UI: Requesting play-while-downloading for version ${version.id}")
+                                    viewModel.playVersion(version)
+                                },
+                                onVerify = {
+                                    println("UI: Requesting verify for version ${version.id}")
+                                    viewModel.verifyVersion(version)
+                                },
+                                isVerifying = version.id in uiState.verifying,
+                                verifyReport = uiState.verifyReports[version.id]
+                            ) {
                                 // 当版本项或其按钮被点击时，根据状态调用 ViewModel 的方法
                                 // 使用 scope.launch 启动协程来处理点击事件
                                 scope.launch { // <--- 在 CoroutineScope 中启动
                                     when {
-                                        uiState.downloadingVersionId == version.id -> {
-                                            // 如果正在下载这个版本，点击无效或未来可实现取消
-                                            println("Version ${version.id} is currently downloading, please wait...")
-                                            // TODO: 实现取消下载功能？
+                                        uiState.installs[version.id]?.isActive == true -> {
+                                            // 如果这个版本正在排队或下载，点击就取消
+                                            println("UI: Requesting cancel for version ${version.id}")
+                                            viewModel.cancelDownload(version)
                                         }
                                         version.isInstalled -> {
                                             // 如果已安装，就调用启动函数
@@ -356,19 +391,25 @@ fun VersionsScreen() {
  * @brief Composable 函数，用于显示版本列表中的单个版本项。
  *
  * @param version 要显示的版本信息。
- * @param downloadingVersionId 当前正在下载的版本 ID (如果有)。
- * @param downloadProgress 当前的下载进度 (0.0 到 1.0)，如果不在下载则为 null。
+ * @param install 这个版本的安装状态 (来自全局安装队列)，没有安装记录时为 null。
+ * @param onPlay "边下边玩" 按钮的回调，只在版本没安装、也没在下载时显示；为 null 时不显示这个按钮。
+ * @param onVerify "校验" 按钮的回调，只在版本已安装、没在下载时显示；为 null 时不显示这个按钮。
+ * @param isVerifying 这个版本是不是正在校验。
+ * @param verifyReport 最近一次校验的结果，显示在版本信息下面；没校验过时为 null。
  * @param onClick 当这个版本项被点击时的回调函数。
  */
 @Composable
 fun VersionItem(
     version: VersionInfoView,
-    downloadingVersionId: String?,
-    downloadProgress: Float?,
+    install: InstallState?,
+    onPlay: (() -> Unit)? = null,
+    onVerify: (() -> Unit)? = null,
+    isVerifying: Boolean = false,
+    verifyReport: VerifyReport? = null,
     onClick: () -> Unit
 ) {
-    // 判断当前是不是正在下载这个特定版本
-    val isDownloadingThis = version.id == downloadingVersionId
+    // 判断这个版本是不是正在排队或下载
+    val isDownloadingThis = install?.isActive == true
 
     Card(
         modifier = Modifier.fillMaxWidth().clickable(onClick = onClick),
@@ -391,26 +432,66 @@ fun VersionItem(
                     Text("Released: ${version.releaseTime ?: "Unknown"}", fontSize = 12.sp, color = Color.Gray)
                 }
                 // 如果正在下载这个版本，显示进度条
-                if (isDownloadingThis && downloadProgress != null) {
+                if (install?.status == InstallStatus.DOWNLOADING) {
                     Spacer(modifier = Modifier.height(8.dp))
                     LinearProgressIndicator(
-                        progress = downloadProgress, // 使用传入的进度值
+                        progress = install.progress.fraction, // 使用传入的进度值
                         modifier = Modifier.fillMaxWidth().height(4.dp) // 让进度条细一点
                     )
+                    Spacer(modifier = Modifier.height(4.dp))
+                    // 进度条下面显示文件数、速度和剩余时间
+                    Text(
+                        // 启动必需的文件已经就绪时提示一下，剩下的只是资源文件
+                        (if (install.isLaunchable) "Playable · " else "") + formatDownloadProgress(install.progress),
+                        fontSize = 12.sp, color = Color.Gray
+                    )
+                } else if (install?.status == InstallStatus.QUEUED || install?.status == InstallStatus.RESOLVING) {
+                    Spacer(modifier = Modifier.height(8.dp))
+                    Text(
+                        if (install.status == InstallStatus.QUEUED) "Queued..." else "Preparing download...",
+                        fontSize = 12.sp, color = Color.Gray
+                    )
                 }
+                // 校验结果：完好时是一行吞吐量，有问题时列出各类问题的数量
+                if (verifyReport != null && !isDownloadingThis) {
+                    Spacer(modifier = Modifier.height(4.dp))
+                    Text(
+                        formatVerifyReport(verifyReport),
+                        fontSize = 12.sp,
+                        color = if (verifyReport.isIntact) Color(0xFF4CAF50) else MaterialTheme.colors.error
+                    )
+                }
+            }
+            // 已安装且没在下载时，多一个 "校验" 按钮
+            if (onVerify != null && !isDownloadingThis && version.isInstalled) {
+                OutlinedButton(onClick = onVerify, enabled = !isVerifying) {
+                    Text(if (isVerifying) "Verifying..." else "Verify")
+                }
+                Spacer(modifier = Modifier.width(8.dp))
+            }
+            // 没安装也没在下载时，多一个 "边下边玩" 按钮
+            if (onPlay != null && !isDownloadingThis && !version.isInstalled) {
+                OutlinedButton(onClick = onPlay) {
+                    Text("Play now")
+                }
+                Spacer(modifier = Modifier.width(8.dp))
             }
             // 右侧按钮
             Button(
                 onClick = onClick, // 点击事件委托给外部
-                enabled = !isDownloadingThis, // 如果正在下载这个版本，就禁用按钮
+                // 正在下载时按钮变成取消
                 colors = ButtonDefaults.buttonColors(
                     // 根据是不是已安装决定按钮颜色
-                    backgroundColor = if (version.isInstalled) Color(0xFF4CAF50) else MaterialTheme.colors.secondary
+                    backgroundColor = when {
+                        isDownloadingThis -> Color.Gray
+                        version.isInstalled -> Color(0xFF4CAF50)
+                        else -> MaterialTheme.colors.secondary
+                    }
                 )
             ) {
                 Text(
                     text = when { // 按钮文本
-                        isDownloadingThis -> "Downloading..."
+                        isDownloadingThis -> "Cancel"
                         version.isInstalled -> "Launch"
                         else -> "Download"
                     },
@@ -421,6 +502,43 @@ fun VersionItem(
     }
 }
 
+/**
+ * @brief 把校验结果格式化成一行说明文字，比如 "Verified 3512 files · 412.0 MB/s" 或
+ *        "2 missing · 1 corrupt · 380.5 MB/s"。
+ *
+ * @param report 校验结果。
+ * @return 说明文字。
+ */
+fun formatVerifyReport(report: VerifyReport): String {
+    val speed = "%.1f MB/s".format(report.throughputMBps)
+    if (report.isIntact) return "Verified ${report.checkedFiles} files · $speed"
+    val parts = buildList {
+        if (report.missing.isNotEmpty()) add("${report.missing.size} missing")
+        if (report.sizeMismatched.isNotEmpty()) add("${report.sizeMismatched.size} wrong size")
+        if (report.corrupt.isNotEmpty()) add("${report.corrupt.size} corrupt")
+        if (!report.assetsChecked) add("assets not checked")
+    }
+    return (parts + speed).joinToString(" · ")
+}
+
+/**
+ * @brief 把下载进度快照格式化成一行说明文字，比如 "120/3500 files · 45.2/380.0 MB · 12.3 MB/s · ETA 0:27"。
+ *
+ * @param progress 下载进度快照。
+ * @return 格式化后的文字。
+ */
+private fun formatDownloadProgress(progress: DownloadProgress): String {
+    val mb = 1024.0 * 1024.0
+    val parts = mutableListOf(
+        "${progress.filesCompleted}/${progress.totalFiles} files",
+        String.format("%.1f/%.1f MB", progress.bytesDownloaded / mb, progress.totalBytes / mb),
+        String.format("%.1f MB/s", progress.bytesPerSecond / mb)
+    )
+    progress.etaSeconds?.let { parts += String.format("ETA %d:%02d", it / 60, it % 60) }
+    parts += "${progress.activeConnections} connections"
+    return parts.joinToString(" · ")
+}
+
 /**
  * @brief 设置屏幕内容的 Composable 函数。
  *        当前是占位符。
@@ -435,6 +553,17 @@ fun SettingsScreen() {
         Text("Settings Page", style = MaterialTheme.typography.h5)
         Spacer(modifier = Modifier.height(16.dp))
         Text("Various launcher settings can be placed here in the future.")
+        Spacer(modifier = Modifier.height(16.dp))
+        // 强制离线：版本清单和版本详情只从本地缓存读，不发任何请求 (目前不保存，重启后恢复在线)
+        var offline by remember { mutableStateOf(MojangApiService.forceOffline) }
+        Row(verticalAlignment = Alignment.CenterVertically) {
+            Switch(checked = offline, onCheckedChange = {
+                offline = it
+                MojangApiService.forceOffline = it
+            })
+            Spacer(modifier = Modifier.width(8.dp))
+            Text("Offline mode")
+        }
         // TODO: 添加实际的设置选项，比如：
         // - Minecraft 游戏目录选择
         // - Java 可执行文件路径配置
@@ -499,9 +628,9 @@ fun SettingsScreen() {
 //         // VersionsScreen(fakeViewModel)
 //         // 简化预览，只显示列表项的示例
 //         LazyColumn { 
-//             item { VersionItem(VersionInfoView("1.20.4", "release", "2023-12-07", true, "url1"), null, null) {} }
-//             item { VersionItem(VersionInfoView("1.20.3", "release", "2023-11-15", false, "url2'), null, null) {} }
-//             item { VersionItem(VersionInfoView("23w51b", "snapshot", "2023-12-20", false, "url3"), "23w51b", 0.5f) {} }
+//             item { VersionItem(VersionInfoView("1.20.4", "release", "2023-12-07", true, "url1"), null) {} }
+//             item { VersionItem(VersionInfoView("1.20.3", "release", "2023-11-15", false, "url2'), null) {} }
+//             item { VersionItem(VersionInfoView("23w51b", "snapshot", "2023-12-20", false, "url3"), InstallState("23w51b", InstallStatus.DOWNLOADING)) {} }
 //         }
 //     }
 // }
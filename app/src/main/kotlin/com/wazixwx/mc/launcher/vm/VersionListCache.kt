@@ -0,0 +1,114 @@
+/**
+ * @file VersionListCache.kt
+ * @brief 上一次合并、排好序的版本列表的本地存档。
+ *        打开 "游戏版本" 页面时先把它读出来直接显示，不用等网络；后台刷新完再只更新有变化的条目。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.vm
+
+import com.wazixwx.mc.launcher.core.LauncherPaths
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * @brief 版本列表存档的读写，以及新旧列表的差异合并。这是一个单例对象 (object)。
+ */
+object VersionListCache {
+
+    private val cacheFile: File get() = File(LauncherPaths.launcherHome, "cache/version_list.json")
+
+    private val json = Json { ignoreUnknownKeys = true }
+
+    /**
+     * @brief 读取上一次保存的版本列表。
+     *
+     * @return 版本列表；没有存档或存档损坏时返回 `null`。
+     */
+    fun load(): List<VersionInfoView>? {
+        val file = cacheFile
+        return try {
+            if (!file.isFile) return null
+            json.decodeFromString<List<VersionInfoView>>(file.readText())
+        } catch (e: IOException) {
+            println("VersionListCache: Failed to read ${file.path}: ${e.message}")
+            null
+        } catch (e: SerializationException) {
+            println("VersionListCache: Ignoring corrupt version list cache ${file.path}: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * @brief 保存版本列表 (先写临时文件再原子替换，写一半崩了也不会留下坏存档)。
+     *
+     * @param versions 合并、排好序的版本列表。
+     */
+    fun save(versions: List<VersionInfoView>) {
+        val file = cacheFile
+        val temp = File(file.parentFile, "${file.name}.${System.nanoTime()}.tmp")
+        try {
+            file.parentFile?.mkdirs()
+            temp.writeText(json.encodeToString(versions))
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            println("VersionListCache: Failed to save ${file.path}: ${e.message}")
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * @brief 把刷新得到的新列表合并到当前列表上：内容没变的条目沿用原来的对象，
+     *        整个列表都没变时直接返回原列表，这样 Compose 只重组真正变了的条目 (或者什么都不做)。
+     *
+     * @param current 当前显示的列表。
+     * @param refreshed 刷新得到的列表 (顺序以它为准)。
+     * @return 合并后的列表，以及新增、删除、修改的条目数。
+     */
+    fun applyDiff(current: List<VersionInfoView>, refreshed: List<VersionInfoView>): Pair<List<VersionInfoView>, VersionListDiff> {
+        val currentById = current.associateBy { it.id }
+        var changed = 0
+        var added = 0
+        val merged = refreshed.map { item ->
+            val old = currentById[item.id]
+            when {
+                old == null -> { added++; item }
+                old == item -> old // 没变，沿用原对象
+                else -> { changed++; item }
+            }
+        }
+        val refreshedIds = refreshed.mapTo(HashSet()) { it.id }
+        val removed = current.count { it.id !in refreshedIds }
+        val diff = VersionListDiff(added, removed, changed)
+        // 条目和顺序都没变，返回原列表，不触发任何更新
+        if (diff.isEmpty && merged.size == current.size && merged.indices.all { merged[it] === current[it] }) {
+            return current to diff
+        }
+        return merged to diff
+    }
+}
+
+/**
+ * @brief 两次版本列表之间的差异统计。
+ *
+ * @property added 新增的版本数。
+ * @property removed 删除的版本数。
+ * @property changed 内容有变化的版本数 (比如刚安装好)。
+ */
+data class VersionListDiff(
+    val added: Int,
+    val removed: Int,
+    val changed: Int
+) {
+    /** @brief 没有任何条目变化。顺序变化不算在这里。 */
+    val isEmpty: Boolean get() = added == 0 && removed == 0 && changed == 0
+}
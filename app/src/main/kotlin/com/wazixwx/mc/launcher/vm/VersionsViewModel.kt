@@ -17,14 +17,29 @@ import com.wazixwx.mc.launcher.core.VersionScanner
 import com.wazixwx.mc.launcher.model.MinecraftVersion
 import com.wazixwx.mc.launcher.model.VersionInfo // 导入清单版本信息
 import com.wazixwx.mc.launcher.model.VersionDetails // 导入版本详情数据类
+import com.wazixwx.mc.launcher.model.VersionManifest
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.File
 import com.wazixwx.mc.launcher.core.GameLauncher // <--- 添加 GameLauncher 导入
-import com.wazixwx.mc.launcher.core.DownloadManager // <--- 添加 DownloadManager 导入
+import com.wazixwx.mc.launcher.core.DownloadCoordinator
+import com.wazixwx.mc.launcher.core.DownloadProgress
+import com.wazixwx.mc.launcher.core.InstallState
+import com.wazixwx.mc.launcher.core.InstallStatus
+import com.wazixwx.mc.launcher.core.LauncherPaths
+import com.wazixwx.mc.launcher.core.InstallVerifier
+import com.wazixwx.mc.launcher.core.InstalledVersionEntry
+import com.wazixwx.mc.launcher.core.LocalInstallIndex
+import com.wazixwx.mc.launcher.core.HttpMetadataCache
+import com.wazixwx.mc.launcher.core.VerifyReport
+import kotlinx.coroutines.flow.combine
+import kotlinx.serialization.Serializable
 
 /**
  * @brief 代表 "游戏版本" 屏幕的用户界面 (UI) 状态。
@@ -37,9 +52,13 @@ import com.wazixwx.mc.launcher.core.DownloadManager // <--- 添加 DownloadManag
  * @property isDetailsLoading 指示当前是不是正在加载所选版本的详细信息 (true 表示正在加载)。
  * @property selectedVersionDetails 持有当前选中的版本的详细信息 (`VersionDetails` 对象)。
  *                               如果没选任何版本或加载失败，就为 `null`。
- * @property downloadingVersionId 记录当前正在下载的版本的 ID。如果没有版本在下载中，就为 `null`。
- *                               用于在 UI 上显示下载状态和禁用相关操作。
- * @property downloadProgress 整体下载进度，范围从 0.0 到 1.0。只有当有版本在下载时才有效，否则为 `null`。
+ * @property installs 各个版本的安装状态 (来自全局的 `DownloadCoordinator`)，键是版本 ID。
+ *                    用于在 UI 上显示排队、下载进度和禁用相关操作，可以同时有多个版本在安装。
+ * @property aggregateProgress 所有进行中安装的合计进度；没有安装在进行时为 `null`。
+ * @property verifying 正在校验的版本 ID。
+ * @property verifyReports 各个版本最近一次校验的结果，键是版本 ID。
+ * @property loadTimings 最近一次加载版本列表的各阶段耗时，用于诊断；还没加载完时为 `null`。
+ * @property isOffline 是否处于离线模式：版本列表来自本地缓存，只有完整安装的版本标记为已安装。
  */
 data class VersionsScreenState(
     val isLoading: Boolean = true, // 初始状态为加载中
@@ -47,8 +66,34 @@ data class VersionsScreenState(
     val error: String? = null, // 初始无错误
     val isDetailsLoading: Boolean = false, // 初始未加载详情
     val selectedVersionDetails: VersionDetails? = null, // 初始未选择详情
-    val downloadingVersionId: String? = null, // 初始无下载任务
-    val downloadProgress: Float? = null // 初始无下载进度
+    val installs: Map<String, InstallState> = emptyMap(), // 初始无安装任务
+    val aggregateProgress: DownloadProgress? = null, // 初始无下载进度
+    val verifying: Set<String> = emptySet(), // 初始没有校验在进行
+    val verifyReports: Map<String, VerifyReport> = emptyMap(), // 初始没有校验结果
+    val loadTimings: VersionLoadTimings? = null, // 初始没有耗时数据
+    val isOffline: Boolean = false // 初始按在线处理
+)
+
+/**
+ * @brief 一次加载版本列表的各阶段耗时 (毫秒)。本地扫描和远程清单是同时进行的，所以总耗时约等于
+ *        读存档 + 两者中较慢的一个 + 合并。
+ *
+ * @property cacheReadMillis 读本地存档的耗时 (列表已经在显示时为 0)。
+ * @property scanMillis 扫描本地版本的耗时。
+ * @property manifestMillis 获取远程清单的耗时。
+ * @property mergeMillis 合并、排序的耗时。
+ * @property totalMillis 从开始加载到结果应用到界面的总耗时。
+ * @property scanError 本地扫描的失败原因，成功时为 `null`。
+ * @property manifestError 获取清单的失败原因，成功时为 `null`。
+ */
+data class VersionLoadTimings(
+    val cacheReadMillis: Long,
+    val scanMillis: Long,
+    val manifestMillis: Long,
+    val mergeMillis: Long,
+    val totalMillis: Long,
+    val scanError: String? = null,
+    val manifestError: String? = null
 )
 
 /**
@@ -61,13 +106,16 @@ data class VersionsScreenState(
  * @property releaseTime 版本的发布时间字符串 (ISO 8601 格式)，可能为空。
  * @property isInstalled 指示这个版本是不是已经在本地检测到了 (基于 `VersionScanner` 的结果)。
  * @property manifestUrl 指向这个版本详细信息 JSON 文件的 URL，用于后续获取详情或下载。
+ * @property detailsSha1 版本详细信息 JSON 的 SHA1 (来自 v2 版本清单)，只有本地版本或旧存档里的条目为 `null`。
  */
+@Serializable // 合并好的列表会存到本地 (见 VersionListCache)，下次打开页面先显示它
 data class VersionInfoView(
     val id: String,
     val type: String?, // 版本类型可能缺失
     val releaseTime: String?, // 发布时间可能缺失
     val isInstalled: Boolean, // 是否已安装
-    val manifestUrl: String? // 详情 URL 可能缺失 (理论上不应发生)
+    val manifestUrl: String?, // 详情 URL 可能缺失 (理论上不应发生)
+    val detailsSha1: String? = null // 清单里的 SHA1 变了说明版本 JSON 重新发布了
 )
 
 /**
@@ -99,93 +147,190 @@ class VersionsViewModel {
     init {
         // ViewModel 实例创建时，立马开始加载版本数据。
         loadVersions() // loadVersions 内部应该自己处理线程切换
+        observeInstalls() // 同步全局安装队列的状态
     }
 
     /**
-     * @brief 异步加载版本信息。
+     * @brief 异步加载版本信息 (stale-while-revalidate)。
      *        这个函数会:
      *        1.  启动一个后台协程。
-     *        2.  更新 UI 状态为加载中，并清空之前的错误和选中信息。
-     *        3.  并行或顺序地调用 `VersionScanner.scanLocalVersions()` 获取本地版本信息
-     *            和 `MojangApiService.getVersionManifest()` 获取远程版本清单。
-     *        4.  合并本地和远程信息，生成 `List<VersionInfoView>`。
-     *        5.  按发布时间降序排版本列表。
-     *        6.  在主线程上更新 `uiState`，显示版本列表或错误信息。
+     *        2.  列表还是空的时，先从本地读上一次合并好的列表 (`VersionListCache`) 直接显示，
+     *            没有存档时才显示加载中。所以打开页面的速度取决于读盘，而不是网络。
+     *        3.  在后台同时执行 `VersionScanner.scanLocalVersions()` (本地扫描)
+     *            和 `MojangApiService.getVersionManifest()` (远程清单)，两者互不依赖，
+     *            任何一个失败都不影响另一个的结果 (见 `mergeVersionList`)。
+     *        4.  合并本地和远程信息，生成 `List<VersionInfoView>`，按发布时间降序排列。
+     *        5.  只把有变化的条目更新到 `uiState.versions` (没变就不更新)，有变化时重新保存存档。
+     *        6.  两边都失败时，已经显示着存档列表就继续显示它，只有什么都没有时才显示错误信息。
+     *        每个阶段的耗时记在 `uiState.loadTimings` 里，方便诊断。
      */
     fun loadVersions() {
         // 在 viewModelScope 中启动一个新的协程来执行网络和磁盘 IO 操作
         viewModelScope.launch { // 这个协程默认运行在 viewModelScope 的上下文中
-            try {
-                // 开始加载，更新 UI 状态：确保在主线程上进行
-                withContext(Dispatchers.Main) {
-                    println("ViewModel: Starting to load version info (Main)...")
-                    uiState = uiState.copy(
-                        isLoading = true,
-                        error = null,
-                        isDetailsLoading = false, 
-                        selectedVersionDetails = null, 
-                        downloadingVersionId = null, 
-                        downloadProgress = null
-                    )
+            val loadStart = System.nanoTime()
+            // --- 先显示存档 (只读盘) ---
+            val cacheReadStart = System.nanoTime()
+            val cached = if (uiState.versions.isEmpty()) withContext(Dispatchers.IO) { VersionListCache.load() } else null
+            val cacheReadMillis = elapsedMillisSince(cacheReadStart)
+            withContext(Dispatchers.Main) {
+                uiState = uiState.copy(isDetailsLoading = false, selectedVersionDetails = null)
+                if (cached != null && uiState.versions.isEmpty()) {
+                    println("ViewModel: Showing ${cached.size} cached versions while refreshing (Main)...")
+                    uiState = uiState.copy(isLoading = false, versions = cached, error = null)
+                } else if (uiState.versions.isEmpty()) {
+                    println("ViewModel: No cached version list, starting to load version info (Main)...")
+                    uiState = uiState.copy(isLoading = true, error = null)
                 }
+            }
 
-                // --- 获取数据 (切换到 IO 线程) --- 
-                val localVersions = withContext(Dispatchers.IO) {
-                     println("ViewModel: Scanning local versions (IO)...")
-                     VersionScanner.scanLocalVersions()
+            // --- 后台刷新：本地扫描和远程清单同时进行 (切换到 IO 线程) ---
+            // 两个任务各自捕获自己的异常，一边失败不会取消另一边
+            val (scan, remote) = coroutineScope {
+                val scanTask = async(Dispatchers.IO) {
+                    timedPhase("local scan") {
+                        println("ViewModel: Scanning local versions (IO)...")
+                        // 扫描启动器自己的游戏目录，跟下载和启动用的是同一个目录
+                        val scanned = VersionScanner.scanLocalVersions(LauncherPaths.defaultGameDir)
+                        // 顺便读完整安装记录，离线时只把这些版本当作已安装
+                        scanned.map { it.id }.toSet() to LocalInstallIndex.completeVersionIds(LauncherPaths.defaultGameDir)
+                    }
                 }
-                val manifest = withContext(Dispatchers.IO) {
-                     println("ViewModel: Fetching remote version manifest (IO)...")
-                     MojangApiService.getVersionManifest()
+                val manifestTask = async(Dispatchers.IO) {
+                    timedPhase("manifest fetch") {
+                        println("ViewModel: Fetching remote version manifest (IO)...")
+                        MojangApiService.getVersionManifest() ?: throw Exception("Failed to load version manifest from Mojang.")
+                    }
                 }
+                scanTask.await() to manifestTask.await()
+            }
 
-                // 检查版本清单是不是获取成功了
-                if (manifest == null) {
-                    throw Exception("Failed to load version manifest from Mojang.")
-                }
+            val offline = MojangApiService.isOffline.value // 清单请求之后才知道有没有网
 
-                // --- 数据处理 (可以在 Default 线程) ---
-                val combinedVersions = withContext(Dispatchers.Default) { 
-                    println("ViewModel: Merging and sorting version info (Default)...")
-                    val localVersionIds = localVersions.map { it.id }.toSet()
-                    manifest.versions.map { versionInfo ->
-                        VersionInfoView(
-                            id = versionInfo.id,
-                            type = versionInfo.type,
-                            releaseTime = versionInfo.releaseTime,
-                            isInstalled = localVersionIds.contains(versionInfo.id),
-                            manifestUrl = versionInfo.url
+            // --- 数据处理 (可以在 Default 线程) ---
+            val mergeStart = System.nanoTime()
+            val combinedVersions = withContext(Dispatchers.Default) {
+                println("ViewModel: Merging and sorting version info (Default)...")
+                // 离线时只有完整安装 (所有文件都校验过) 的版本算已安装，下载了一半的不能启动
+                val installedIds = scan.result?.let { (scannedIds, completeIds) ->
+                    if (offline) scannedIds intersect completeIds else scannedIds
+                }
+                mergeVersionList(installedIds, remote.result, withContext(Dispatchers.Main) { uiState.versions })
+            }
+            val mergeMillis = elapsedMillisSince(mergeStart)
+
+            // 数据处理完成，切换回主线程，只应用有变化的部分
+            val changed = withContext(Dispatchers.Main) {
+                val timings = VersionLoadTimings(
+                    cacheReadMillis = cacheReadMillis,
+                    scanMillis = scan.millis,
+                    manifestMillis = remote.millis,
+                    mergeMillis = mergeMillis,
+                    totalMillis = elapsedMillisSince(loadStart),
+                    scanError = scan.error,
+                    manifestError = remote.error
+                )
+                println("ViewModel: Version load timings: $timings")
+                if (offline) println("ViewModel: Offline, using cached manifest and the local install index.")
+                uiState = uiState.copy(isOffline = offline)
+                if (combinedVersions == null) {
+                    // 扫描和清单都失败了，没有任何新数据
+                    uiState = if (uiState.versions.isNotEmpty()) {
+                        // 存档列表还能用，就别用错误页把它盖掉了
+                        println("ViewModel: Refresh failed, keeping the current version list.")
+                        uiState.copy(isLoading = false, loadTimings = timings)
+                    } else {
+                        uiState.copy(
+                            isLoading = false, // 加载结束 (即使是失败)
+                            error = "Error loading versions: ${remote.error}",
+                            isDetailsLoading = false,
+                            selectedVersionDetails = null,
+                            loadTimings = timings
                         )
-                    }.sortedByDescending { it.releaseTime }
+                    }
+                    return@withContext false
                 }
-                println("ViewModel: Version info processing complete.")
-
-                // 数据处理完成，切换回主线程更新最终 UI 状态
-                withContext(Dispatchers.Main) {
-                    println("ViewModel: Updating UI to display version list (Main)...")
+                val current = uiState.versions
+                val (merged, diff) = VersionListCache.applyDiff(current, combinedVersions)
+                if (merged === current && !uiState.isLoading) {
+                    println("ViewModel: Version list unchanged after refresh (Main).")
+                    uiState = uiState.copy(loadTimings = timings)
+                    false
+                } else {
+                    println("ViewModel: Applying version list diff: +${diff.added} -${diff.removed} ~${diff.changed} (Main)...")
                     uiState = uiState.copy(
                         isLoading = false, // 加载完成
-                        versions = combinedVersions, // 设置新的版本列表
-                        error = null // 清除错误状态
+                        versions = merged, // 设置新的版本列表
+                        error = null, // 清除错误状态
+                        loadTimings = timings
                     )
+                    true
                 }
+            }
+            // 有变化才重写存档；清单没拿到时合出来的列表不完整，不存
+            if (changed && remote.result != null) withContext(Dispatchers.IO) { VersionListCache.save(combinedVersions!!) }
+        }
+    }
 
-            } catch (e: Exception) {
-                // 捕获加载过程中发生的任何异常
-                println("ViewModel: Error loading versions: ${e.message}")
-                e.printStackTrace()
-                // 切换回主线程更新 UI 状态以显示错误信息
-                withContext(Dispatchers.Main) {
-                    uiState = uiState.copy(
-                        isLoading = false, // 加载结束 (即使是失败)
-                        error = "Error loading versions: ${e.message}",
-                        isDetailsLoading = false,
-                        selectedVersionDetails = null,
-                        downloadingVersionId = null,
-                        downloadProgress = null
-                    )
-                }
+    /**
+     * @brief 一个加载阶段的结果。
+     *
+     * @property result 阶段的结果，失败时为 `null`。
+     * @property millis 阶段耗时 (毫秒)。
+     * @property error 失败原因，成功时为 `null`。
+     */
+    private data class PhaseResult<T>(val result: T?, val millis: Long, val error: String?)
+
+    /**
+     * @brief 执行一个加载阶段并计时。异常被捕获下来记在结果里，不会传出去影响别的阶段 (取消除外)。
+     */
+    private suspend fun <T> timedPhase(name: String, block: suspend () -> T): PhaseResult<T> {
+        val start = System.nanoTime()
+        return try {
+            PhaseResult(block(), elapsedMillisSince(start), null)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            println("ViewModel: Version load phase '$name' failed: ${e.message}")
+            PhaseResult(null, elapsedMillisSince(start), e.message ?: e.javaClass.simpleName)
+        }
+    }
+
+    private fun elapsedMillisSince(startNanos: Long): Long = (System.nanoTime() - startNanos) / 1_000_000
+
+    /**
+     * @brief 合并本地扫描结果和远程清单。两边各自可能失败：
+     *        -   都成功：清单里的版本，按是否在本地扫描到标记已安装。
+     *        -   只有扫描失败：清单里的版本，已安装标记沿用当前列表里的值。
+     *        -   只有清单失败：当前列表不为空时只更新已安装标记；为空时只列出本地扫描到的版本。
+     *        -   都失败：返回 `null`。
+     *
+     * @param localVersionIds 本地扫描到的版本 ID，扫描失败时为 `null`。
+     * @param manifest 远程清单，获取失败时为 `null`。
+     * @param current 当前显示的列表。
+     * @return 合并、排好序的列表；没有任何新数据时返回 `null`。
+     */
+    private fun mergeVersionList(
+        localVersionIds: Set<String>?,
+        manifest: VersionManifest?,
+        current: List<VersionInfoView>
+    ): List<VersionInfoView>? {
+        val currentById = current.associateBy { it.id }
+        return when {
+            manifest != null -> manifest.versions.map { versionInfo ->
+                VersionInfoView(
+                    id = versionInfo.id,
+                    type = versionInfo.type,
+                    releaseTime = versionInfo.releaseTime,
+                    isInstalled = localVersionIds?.contains(versionInfo.id) ?: (currentById[versionInfo.id]?.isInstalled ?: false),
+                    manifestUrl = versionInfo.url,
+                    detailsSha1 = versionInfo.sha1
+                )
+            }.sortedByDescending { it.releaseTime }
+            localVersionIds != null && current.isNotEmpty() -> current.map { it.copy(isInstalled = it.id in localVersionIds) }
+            localVersionIds != null -> localVersionIds.sortedDescending().map { id ->
+                VersionInfoView(id = id, type = null, releaseTime = null, isInstalled = true, manifestUrl = null)
             }
+            else -> null
         }
     }
 
@@ -206,7 +351,7 @@ class VersionsViewModel {
         }
 
         // 更新 UI 状态：开始加载详情，清除旧详情和错误
-        // 注意：不应该清除正在进行的下载状态 (downloadingVersionId, downloadProgress)
+        // 注意：不应该清除正在进行的安装状态 (installs)
         uiState = uiState.copy(
             isDetailsLoading = true,
             selectedVersionDetails = null,
@@ -253,126 +398,133 @@ class VersionsViewModel {
     }
 
     /**
-     * @brief 启动指定版本的下载过程。
-     *        这个函数现在是 suspend 函数。
-     *        这个函数会:
-     *        1.  检查是不是已经有其他下载在进行中。
-     *        2.  更新 UI 状态为开始下载，设置 `downloadingVersionId` 和初始进度。
-     *        3.  直接在调用者的协程上下文中执行。
-     *        4.  获取版本的详细信息 (`VersionDetails`)。
-     *        5.  调用 `DownloadManager.parseDownloadTasks` 解析需要下载的文件列表。
-     *        6.  调用 `DownloadManager.executeDownloadTasks` 执行下载，并传入进度回调来更新 `uiState`。
-     *        7.  下载完成后，更新 UI 状态 (清除下载状态，标记版本为已安装)。
-     *        8.  处理过程中可能发生的错误。
+     * @brief 把指定版本加入全局安装队列。
+     *        实际的下载由应用级的 `DownloadCoordinator` 执行，离开这个页面也不会中断；
+     *        进度和结果通过 `observeInstalls` 收集到 `uiState.installs` 里。
      *
      * @param version 用户选择要下载的版本对应的 `VersionInfoView` 对象。
      */
-    suspend fun downloadVersion(version: VersionInfoView) { // <--- 改为 suspend fun
-        // 防止同时启动多个下载任务
-        if (uiState.downloadingVersionId != null) {
-            println("ViewModel: Download task already in progress (Version: ${uiState.downloadingVersionId}), cannot start new download for ${version.id}.")
-            // 在 Main 线程更新 UI
-            withContext(Dispatchers.Main) {
-                uiState = uiState.copy(error = "Another download is already in progress")
-            }
-            return // 阻止启动新下载
+    fun downloadVersion(version: VersionInfoView) {
+        val url = version.manifestUrl
+        if (url == null) {
+            uiState = uiState.copy(error = "Details URL missing for version ${version.id}.")
+            return
         }
-
-        // --- 开始下载准备阶段 ---
-        println("ViewModel: Starting preparation to download version ${version.id}...")
-        // 更新 UI 状态 (需要在 Main 线程)
-        withContext(Dispatchers.Main) {
-            uiState = uiState.copy(
-                downloadingVersionId = version.id,
-                error = null,
-                isDetailsLoading = false, // 重置详情加载状态
-                selectedVersionDetails = null, // 清除详情显示
-                downloadProgress = 0f // 初始化进度为 0%
-            )
+        println("ViewModel: Queueing install of version ${version.id}...")
+        if (!DownloadCoordinator.enqueue(version.id, url, version.detailsSha1, LauncherPaths.defaultGameDir)) {
+            println("ViewModel: Version ${version.id} is already queued or downloading.")
+            return
         }
+        uiState = uiState.copy(error = null)
+    }
 
-        // 不再需要内部启动协程，直接在当前协程上下文中执行
-        // 使用 withContext 切换线程执行耗时操作
-        try {
-            // --- 步骤 1: 获取版本详细信息 (IO) ---
-            val url = version.manifestUrl
-            if (url == null) {
-                throw Exception("Details URL missing for version ${version.id}.")
-            }
-            // 先获取 VersionDetails，并检查是否为空
-            val fetchedDetails = withContext(Dispatchers.IO) {
-                println("ViewModel: Fetching details for version ${version.id} (IO)...") // 修正日志信息
-                MojangApiService.getVersionDetails(url) // <<< 修正：调用 getVersionDetails
-            }
-            if (fetchedDetails == null) { // <<< 修正：检查 fetchedDetails
-                throw Exception("Failed to fetch details for version ${version.id}, cannot determine download content.")
-            }
-            // 到这里，fetchedDetails 肯定不为空
-
-            // --- 步骤 2: 解析下载任务 (Default) ---
-            println("ViewModel: Parsing download tasks for ${fetchedDetails.id} (Default)...") // <<< 修正：使用 fetchedDetails
-            // 使用获取到的 fetchedDetails 来解析任务列表
-            val initialDownloadTasks = withContext(Dispatchers.Default) {
-                DownloadManager.parseDownloadTasks(fetchedDetails) // <<< 修正：传入 fetchedDetails
-            }
-            if (initialDownloadTasks.isEmpty()) {
-                // 如果初始任务列表为空 (可能只发生在版本json有问题时)，也应该处理
-                throw Exception("Parsed download task list is empty for version ${fetchedDetails.id}.")
-            }
-
-            // --- 步骤 3: 执行下载任务 (IO + Default for progress) ---
-            val standardGameDir = File(System.getProperty("user.home"), ".wzs_minecraft_launcher/minecraft")
-            // 执行下载，传入解析好的 initialDownloadTasks
-            val downloadSuccess = DownloadManager.executeDownloadTasks( // <<< 修正：直接调用，结果赋给新变量
-                tasks = initialDownloadTasks, // <<< 修正：传入初始任务列表
-                gameDir = standardGameDir,
-                client = MojangApiService.getClient(),
-                progressCallback = { progress ->
-                    // 进度回调内部切换到 Main 线程更新 UI
-                    viewModelScope.launch(Dispatchers.Main.immediate) { // 使用 immediate 尝试立即执行
-                        // 检查一下，确保只有当下载还在进行时才更新进度 (避免下载结束后意外更新)
-                        if (uiState.downloadingVersionId == version.id) {
-                           uiState = uiState.copy(downloadProgress = progress)
-                        }
-                    }
-                }
-            )
+    /**
+     * @brief 取消指定版本的安装 (排队中或下载中)。已经下载的部分会保留，下次接着下。
+     *
+     * @param version 要取消的版本。
+     */
+    fun cancelDownload(version: VersionInfoView) {
+        println("ViewModel: Cancelling install of version ${version.id}...")
+        DownloadCoordinator.cancel(version.id)
+    }
 
+    /**
+     * @brief "边下边玩"：把指定版本加入安装队列，启动必需的文件 (客户端 JAR、库文件、本地库、资源索引)
+     *        一就绪就启动游戏，剩下的资源文件降速在后台继续下载。
+     *
+     * @param version 用户选择的版本。
+     */
+    fun playVersion(version: VersionInfoView) {
+        val url = version.manifestUrl
+        if (url == null) {
+            uiState = uiState.copy(error = "Details URL missing for version ${version.id}.")
+            return
+        }
+        println("ViewModel: Queueing install of version ${version.id}, launching as soon as it is launchable...")
+        val accepted = DownloadCoordinator.enqueue(version.id, url, version.detailsSha1, LauncherPaths.defaultGameDir) { details ->
+            startGame(details)
+        }
+        if (!accepted) {
+            println("ViewModel: Version ${version.id} is already queued or downloading.")
+            return
+        }
+        uiState = uiState.copy(error = null)
+    }
 
-            // --- 步骤 4: 处理下载结果 (Main) ---
-            withContext(Dispatchers.Main) {
-                if (downloadSuccess) { // <<< 修正：检查下载执行结果
-                    println("ViewModel: All files for version ${version.id} downloaded successfully.")
-                    // 更新版本列表中的状态
-                    val updatedVersions = uiState.versions.map {
-                        if (it.id == version.id) it.copy(isInstalled = true) else it
+    /**
+     * @brief 校验已安装的版本：把所有文件重新算一遍 SHA1，不下载任何东西。
+     *        结果放进 `uiState.verifyReports`，有问题的文件可以再点一次下载来修复。
+     *
+     * @param version 要校验的版本。
+     */
+    fun verifyVersion(version: VersionInfoView) {
+        if (version.id in uiState.verifying) return
+        if (uiState.installs[version.id]?.isActive == true) {
+            println("ViewModel: Verify skipped - Version ${version.id} is currently downloading.")
+            return
+        }
+        uiState = uiState.copy(verifying = uiState.verifying + version.id, error = null)
+        viewModelScope.launch(Dispatchers.Main) {
+            println("ViewModel: Verifying version ${version.id}...")
+            val report = withContext(Dispatchers.IO) {
+                InstallVerifier.verify(version.id, LauncherPaths.defaultGameDir, version.manifestUrl)
+            }
+            uiState = if (report == null) {
+                uiState.copy(
+                    verifying = uiState.verifying - version.id,
+                    error = "Verify failed: Could not fetch details for version ${version.id}"
+                )
+            } else {
+                println("ViewModel: Verified ${version.id}: ${report.problemCount} problem(s), ${"%.1f".format(report.throughputMBps)} MB/s.")
+                // 校验结果同步到完整安装记录：有问题就移出去 (离线时不再当作可启动)，完好就补记一条
+                withContext(Dispatchers.IO) {
+                    val gameDir = LauncherPaths.defaultGameDir
+                    val detailsUrl = version.manifestUrl
+                    if (!report.isIntact) {
+                        LocalInstallIndex.remove(gameDir, version.id)
+                    } else if (detailsUrl != null && LocalInstallIndex.completeEntry(gameDir, version.id) == null) {
+                        val clientJar = File(gameDir, "versions/${version.id}/${version.id}.jar")
+                        LocalInstallIndex.recordInstalled(
+                            gameDir,
+                            InstalledVersionEntry(
+                                version.id, detailsUrl, clientJar.length(), report.checkedFiles, System.currentTimeMillis(),
+                                detailsSha1 = version.detailsSha1
+                            )
+                        )
                     }
-                    uiState = uiState.copy(
-                        downloadingVersionId = null,
-                        downloadProgress = null,
-                        versions = updatedVersions,
-                        error = null // 清除可能存在的旧错误
-                    )
-                } else {
-                    println("ViewModel: Download failed for version ${version.id}.")
-                    uiState = uiState.copy(
-                        downloadingVersionId = null,
-                        downloadProgress = null,
-                        error = "Download failed for ${version.id}. Please check logs."
-                    )
                 }
+                uiState.copy(
+                    verifying = uiState.verifying - version.id,
+                    verifyReports = uiState.verifyReports + (version.id to report)
+                )
             }
+        }
+    }
 
-        } catch (e: Exception) {
-            // 捕获下载准备或执行过程中的任何异常
-            println("ViewModel: Error during download process for version ${version.id}: ${e.message}")
-            e.printStackTrace() // 打印错误详情
-            // 在 Main 线程更新 UI 状态以显示错误
-            withContext(Dispatchers.Main) {
+    /**
+     * @brief 收集全局安装状态，同步到 `uiState`。安装完成的版本标记为已安装，失败的显示错误。
+     *        ViewModel 重新创建 (比如切换页面回来) 时会拿到正在进行的安装的最新状态。
+     */
+    private fun observeInstalls() {
+        viewModelScope.launch(Dispatchers.Main) {
+            // 安装状态和合计进度一起收集，保证两者是同一时刻的
+            combine(DownloadCoordinator.installs, DownloadCoordinator.aggregateProgress) { installs, aggregate ->
+                installs to aggregate
+            }.collect { (installs, aggregate) ->
+                val previous = uiState.installs
+                val completedIds = installs.values.filter { it.status == InstallStatus.COMPLETED }.map { it.versionId }.toSet()
+                // 新出现的失败才显示错误，旧的就不重复提示了
+                val newFailure = installs.values.firstOrNull {
+                    it.status == InstallStatus.FAILED && previous[it.versionId]?.status != InstallStatus.FAILED && previous.containsKey(it.versionId)
+                }
+                val hasActive = installs.values.any { it.isActive }
                 uiState = uiState.copy(
-                    downloadingVersionId = null, // 清除下载状态
-                    downloadProgress = null, // 清除进度
-                    error = "Download failed: ${e.message}" // <<< 修正：提供更具体的错误信息
+                    installs = installs,
+                    aggregateProgress = if (hasActive) aggregate else null,
+                    versions = if (completedIds.isEmpty()) uiState.versions else uiState.versions.map {
+                        if (!it.isInstalled && it.id in completedIds) it.copy(isInstalled = true) else it
+                    },
+                    error = newFailure?.let { "Download failed for ${it.versionId}: ${it.error}" } ?: uiState.error
                 )
             }
         }
@@ -407,15 +559,24 @@ class VersionsViewModel {
             return
         }
         // 检查这个版本当前是不是正在下载
-        if (uiState.downloadingVersionId == version.id) {
+        if (uiState.installs[version.id]?.isActive == true) {
              println("ViewModel: Launch cancelled - Version ${version.id} is currently downloading.")
              withContext(Dispatchers.Main) {
                  uiState = uiState.copy(error = "Launch failed: Version ${version.id} is downloading")
              }
              return
         }
+        // 完整安装记录：离线时只有记录里的版本能启动；记录里也存着详情地址，列表里没有地址 (只有本地版本) 时用它
+        val installEntry = withContext(Dispatchers.IO) { LocalInstallIndex.completeEntry(LauncherPaths.defaultGameDir, version.id) }
+        if (installEntry == null && MojangApiService.isOffline.value) {
+            println("ViewModel: Launch cancelled - Version ${version.id} is not a verified complete install (offline).")
+            withContext(Dispatchers.Main) {
+                uiState = uiState.copy(error = "Launch failed: Version ${version.id} is not fully installed and the launcher is offline")
+            }
+            return
+        }
         // 检查版本详情 URL 是否存在 (虽然不太可能没有，但做个检查)
-        val url = version.manifestUrl
+        val url = version.manifestUrl ?: installEntry?.detailsUrl
         if (url == null) {
              println("ViewModel: Launch cancelled - Manifest URL missing for version ${version.id}.")
              withContext(Dispatchers.Main) {
@@ -434,20 +595,51 @@ class VersionsViewModel {
         // 不再需要内部启动协程，直接在当前协程 (由 UI 处的 scope.launch 启动) 的上下文中执行
         // 使用 withContext(Dispatchers.IO) 来执行 IO 密集型操作
         try {
+            // 启动只做本地的事：先读游戏目录里的版本 JSON，没有再从版本 JSON 仓库 / 元数据缓存读，不发请求。
+            // 网络不好时启动速度也不受影响
+            val detailsUrl = installEntry?.detailsUrl ?: url
+            val detailsSha1 = installEntry?.detailsSha1 ?: version.detailsSha1 ?: HttpMetadataCache.immutableSha1Of(detailsUrl)
             val details: VersionDetails? = withContext(Dispatchers.IO) {
-                println("ViewModel: Fetching details for version ${version.id} (IO)...")
-                MojangApiService.getVersionDetails(url)
+                println("ViewModel: Loading local details for version ${version.id} (IO)...")
+                GameLauncher.readLocalVersionDetails(LauncherPaths.defaultGameDir, version.id, detailsSha1)
+                    ?: MojangApiService.getVersionDetails(detailsUrl, allowNetwork = false, sha1 = detailsSha1)?.also {
+                        // 本地版本 JSON 缺失或过时了，顺手从缓存补上
+                        MojangApiService.writeLocalVersionJson(LauncherPaths.defaultGameDir, version.id, detailsUrl, detailsSha1)
+                    }
             }
 
             if (details == null) {
-                println("ViewModel: Launch failed - Could not fetch details for version ${version.id}.")
+                // 本地哪里都没有 (比如在有缓存之前装的版本)：启动不联网去补，让用户校验或重新安装，两者都会把版本 JSON 写回本地
+                println("ViewModel: Launch failed - No local details for version ${version.id}.")
                 withContext(Dispatchers.Main) {
-                    uiState = uiState.copy(error = "Launch failed: Could not fetch details for version ${version.id}")
+                    uiState = uiState.copy(error = "Launch failed: Version ${version.id} has no local version JSON, verify or reinstall it to repair")
                 }
                 return // 退出 suspend 函数
             }
             println("ViewModel: Successfully fetched details for version ${version.id}.")
 
+            startGame(details)
+        } catch (e: Exception) {
+            // 捕获整个过程中的任何意外错误
+            println("ViewModel: Unexpected error during launch process for version ${version.id}: ${e.message}")
+            e.printStackTrace() // 打印错误详情
+            // 在 Main 线程更新 UI
+            withContext(Dispatchers.Main) {
+                uiState = uiState.copy(
+                    error = "Launch preparation failed: ${e.message}"
+                )
+            }
+        }
+    }
+
+    /**
+     * @brief 用已经拿到的版本详情启动游戏：准备参数、调用 `GameLauncher.launchGame`、把结果反映到 UI。
+     *        `launchVersion` 和 "边下边玩" (`playVersion`) 共用这一段。
+     *
+     * @param details 要启动的版本详情。
+     */
+    private suspend fun startGame(details: VersionDetails) {
+        try {
             // --- 步骤 2: 准备启动所需的参数 --- (这部分是 CPU 密集型或内存操作，可以在 IO 或 Default)
             val gameDir: File
             val nativesDir: File
@@ -456,7 +648,7 @@ class VersionsViewModel {
             val maxMemoryMb: Int
             withContext(Dispatchers.Default) { // 使用 Default dispatcher 做准备工作
                 // TODO: 这个路径应该从设置里读取，或者用一个更标准的、跨平台的方式获取
-                gameDir = File(System.getProperty("user.home"), ".wzs_minecraft_launcher/minecraft") 
+                gameDir = LauncherPaths.defaultGameDir
                 nativesDir = File(gameDir, "natives/${details.id}") // natives 目录最好按版本隔离
                 username = "Player${(100..999).random()}" // TODO: 后面要接入账户系统
                 jvmArgs = emptyList() // TODO: 从设置读取或提供默认值
@@ -477,7 +669,7 @@ class VersionsViewModel {
                  return
             }
 
-            println("ViewModel: Preparing to call GameLauncher for version ${version.id} (IO)...")
+            println("ViewModel: Preparing to call GameLauncher for version ${details.id} (IO)...")
             // --- 步骤 3: 调用 GameLauncher (suspend 函数，执行 IO/进程操作) ---
             val launchSuccess = withContext(Dispatchers.IO) {
                  GameLauncher.launchGame(
@@ -493,17 +685,16 @@ class VersionsViewModel {
             // --- 步骤 4: 处理结果 (需要在 Main 线程更新 UI) ---
             withContext(Dispatchers.Main) {
                 if (launchSuccess) {
-                    println("ViewModel: GameLauncher successfully started the process for version ${version.id}.")
+                    println("ViewModel: GameLauncher successfully started the process for version ${details.id}.")
                     // uiState = uiState.copy(error = null) // 可选：清除错误
                 } else {
-                    println("ViewModel: GameLauncher failed to start the process for version ${version.id}.")
+                    println("ViewModel: GameLauncher failed to start the process for version ${details.id}.")
                     uiState = uiState.copy(error = "Launch failed: Could not start game process (check console logs for details)")
                 }
             }
-
         } catch (e: Exception) {
             // 捕获整个过程中的任何意外错误
-            println("ViewModel: Unexpected error during launch process for version ${version.id}: ${e.message}")
+            println("ViewModel: Unexpected error during launch process for version ${details.id}: ${e.message}")
             e.printStackTrace() // 打印错误详情
             // 在 Main 线程更新 UI
             withContext(Dispatchers.Main) {
@@ -522,6 +713,7 @@ class VersionsViewModel {
         println("VersionsViewModel: Cleaning up resources, cancelling coroutines...")
         // 取消与这个 ViewModel 关联的 Job，这会取消 viewModelScope 中所有正在运行的协程
         viewModelJob.cancel()
+        // 正在进行的安装由 DownloadCoordinator 管理，不受影响，这里只是停止收集它的状态
         // 注意：在 Android ViewModel 中，这通常由框架自动处理。
     }
 
@@ -0,0 +1,82 @@
+/**
+ * @file ByteBufferPoolTest.kt
+ * @brief `ByteBufferPool` 的借还：还回来的缓冲区会被再借出去、借出时已经 clear 过、池满或者不是这个池的缓冲区不收。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.nio.ByteBuffer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class ByteBufferPoolTest {
+
+    /**
+     * @brief 还回来的缓冲区下次直接借出去，位置和上限都已经重置。
+     */
+    @Test
+    fun reusesReleasedBuffer() {
+        val pool = ByteBufferPool(bufferSize = 1024, maxPooled = 2)
+        val first = pool.acquire()
+        assertTrue(first.isDirect)
+        assertEquals(1024, first.capacity())
+        first.put(ByteArray(100)).flip()
+        pool.release(first)
+
+        val second = pool.acquire()
+        assertSame(first, second)
+        assertEquals(0, second.position())
+        assertEquals(1024, second.limit())
+    }
+
+    /**
+     * @brief 池里最多留 maxPooled 块，多出来的丢掉。
+     */
+    @Test
+    fun dropsBuffersBeyondMaxPooled() {
+        val pool = ByteBufferPool(bufferSize = 64, maxPooled = 2)
+        val buffers = List(3) { pool.acquire() }
+        buffers.forEach { pool.release(it) }
+
+        val reused = List(3) { pool.acquire() }
+        assertEquals(2, reused.count { candidate -> buffers.any { it === candidate } })
+    }
+
+    /**
+     * @brief 大小不对或者不是直接缓冲区的不收，免得借出去的缓冲区大小对不上。
+     */
+    @Test
+    fun rejectsForeignBuffers() {
+        val pool = ByteBufferPool(bufferSize = 64, maxPooled = 4)
+        pool.release(ByteBuffer.allocateDirect(128))
+        pool.release(ByteBuffer.allocate(64))
+        val buffer = pool.acquire()
+        assertEquals(64, buffer.capacity())
+        assertTrue(buffer.isDirect)
+    }
+
+    /**
+     * @brief use 里出异常也会把缓冲区还回去。
+     */
+    @Test
+    fun useReleasesOnException() {
+        val pool = ByteBufferPool(bufferSize = 64, maxPooled = 1)
+        var borrowed: ByteBuffer? = null
+        assertFailsWith<IllegalStateException> {
+            pool.use { buffer ->
+                borrowed = buffer
+                error("boom")
+            }
+        }
+        assertSame(borrowed, pool.acquire())
+        assertNotSame(borrowed, pool.acquire())
+    }
+}
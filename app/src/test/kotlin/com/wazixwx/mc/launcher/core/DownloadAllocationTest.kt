@@ -0,0 +1,148 @@
+/**
+ * @file DownloadAllocationTest.kt
+ * @brief 下载写入路径的分配检查：读响应、算摘要、写文件都用池里的直接缓冲区，不能每读一块就新建一个字节数组。
+ *        下载期间用 JFR 记录 TLAB 分配事件，只统计调用栈经过 `DownloadManager` 的 `byte[]`。
+ *        Ktor 自己每次读取的协程对象和类加载不算在里面，它们跟写入路径无关，而且会把真正的问题淹没。
+ *        大文件看整个文件的总量；成批的小文件 (走一次读满一次写的快速路径) 看平均每个文件的量。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordedEvent
+import jdk.jfr.consumer.RecordingFile
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertTrue
+
+class DownloadAllocationTest {
+
+    private lateinit var server: FaultInjectingServer
+    private lateinit var client: HttpClient
+    private val gameDir: File = Files.createTempDirectory("allocation-test").toFile()
+
+    private val content = Random(42).nextBytes(FILE_SIZE)
+    private val sha1 = VersionJsonStore.sha1Hex(content)
+    private val smallFiles = List(SMALL_FILE_COUNT) { Random(it).nextBytes(SMALL_FILE_SIZE) }
+
+    @BeforeTest
+    fun setUp() {
+        server = FaultInjectingServer()
+        server.put("big.jar", content)
+        smallFiles.forEachIndexed { index, bytes -> server.put("small/$index", bytes) }
+        client = HttpClient(CIO)
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker())
+    }
+
+    @AfterTest
+    fun tearDown() {
+        client.close()
+        server.close()
+        gameDir.deleteRecursively()
+    }
+
+    /**
+     * @brief 单连接下载：读、摘要、写共用一块池里的缓冲区。
+     */
+    @Test
+    fun singleConnectionWritePathAllocatesNoChunkArrays() = runBlocking {
+        assertNoChunkArrays(DownloadOptions(segmentedDownloadThreshold = Long.MAX_VALUE))
+    }
+
+    /**
+     * @brief 分段下载：每个分段一块池里的缓冲区，合并后的校验也用池里的缓冲区读文件。
+     */
+    @Test
+    fun segmentedWritePathAllocatesNoChunkArrays() = runBlocking {
+        assertNoChunkArrays(DownloadOptions(segmentedDownloadThreshold = 1L * 1024 * 1024))
+    }
+
+    /**
+     * @brief 很多个不超过一块缓冲区的小文件 (资源文件的典型情况)：快速路径同样用池里的缓冲区，
+     *        平均每个文件分配的 `byte[]` 要远小于一块缓冲区，每个文件新建一块缓冲区或者把响应体读成数组都会超。
+     */
+    @Test
+    fun smallFileWritePathAllocatesNoPerFileBuffers() = runBlocking {
+        val options = DownloadOptions()
+        // 同样先把整批下一遍预热，第二遍换个目录才记录
+        downloadSmallFiles("warm-up", options)
+        val allocated = writePathBytes { downloadSmallFiles("measured", options) }
+        val perFile = allocated / SMALL_FILE_COUNT
+        assertTrue(perFile < MAX_SMALL_FILE_BYTES, "write path allocated about $perFile bytes of byte[] per $SMALL_FILE_SIZE byte file")
+    }
+
+    private suspend fun assertNoChunkArrays(options: DownloadOptions) {
+        // 先完整下一遍预热 (类加载、连接池、缓冲区池)，第二遍才记录
+        download("warm-up/big.jar", options)
+        val allocated = writePathBytes { download("measured/big.jar", options) }
+        assertTrue(allocated < MAX_WRITE_PATH_BYTES, "write path allocated about $allocated bytes of byte[] for a $FILE_SIZE byte file")
+    }
+
+    /**
+     * @brief 用 JFR 记录 [block] 执行期间的分配，返回写入路径上分配的 `byte[]` 估算字节数。
+     */
+    private suspend fun writePathBytes(block: suspend () -> Unit): Long {
+        val recordingFile = Files.createTempFile("download-allocation", ".jfr")
+        try {
+            Recording().use { recording ->
+                ALLOCATION_EVENTS.forEach { recording.enable(it).withStackTrace() }
+                recording.start()
+                block()
+                recording.stop()
+                recording.dump(recordingFile)
+            }
+            return RecordingFile.readAllEvents(recordingFile)
+                .filter { it.eventType.name in ALLOCATION_EVENTS && isByteArrayFromWritePath(it) }
+                .sumOf { estimatedBytes(it) }
+        } finally {
+            Files.deleteIfExists(recordingFile)
+        }
+    }
+
+    private suspend fun download(destination: String, options: DownloadOptions) {
+        val report = DownloadManager.executeDownloadTasks(
+            listOf(DownloadTaskInfo(server.url("big.jar"), "libraries/$destination", sha1, FILE_SIZE.toLong(), "library")),
+            gameDir, client, options
+        )
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+    }
+
+    private suspend fun downloadSmallFiles(directory: String, options: DownloadOptions) {
+        val tasks = smallFiles.mapIndexed { index, bytes ->
+            DownloadTaskInfo(server.url("small/$index"), "assets/$directory/$index", VersionJsonStore.sha1Hex(bytes), bytes.size.toLong(), "asset_object")
+        }
+        val report = DownloadManager.executeDownloadTasks(tasks, gameDir, client, options)
+        assertTrue(report.isSuccessful, "failures: ${report.failures.take(3)}")
+    }
+
+    private fun isByteArrayFromWritePath(event: RecordedEvent): Boolean =
+        event.getClass("objectClass")?.name == ByteArray::class.java.name &&
+            event.stackTrace?.frames.orEmpty().any { it.method.type.name.startsWith(DownloadManager::class.java.name) }
+
+    /**
+     * @brief 事件只在换新 TLAB 或者 TLAB 外分配时才记，换新 TLAB 的那一次按整个 TLAB 的大小估算 (JFR 自己也是这么算的)。
+     */
+    private fun estimatedBytes(event: RecordedEvent): Long =
+        if (event.eventType.name == IN_NEW_TLAB) event.getLong("tlabSize") else event.getLong("allocationSize")
+
+    private companion object {
+        const val FILE_SIZE = 32 * 1024 * 1024
+        const val MAX_WRITE_PATH_BYTES = 2L * 1024 * 1024 // 每块都新建数组的话是几十 MB
+        const val SMALL_FILE_COUNT = 512
+        const val SMALL_FILE_SIZE = 48 * 1024 // 比一块缓冲区 (64 KB) 小，走快速路径
+        const val MAX_SMALL_FILE_BYTES = 16L * 1024 // 路径、SHA1 的十六进制串这些小数组；每个文件一块缓冲区的话是 64 KB
+        const val IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB"
+        val ALLOCATION_EVENTS = setOf(IN_NEW_TLAB, "jdk.ObjectAllocationOutsideTLAB")
+    }
+}
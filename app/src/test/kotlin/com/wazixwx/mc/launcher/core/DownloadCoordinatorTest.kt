@@ -0,0 +1,91 @@
+/**
+ * @file DownloadCoordinatorTest.kt
+ * @brief `DownloadCoordinator` 的排队测试：同一个版本取消后马上重新安装，队列里留着的旧请求不能被执行。
+ *        版本 JSON 预先放进版本 JSON 仓库 (按 SHA1 读取，不联网)，里面的下载地址都指向本地的测试服务器。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class DownloadCoordinatorTest {
+
+    private val server = FaultInjectingServer()
+    private val gameDir: File = Files.createTempDirectory("coordinator-test").toFile()
+    private val versionStore = VersionJsonStore(LauncherPaths.versionJsonCacheDir)
+    private val runId = System.nanoTime() // 版本 ID 带上它，同一个 JVM 里的安装记录不会互相干扰
+
+    @AfterTest
+    fun tearDown() {
+        server.close()
+        gameDir.deleteRecursively()
+    }
+
+    /**
+     * @brief 排队中的安装被取消后马上重新加入 (换了版本详情)：执行的必须是新的那个请求，
+     *        旧请求虽然还在队列里，但已经过时了，不能拿着旧参数再装一遍。
+     */
+    @Test
+    fun staleRequestIsSkippedAfterCancelAndReEnqueue() = runBlocking {
+        // 两个慢的安装先把调度协程都占住，目标版本只能在队列里等着
+        val busy = (1..2).map { index -> prepareVersion("busy$index-$runId", slowClient = true) }
+        busy.forEach { (id, sha1) -> assertTrue(DownloadCoordinator.enqueue(id, detailsUrl(id), sha1, gameDir)) }
+
+        val targetId = "target-$runId"
+        val (_, oldSha1) = prepareVersion(targetId, clientName = "client-old-$runId.jar")
+        val (_, newSha1) = prepareVersion(targetId, clientName = "client-new-$runId.jar")
+        assertTrue(DownloadCoordinator.enqueue(targetId, detailsUrl(targetId), oldSha1, gameDir))
+        DownloadCoordinator.cancel(targetId)
+        assertTrue(DownloadCoordinator.enqueue(targetId, detailsUrl(targetId), newSha1, gameDir))
+
+        val finalState = withTimeout(30_000L) {
+            DownloadCoordinator.installState(targetId).first { it != null && !it.isActive }
+        }
+        busy.forEach { (id, _) ->
+            withTimeout(30_000L) { DownloadCoordinator.installState(id).first { it != null && !it.isActive } }
+        }
+
+        assertEquals(InstallStatus.COMPLETED, finalState?.status, "state: $finalState")
+        assertEquals(0, server.requests("client-old-$runId.jar").size, "the cancelled request was installed")
+        assertEquals(1, server.requests("client-new-$runId.jar").size)
+    }
+
+    /**
+     * @brief 造一个最小的版本：只有客户端 JAR 和一个空的资源索引。版本 JSON 直接放进仓库。
+     *
+     * @return 版本 ID 和版本 JSON 的 SHA1。
+     */
+    private fun prepareVersion(id: String, clientName: String = "client-$id.jar", slowClient: Boolean = false): Pair<String, String> {
+        val client = Random.nextBytes(4 * 1024) // 每次都不一样，构建目录里上次留下的对象仓库用不上
+        server.put(clientName, client)
+        if (slowClient) server.script(clientName, Fault.Delay(1_500L))
+        val index = """{"objects":{}}""".toByteArray()
+        server.put("index-$id.json", index)
+        val details = """
+            {
+              "id": "$id", "type": "release", "mainClass": "net.minecraft.client.main.Main", "assets": "$id",
+              "assetIndex": {"id": "$id", "sha1": "${VersionJsonStore.sha1Hex(index)}", "size": ${index.size}, "url": "${server.url("index-$id.json")}"},
+              "downloads": {"client": {"sha1": "${VersionJsonStore.sha1Hex(client)}", "size": ${client.size}, "url": "${server.url(clientName)}"}},
+              "libraries": []
+            }
+        """.trimIndent().toByteArray()
+        val sha1 = VersionJsonStore.sha1Hex(details)
+        assertTrue(versionStore.put(sha1, details))
+        return id to sha1
+    }
+
+    private fun detailsUrl(id: String): String = "https://piston-meta.mojang.com/v1/packages/test/$id.json"
+}
@@ -0,0 +1,377 @@
+/**
+ * @file DownloadFaultInjectionTest.kt
+ * @brief 用本地故障注入服务器驱动 `DownloadManager` 的重试、退避和熔断：5xx 连发、超时、传到一半连接被重置、
+ *        熔断后的半开探测和恢复，以及半开探测请求在排队时被取消不会把探测名额占死。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import io.ktor.client.plugins.HttpTimeout
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class DownloadFaultInjectionTest {
+
+    private lateinit var server: FaultInjectingServer
+    private lateinit var client: HttpClient
+    private val tempDirs = mutableListOf<File>()
+
+    // 退避时间缩小到 100 毫秒起步，测试不用等太久，但还能看出来是不是真的在退避
+    private val fastRetry = DownloadOptions(workerCount = 4, retryBaseDelayMillis = 100L, retryMaxDelayMillis = 1_000L)
+
+    @BeforeTest
+    fun setUp() {
+        server = FaultInjectingServer()
+        client = HttpClient(CIO) {
+            install(HttpTimeout) {
+                requestTimeoutMillis = 1_000L // 超时注入的故障会比这个长
+            }
+        }
+        // 每个测试一个新的熔断器，不受前面测试的影响
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker())
+    }
+
+    @AfterTest
+    fun tearDown() {
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker())
+        DownloadManager.configureHedging(HedgingController())
+        DownloadManager.configureIoLimits(IoLimits.UNLIMITED, IoLimits.GAME_RUNNING_DEFAULT)
+        client.close()
+        server.close()
+        tempDirs.forEach { it.deleteRecursively() }
+    }
+
+    /**
+     * @brief 连续两次 503 之后成功：第三次才拿到文件，两次重试之间的等待符合指数退避，重试次数记在熔断器指标里。
+     */
+    @Test
+    fun retriesServerErrorsWithBackoff() = runBlocking {
+        val content = randomBytes(4 * 1024)
+        server.put("burst.jar", content)
+        server.script("burst.jar", Fault.Status(503), Fault.Status(503))
+
+        val gameDir = newGameDir()
+        val report = download(gameDir, task("burst.jar", content), fastRetry)
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/burst.jar"))
+        val requests = server.requests("burst.jar")
+        assertEquals(3, requests.size)
+        // 第一次重试等 [50, 100] 毫秒，第二次等 [100, 200] 毫秒
+        assertTrue(gapMillis(requests[0], requests[1]) >= 50, "first backoff too short")
+        assertTrue(gapMillis(requests[1], requests[2]) >= 100, "second backoff too short")
+        assertEquals(2L, breakerMetrics().retries)
+        assertEquals(CircuitState.CLOSED, breakerMetrics().state)
+    }
+
+    /**
+     * @brief 重试次数用完还是 5xx：报告失败，原因里带状态码，请求数正好是 maxAttempts。
+     */
+    @Test
+    fun givesUpAfterMaxAttempts() = runBlocking {
+        val content = randomBytes(1024)
+        server.put("down.jar", content)
+        server.defaultFault = Fault.Status(500)
+
+        val report = download(newGameDir(), task("down.jar", content), fastRetry.copy(maxAttempts = 3))
+
+        assertEquals(1, report.failures.size)
+        assertTrue("500" in report.failures.single().reason, "reason: ${report.failures.single().reason}")
+        assertEquals(3, server.requests("down.jar").size)
+    }
+
+    /**
+     * @brief 404 不是临时问题，不重试。
+     */
+    @Test
+    fun doesNotRetryNotFound() = runBlocking {
+        val content = randomBytes(1024)
+        val report = download(newGameDir(), task("missing.jar", content), fastRetry)
+
+        assertEquals(1, report.failures.size)
+        assertEquals(1, server.requests("missing.jar").size)
+    }
+
+    /**
+     * @brief 服务器迟迟不回应：客户端超时后重试，第二次成功。
+     */
+    @Test
+    fun retriesAfterTimeout() = runBlocking {
+        val content = randomBytes(8 * 1024)
+        server.put("slow.jar", content)
+        server.script("slow.jar", Fault.Delay(3_000L))
+
+        val gameDir = newGameDir()
+        val report = download(gameDir, task("slow.jar", content), fastRetry)
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/slow.jar"))
+        assertEquals(2, server.requests("slow.jar").size)
+    }
+
+    /**
+     * @brief 传到一半连接被重置：重试时从断点续传 (带 Range 头)，拼起来的文件校验通过。
+     */
+    @Test
+    fun resumesAfterConnectionReset() = runBlocking {
+        val content = randomBytes(1024 * 1024)
+        server.put("reset.jar", content)
+        server.script("reset.jar", Fault.Reset(afterBytes = 300_000))
+
+        val gameDir = newGameDir()
+        val report = download(gameDir, task("reset.jar", content), fastRetry)
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/reset.jar"))
+        val requests = server.requests("reset.jar")
+        assertEquals(2, requests.size)
+        val range = assertNotNull(requests[1].range, "retry should resume with a Range request")
+        val resumeOffset = range.removePrefix("bytes=").substringBefore('-').toLong()
+        assertTrue(resumeOffset > 0, "resumed from $resumeOffset")
+    }
+
+    /**
+     * @brief 大文件分段下载：每段一个 Range 请求，拼起来的文件校验通过，主机的并发许可全部还回去。
+     */
+    @Test
+    fun downloadsLargeFileInSegments() = runBlocking {
+        val content = randomBytes(2 * 1024 * 1024)
+        server.put("big.jar", content)
+
+        val gameDir = newGameDir()
+        val report = download(gameDir, task("big.jar", content), fastRetry.copy(segmentedDownloadThreshold = 512L * 1024, segmentCount = 4))
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/big.jar"))
+        val ranges = server.requests("big.jar").map { it.range }
+        assertEquals(4, ranges.size)
+        assertTrue(ranges.all { it != null && it.startsWith("bytes=") }, "ranges: $ranges")
+        assertEquals(0, DownloadManager.concurrencyMetrics().single { it.host == server.host }.inFlight)
+    }
+
+    /**
+     * @brief 熔断器的完整状态机：失败率到阈值后熔断 (OPEN)，熔断期间不发请求；
+     *        冷却结束后放一个探测请求 (HALF_OPEN)，探测成功恢复 (CLOSED)。
+     */
+    @Test
+    fun circuitOpensAndRecoversThroughHalfOpenProbe() = runBlocking {
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker(windowSize = 4, minimumRequests = 4, failureRateThreshold = 0.5, openDurationMillis = 300L))
+        val noRetry = fastRetry.copy(maxAttempts = 1)
+        val content = randomBytes(2 * 1024)
+        server.put("lib.jar", content)
+        server.defaultFault = Fault.Status(503)
+
+        // 4 次失败，失败率 100%，熔断
+        repeat(4) {
+            val report = download(newGameDir(), task("lib.jar", content), noRetry)
+            assertEquals(1, report.failures.size)
+        }
+        assertEquals(CircuitState.OPEN, breakerMetrics().state)
+        assertEquals(1L, breakerMetrics().timesOpened)
+
+        // 熔断期间直接拒绝，请求根本不会发到服务器
+        val requestsWhileOpen = server.requests().size
+        val rejected = download(newGameDir(), task("lib.jar", content), noRetry)
+        assertTrue("Circuit breaker open" in rejected.failures.single().reason, "reason: ${rejected.failures.single().reason}")
+        assertEquals(requestsWhileOpen, server.requests().size)
+
+        // 服务器恢复，冷却结束后探测成功，熔断器关闭
+        server.defaultFault = Fault.Serve
+        delay(400L)
+        val gameDir = newGameDir()
+        val recovered = download(gameDir, task("lib.jar", content), noRetry)
+        assertTrue(recovered.isSuccessful, "failures: ${recovered.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/lib.jar"))
+        assertEquals(CircuitState.CLOSED, breakerMetrics().state)
+    }
+
+    /**
+     * @brief 半开时的探测请求还在排队 (等写文件的额度) 就被取消了：探测名额必须还回去，
+     *        不然这个主机会一直停在 HALF_OPEN、永远拒绝请求。
+     */
+    @Test
+    fun cancelledProbeReleasesHalfOpenSlot() = runBlocking {
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker(windowSize = 2, minimumRequests = 2, failureRateThreshold = 0.5, openDurationMillis = 200L))
+        val noRetry = fastRetry.copy(maxAttempts = 1)
+        val content = randomBytes(2 * 1024)
+        server.put("probe.jar", content)
+        server.defaultFault = Fault.Status(503)
+        repeat(2) { download(newGameDir(), task("probe.jar", content), noRetry) }
+        assertEquals(CircuitState.OPEN, breakerMetrics().state)
+        server.defaultFault = Fault.Serve
+        delay(300L)
+
+        // 每秒只能写一个文件，先用另一台服务器把这一个额度用掉，探测请求就只能排队
+        FaultInjectingServer().use { other ->
+            val otherContent = randomBytes(1024)
+            other.put("other.jar", otherContent)
+            DownloadManager.configureIoLimits(IoLimits(fileWritesPerSecond = 1), IoLimits(fileWritesPerSecond = 1))
+            val warmUp = DownloadManager.executeDownloadTasks(
+                listOf(DownloadTaskInfo(other.url("other.jar"), "libraries/other.jar", VersionJsonStore.sha1Hex(otherContent), otherContent.size.toLong(), "library")),
+                newGameDir(), client, noRetry
+            )
+            assertTrue(warmUp.isSuccessful, "failures: ${warmUp.failures}")
+        }
+
+        val requestsBeforeProbe = server.requests().size
+        val probe = launch { download(newGameDir(), task("probe.jar", content), noRetry) }
+        delay(200L)
+        assertEquals(CircuitState.HALF_OPEN, breakerMetrics().state)
+        probe.cancelAndJoin()
+        assertEquals(requestsBeforeProbe, server.requests().size, "the probe should have been cancelled before sending a request")
+
+        // 额度恢复后，下一个请求应该能当新的探测请求发出去并让熔断器恢复
+        DownloadManager.configureIoLimits(IoLimits.UNLIMITED, IoLimits.GAME_RUNNING_DEFAULT)
+        val gameDir = newGameDir()
+        val report = download(gameDir, task("probe.jar", content), noRetry)
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/probe.jar"))
+        assertEquals(CircuitState.CLOSED, breakerMetrics().state)
+    }
+
+    /**
+     * @brief 备用源熔断中时不发对冲请求，也不能把它算进已发出的对冲数 (或者扣掉预算)。
+     *        原请求是半开时的探测请求，同一个主机的第二个请求会被熔断器拒绝。
+     */
+    @Test
+    fun hedgeRejectedByBreakerIsNotCounted() = runBlocking {
+        val hedging = fastRetry.copy(maxAttempts = 1, hedgeSmallFiles = true, hedgeBudget = 1.0)
+        // 先攒够首字节样本，对冲等待时间才有值
+        val warmUp = (1..24).map { index ->
+            val content = randomBytes(512 + index)
+            server.put("warm$index.jar", content)
+            task("warm$index.jar", content)
+        }
+        assertTrue(DownloadManager.executeDownloadTasks(warmUp, newGameDir(), client, hedging).isSuccessful)
+        assertNotNull(DownloadManager.hedgeMetrics().p95FirstByteMillis)
+        // 预热的成功请求不算进熔断窗口
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker(windowSize = 2, minimumRequests = 2, failureRateThreshold = 0.5, openDurationMillis = 200L))
+
+        val content = randomBytes(2 * 1024)
+        server.put("hedge.jar", content)
+        // 探测请求故意拖得比首字节 95 分位 (JVM 刚启动时可能有几百毫秒) 长得多，一定会走到要不要对冲的判断
+        server.script("hedge.jar", Fault.Status(503), Fault.Status(503), Fault.Delay(2_500L))
+        repeat(2) { download(newGameDir(), task("hedge.jar", content), fastRetry.copy(maxAttempts = 1)) }
+        assertEquals(CircuitState.OPEN, breakerMetrics().state)
+        delay(300L)
+
+        val before = DownloadManager.hedgeMetrics()
+        val gameDir = newGameDir()
+        // 这次要等得比默认的 1 秒超时久
+        val report = HttpClient(CIO).use { patient ->
+            DownloadManager.executeDownloadTasks(listOf(task("hedge.jar", content)), gameDir, patient, hedging)
+        }
+        val after = DownloadManager.hedgeMetrics()
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertFileEquals(content, File(gameDir, "libraries/hedge.jar"))
+        assertEquals(3, server.requests("hedge.jar").size) // 只有探测请求本身发出去了
+        assertEquals(before.hedgesIssued, after.hedgesIssued, "metrics: $after")
+        assertEquals(before.budgetRejected, after.budgetRejected)
+        assertEquals(CircuitState.CLOSED, breakerMetrics().state)
+    }
+
+    /**
+     * @brief 首字节耗时要在第一次读到数据时记，不能等缓冲区写满：响应头和第一小块马上到，
+     *        剩下的限速慢慢传 (整个文件要半秒左右)，95 分位应该远小于整个文件的传输时间。
+     */
+    @Test
+    fun firstByteIsRecordedBeforeBodyCompletes() = runBlocking {
+        DownloadManager.configureHedging(HedgingController())
+        val files = (1..24).map { index ->
+            val content = randomBytes(48 * 1024 + index)
+            server.put("trickle$index.jar", content)
+            task("trickle$index.jar", content)
+        }
+        server.defaultFault = Fault.Throttle(bytesPerSecond = 96L * 1024)
+        // 预算为 0：只攒首字节样本，不真的发对冲请求
+        val hedging = fastRetry.copy(workerCount = files.size, hedgeSmallFiles = true, hedgeBudget = 0.0)
+
+        val report = DownloadManager.executeDownloadTasks(files, newGameDir(), client, hedging)
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        val p95 = assertNotNull(DownloadManager.hedgeMetrics().p95FirstByteMillis)
+        assertTrue(p95 < 200L, "p95 first byte was $p95 ms, close to the whole transfer time")
+    }
+
+    /**
+     * @brief 两个实例同时下载同一个文件：只发一次请求，后来的那个直接用先下完的文件。
+     */
+    @Test
+    fun concurrentDownloadsOfSameFileShareOneRequest() = runBlocking {
+        val content = randomBytes(64 * 1024)
+        server.put("shared.jar", content)
+        server.script("shared.jar", Fault.Delay(300L)) // 拖一会儿，保证第二个任务到的时候第一个还在下
+
+        val firstDir = newGameDir()
+        val secondDir = newGameDir()
+        val reports = listOf(firstDir, secondDir)
+            .map { dir -> async(Dispatchers.IO) { download(dir, task("shared.jar", content), fastRetry) } }
+            .awaitAll()
+
+        assertTrue(reports.all { it.isSuccessful }, "reports: $reports")
+        assertFileEquals(content, File(firstDir, "libraries/shared.jar"))
+        assertFileEquals(content, File(secondDir, "libraries/shared.jar"))
+        assertEquals(1, server.requests("shared.jar").size)
+    }
+
+    /**
+     * @brief 先开始的那个下载失败了：等着的任务自己去下载，不会跟着一起失败。
+     */
+    @Test
+    fun waiterDownloadsItselfWhenInFlightDownloadFails() = runBlocking {
+        val content = randomBytes(64 * 1024)
+        server.put("flaky.jar", content)
+        server.script("flaky.jar", Fault.Reset(afterBytes = 0, pauseMillis = 300L))
+
+        val firstDir = newGameDir()
+        val secondDir = newGameDir()
+        val reports = listOf(firstDir, secondDir)
+            .map { dir -> async(Dispatchers.IO) { download(dir, task("flaky.jar", content), fastRetry.copy(maxAttempts = 1)) } }
+            .awaitAll()
+
+        assertEquals(1, reports.count { it.isSuccessful }, "reports: $reports")
+        assertEquals(2, server.requests("flaky.jar").size)
+    }
+
+    private suspend fun download(gameDir: File, task: DownloadTaskInfo, options: DownloadOptions): DownloadReport =
+        DownloadManager.executeDownloadTasks(listOf(task), gameDir, client, options)
+
+    private fun task(path: String, content: ByteArray): DownloadTaskInfo =
+        DownloadTaskInfo(server.url(path), "libraries/$path", VersionJsonStore.sha1Hex(content), content.size.toLong(), "library")
+
+    private fun breakerMetrics(): CircuitBreakerMetrics =
+        DownloadManager.circuitBreakerMetrics().single { it.host == server.host }
+
+    private fun newGameDir(): File = Files.createTempDirectory("fault-test").toFile().also { tempDirs.add(it) }
+
+    private fun randomBytes(size: Int): ByteArray = Random(size).nextBytes(size)
+
+    private fun gapMillis(first: RecordedRequest, second: RecordedRequest): Long =
+        (second.atNanos - first.atNanos) / 1_000_000
+
+    private fun assertFileEquals(expected: ByteArray, file: File) {
+        assertTrue(file.isFile, "${file.path} missing")
+        assertTrue(expected.contentEquals(file.readBytes()), "${file.path} content differs")
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * @file FaultInjectingServer.kt
+ * @brief 测试用的本地 HTTP 服务器，可以按脚本注入各种故障：错误状态码、迟迟不回应、传到一半断开连接、限速。
+ *        直接在 ServerSocket 上手写 HTTP/1.1，这样连接重置 (RST) 这种故障也能精确控制。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import java.io.BufferedInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * @brief 一次请求的处理方式。
+ */
+sealed class Fault {
+    /** @brief 正常返回文件内容 (支持 Range)。 */
+    object Serve : Fault()
+
+    /** @brief 直接返回这个状态码，没有内容。 */
+    data class Status(val code: Int) : Fault()
+
+    /** @brief 先等 [millis] 毫秒再正常返回，用来触发客户端超时。 */
+    data class Delay(val millis: Long) : Fault()
+
+    /** @brief 发完响应头和前 [afterBytes] 字节后等 [pauseMillis] 毫秒 (让客户端把已经到的数据读走)，再用 RST 断开连接。 */
+    data class Reset(val afterBytes: Int, val pauseMillis: Long = 200L) : Fault()
+
+    /** @brief 正常返回，但每秒最多发 [bytesPerSecond] 字节，模拟一台慢的服务器。 */
+    data class Throttle(val bytesPerSecond: Long) : Fault()
+}
+
+/**
+ * @brief 服务器收到的一个请求。
+ *
+ * @property path 请求路径 (不带开头的 `/`)。
+ * @property range `Range` 请求头，没有时为 `null`。
+ * @property atNanos 收到请求的时间 (`System.nanoTime()`)。
+ */
+data class RecordedRequest(val path: String, val range: String?, val atNanos: Long)
+
+/**
+ * @brief 按脚本注入故障的本地 HTTP 服务器。每个连接一个线程，每个响应后都关闭连接。
+ *        每个路径可以排一串 [Fault]，每来一个请求用掉一个；用完了就按 [defaultFault] 处理。
+ */
+class FaultInjectingServer : AutoCloseable {
+
+    private val serverSocket = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+    private val files = ConcurrentHashMap<String, ByteArray>()
+    private val scripts = ConcurrentHashMap<String, ConcurrentLinkedQueue<Fault>>()
+    private val recorded = CopyOnWriteArrayList<RecordedRequest>()
+
+    /** @brief 脚本用完 (或者没有脚本) 时的处理方式，可以随时切换，比如模拟整台服务器一阵子全回 5xx。 */
+    @Volatile
+    var defaultFault: Fault = Fault.Serve
+
+    /** @brief 监听的端口。 */
+    val port: Int get() = serverSocket.localPort
+
+    /** @brief 主机标识 (`host:port`)，跟下载器里限流、熔断用的键一样。 */
+    val host: String get() = "127.0.0.1:$port"
+
+    private val acceptThread = Thread({ acceptLoop() }, "fault-server-$port").apply {
+        isDaemon = true
+        start()
+    }
+
+    /** @brief 某个路径的完整地址。 */
+    fun url(path: String): String = "http://$host/$path"
+
+    /** @brief 放一个文件。 */
+    fun put(path: String, content: ByteArray) {
+        files[path] = content
+    }
+
+    /** @brief 给某个路径排上接下来几次请求的处理方式。 */
+    fun script(path: String, vararg faults: Fault) {
+        scripts.computeIfAbsent(path) { ConcurrentLinkedQueue() }.addAll(faults)
+    }
+
+    /** @brief 收到的所有请求。 */
+    fun requests(): List<RecordedRequest> = recorded.toList()
+
+    /** @brief 某个路径收到的请求。 */
+    fun requests(path: String): List<RecordedRequest> = recorded.filter { it.path == path }
+
+    override fun close() {
+        serverSocket.close()
+        acceptThread.join(1000)
+    }
+
+    private fun acceptLoop() {
+        while (!serverSocket.isClosed) {
+            val socket = try {
+                serverSocket.accept()
+            } catch (e: IOException) {
+                return // 服务器关了
+            }
+            Thread({ handle(socket) }, "fault-server-conn").apply {
+                isDaemon = true
+                start()
+            }
+        }
+    }
+
+    private fun handle(socket: Socket) {
+        try {
+            socket.use {
+                val input = BufferedInputStream(socket.getInputStream())
+                val requestLine = readLine(input) ?: return
+                val headers = HashMap<String, String>()
+                while (true) {
+                    val line = readLine(input) ?: return
+                    if (line.isEmpty()) break
+                    headers[line.substringBefore(':').trim().lowercase()] = line.substringAfter(':').trim()
+                }
+                val path = requestLine.split(' ').getOrNull(1)?.removePrefix("/") ?: return
+                val range = headers["range"]
+                recorded.add(RecordedRequest(path, range, System.nanoTime()))
+                val fault = scripts[path]?.poll() ?: defaultFault
+                respond(socket, socket.getOutputStream(), path, range, fault)
+            }
+        } catch (e: IOException) {
+            // 客户端超时后先断开了，之后的写入会失败，不用管
+        }
+    }
+
+    private fun respond(socket: Socket, output: OutputStream, path: String, range: String?, fault: Fault) {
+        when (fault) {
+            is Fault.Status -> writeHead(output, fault.code, "Error", 0, emptyMap())
+            is Fault.Delay -> {
+                Thread.sleep(fault.millis)
+                serve(socket, output, path, range, resetAfter = null)
+            }
+            is Fault.Reset -> serve(socket, output, path, range, resetAfter = fault)
+            is Fault.Throttle -> serve(socket, output, path, range, resetAfter = null, bytesPerSecond = fault.bytesPerSecond)
+            Fault.Serve -> serve(socket, output, path, range, resetAfter = null)
+        }
+    }
+
+    private fun serve(socket: Socket, output: OutputStream, path: String, range: String?, resetAfter: Fault.Reset?, bytesPerSecond: Long? = null) {
+        val content = files[path]
+        if (content == null) {
+            writeHead(output, 404, "Not Found", 0, emptyMap())
+            return
+        }
+        // 只支持 bytes=a- 和 bytes=a-b 两种写法，下载器也只会发这两种
+        var start = 0
+        var end = content.size - 1
+        var status = 200
+        val extraHeaders = LinkedHashMap<String, String>()
+        if (range != null && range.startsWith("bytes=")) {
+            val spec = range.removePrefix("bytes=")
+            start = spec.substringBefore('-').toInt()
+            spec.substringAfter('-').takeIf { it.isNotEmpty() }?.let { end = minOf(it.toInt(), content.size - 1) }
+            if (start >= content.size) {
+                writeHead(output, 416, "Range Not Satisfiable", 0, mapOf("Content-Range" to "bytes */${content.size}"))
+                return
+            }
+            status = 206
+            extraHeaders["Content-Range"] = "bytes $start-$end/${content.size}"
+        }
+        val length = end - start + 1
+        writeHead(output, status, if (status == 206) "Partial Content" else "OK", length, extraHeaders)
+        if (resetAfter != null) {
+            output.write(content, start, minOf(resetAfter.afterBytes, length))
+            output.flush()
+            Thread.sleep(resetAfter.pauseMillis)
+            // SO_LINGER 为 0 时 close 会直接发 RST，客户端看到的就是 "Connection reset"
+            socket.setSoLinger(true, 0)
+            socket.close()
+            return
+        }
+        if (bytesPerSecond != null) {
+            // 一小块一小块地发，每块之后按速度补上该等的时间
+            var offset = start
+            while (offset <= end) {
+                val chunk = minOf(THROTTLE_CHUNK, end - offset + 1)
+                output.write(content, offset, chunk)
+                output.flush()
+                offset += chunk
+                Thread.sleep(chunk * 1000L / bytesPerSecond)
+            }
+            return
+        }
+        output.write(content, start, length)
+        output.flush()
+    }
+
+    private fun writeHead(output: OutputStream, status: Int, reason: String, contentLength: Int, headers: Map<String, String>) {
+        val head = buildString {
+            append("HTTP/1.1 $status $reason\r\n")
+            append("Content-Length: $contentLength\r\n")
+            append("Connection: close\r\n")
+            headers.forEach { (name, value) -> append("$name: $value\r\n") }
+            append("\r\n")
+        }
+        output.write(head.toByteArray(Charsets.ISO_8859_1))
+        output.flush()
+    }
+
+    private fun readLine(input: InputStream): String? {
+        val line = StringBuilder()
+        while (true) {
+            val b = try {
+                input.read()
+            } catch (e: SocketException) {
+                return null
+            }
+            if (b < 0) return if (line.isEmpty()) null else line.toString()
+            if (b == '\n'.code) return line.toString().trimEnd('\r')
+            line.append(b.toChar())
+        }
+    }
+
+    private companion object {
+        const val THROTTLE_CHUNK = 4 * 1024 // 限速时每次发多少字节
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * @file HostCircuitBreakerTest.kt
+ * @brief `HostCircuitBreaker` 状态机的单元测试：熔断、半开时只放一个探测请求、探测成功恢复、探测失败冷却翻倍、
+ *        探测被取消时把名额让出来。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class HostCircuitBreakerTest {
+
+    private val host = "example.test"
+
+    private fun openBreaker(openDurationMillis: Long = 50L): HostCircuitBreaker {
+        val breaker = HostCircuitBreaker(windowSize = 4, minimumRequests = 4, failureRateThreshold = 0.5, openDurationMillis = openDurationMillis, maxOpenDurationMillis = 1_000L)
+        repeat(4) {
+            assertTrue(breaker.tryAcquire(host))
+            breaker.onFailure(host)
+        }
+        assertEquals(CircuitState.OPEN, state(breaker))
+        return breaker
+    }
+
+    private fun state(breaker: HostCircuitBreaker): CircuitState = breaker.metrics().single { it.host == host }.state
+
+    /**
+     * @brief 窗口里请求数不够时，失败再多也不熔断。
+     */
+    @Test
+    fun staysClosedBelowMinimumRequests() {
+        val breaker = HostCircuitBreaker(windowSize = 4, minimumRequests = 4, failureRateThreshold = 0.5)
+        repeat(3) {
+            assertTrue(breaker.tryAcquire(host))
+            breaker.onFailure(host)
+        }
+        assertEquals(CircuitState.CLOSED, state(breaker))
+    }
+
+    /**
+     * @brief 熔断期间拒绝请求；冷却结束后只放一个探测请求，探测成功就恢复。
+     */
+    @Test
+    fun admitsSingleProbeAndClosesOnSuccess() {
+        val breaker = openBreaker()
+        assertFalse(breaker.tryAcquire(host))
+        Thread.sleep(80L)
+
+        assertTrue(breaker.tryAcquire(host)) // 探测
+        assertEquals(CircuitState.HALF_OPEN, state(breaker))
+        assertFalse(breaker.tryAcquire(host)) // 探测还没结果，其它的继续拒绝
+
+        breaker.onSuccess(host)
+        assertEquals(CircuitState.CLOSED, state(breaker))
+        assertTrue(breaker.tryAcquire(host))
+        assertTrue(breaker.tryAcquire(host))
+        assertEquals(2L, breaker.metrics().single().rejected)
+    }
+
+    /**
+     * @brief 探测失败：重新熔断，冷却时间翻倍。
+     */
+    @Test
+    fun failedProbeReopensWithLongerCooldown() {
+        val breaker = openBreaker(openDurationMillis = 100L)
+        Thread.sleep(130L)
+        assertTrue(breaker.tryAcquire(host))
+        breaker.onFailure(host)
+        assertEquals(CircuitState.OPEN, state(breaker))
+        assertEquals(2L, breaker.metrics().single().timesOpened)
+
+        // 原来的冷却时间过了还在熔断 (现在是 200 毫秒)
+        Thread.sleep(130L)
+        assertFalse(breaker.tryAcquire(host))
+        Thread.sleep(100L)
+        assertTrue(breaker.tryAcquire(host))
+    }
+
+    /**
+     * @brief 探测请求被取消：没有结论，探测名额让给下一个请求。
+     */
+    @Test
+    fun cancelledProbeFreesTheSlot() {
+        val breaker = openBreaker()
+        Thread.sleep(80L)
+        assertTrue(breaker.tryAcquire(host))
+        breaker.onCancelled(host)
+        assertEquals(CircuitState.HALF_OPEN, state(breaker))
+        assertTrue(breaker.tryAcquire(host))
+        assertFalse(breaker.tryAcquire(host))
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * @file LoggerTest.kt
+ * @brief `Logger` 不会挡住调用方：控制台卡死 (后台写日志的线程阻塞在输出上) 时，
+ *        多个线程照样能很快地打出大量日志，队列满了就丢弃并计数，控制台恢复后补一条丢弃提示。
+ *        另外有一个整次资源安装的基准：以前每个文件在下载线程上同步 println 三次，
+ *        现在每个文件的日志是 DEBUG (默认关闭)，开着也只是放进队列。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import io.ktor.client.plugins.api.createClientPlugin
+import kotlinx.coroutines.runBlocking
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.OutputStream
+import java.io.PrintStream
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.thread
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertTrue
+
+class LoggerTest {
+
+    /**
+     * @brief 控制台输出一直阻塞，直到 [open] 被调用；放行之后写到内存里，方便检查内容。
+     */
+    private class GatedOutputStream : OutputStream() {
+        private val gate = CountDownLatch(1)
+        private val captured = ByteArrayOutputStream()
+
+        fun open() = gate.countDown()
+
+        fun text(): String = synchronized(captured) { captured.toString(Charsets.UTF_8) }
+
+        override fun write(b: Int) = write(byteArrayOf(b.toByte()), 0, 1)
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            gate.await()
+            synchronized(captured) { captured.write(b, off, len) }
+        }
+    }
+
+    /**
+     * @brief 8 个线程各打 20000 条日志 (远超队列容量)，控制台全程卡住：
+     *        调用方几秒内全部打完，平均每条只要几微秒；控制台放行后能看到丢弃提示。
+     */
+    @Test
+    fun loggingDoesNotBlockWhenConsoleIsStuck() {
+        val console = GatedOutputStream()
+        val originalOut = System.out
+        val originalErr = System.err
+        val stuck = PrintStream(console, true, Charsets.UTF_8)
+        System.setOut(stuck)
+        System.setErr(stuck)
+        try {
+            // 先让后台线程卡在控制台上
+            Logger.info(TAG) { "first message, the writer blocks on it" }
+
+            val threadCount = 8
+            val messagesPerThread = 20_000
+            val start = CountDownLatch(1)
+            val callerNanos = LongArray(threadCount)
+            val workers = (0 until threadCount).map { index ->
+                thread(name = "log-caller-$index") {
+                    start.await()
+                    val begin = System.nanoTime()
+                    repeat(messagesPerThread) { i -> Logger.info(TAG) { "caller $index message $i" } }
+                    callerNanos[index] = System.nanoTime() - begin
+                }
+            }
+            start.countDown()
+            val joinDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+            workers.forEach { it.join(TimeUnit.NANOSECONDS.toMillis(joinDeadline - System.nanoTime()).coerceAtLeast(1L)) }
+
+            assertTrue(workers.none { it.isAlive }, "logging callers were blocked by the stuck console")
+            val averageMicros = callerNanos.sum() / 1_000.0 / (threadCount * messagesPerThread)
+            assertTrue(averageMicros < 50.0, "average ${"%.2f".format(averageMicros)} µs per log call")
+
+            // 控制台放行：积压的日志写出去，还要补一条丢弃了多少条的提示
+            console.open()
+            val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+            while ("Log queue full, dropped" !in console.text() && System.nanoTime() < deadline) {
+                Logger.info(TAG) { "nudge" } // 后台线程每批都会先检查丢弃计数
+                Thread.sleep(50L)
+            }
+            assertTrue("Log queue full, dropped" in console.text(), "no dropped-messages notice after the console recovered")
+        } finally {
+            console.open()
+            System.setOut(originalOut)
+            System.setErr(originalErr)
+        }
+    }
+
+    /**
+     * @brief 很慢的控制台：每刷新一次 (println 一行) 要花 [CONSOLE_LINE_NANOS]，模拟 Windows 控制台或者 IDE 的输出窗口。
+     */
+    private class SlowConsole : OutputStream() {
+        override fun write(b: Int) = Unit
+
+        override fun write(b: ByteArray, off: Int, len: Int) = Unit
+
+        override fun flush() = LockSupport.parkNanos(CONSOLE_LINE_NANOS)
+    }
+
+    /**
+     * @brief 整次资源安装的日志开销：本地服务器上 [ASSET_COUNT] 个小资源文件，控制台很慢，比三种情况的安装耗时。
+     *        - println：以前的做法，每个文件在下载协程上同步 println 三次 (用客户端插件在收到响应时打印来模拟)；
+     *        - Logger DEBUG：每个文件的日志都开着，只是放进队列，由后台线程慢慢写；
+     *        - Logger INFO：默认级别，每个文件的日志连字符串都不拼。
+     *        结果打印出来 (BENCH 开头的行)，并且要求两种 Logger 都比 println 快。
+     */
+    @Test
+    fun assetInstallLoggingCost() = runBlocking {
+        val server = FaultInjectingServer()
+        val assets = List(ASSET_COUNT) { Random.nextBytes(1024) }
+        val tasks = assets.mapIndexed { index, content ->
+            val sha1 = VersionJsonStore.sha1Hex(content)
+            server.put("objects/$index", content)
+            DownloadTaskInfo(server.url("objects/$index"), "assets/objects/${sha1.take(2)}/$sha1", sha1, content.size.toLong(), "asset_object")
+        }
+        val plainClient = HttpClient(CIO)
+        val printlnClient = HttpClient(CIO) {
+            install(createClientPlugin("PerFilePrintln") {
+                onResponse { response ->
+                    val path = response.call.request.url.encodedPath
+                    println("Starting download: $path")
+                    println("File write complete: $path")
+                    println("SHA1 verified: $path")
+                }
+            })
+        }
+        val originalOut = System.out
+        val originalLevel = Logger.level
+        val dirs = mutableListOf<File>()
+        System.setOut(PrintStream(SlowConsole(), true))
+        try {
+            suspend fun install(client: HttpClient, level: LogLevel): Long {
+                Logger.level = level
+                val gameDir = Files.createTempDirectory("logger-bench").toFile().also { dirs.add(it) }
+                val begin = System.nanoTime()
+                val report = DownloadManager.executeDownloadTasks(tasks, gameDir, client, DownloadOptions())
+                val elapsedMillis = (System.nanoTime() - begin) / 1_000_000
+                assertTrue(report.isSuccessful, "failures: ${report.failures.take(3)}")
+                return elapsedMillis
+            }
+
+            install(plainClient, LogLevel.INFO) // 预热 (类加载、JIT、连接)
+            val printlnMillis = install(printlnClient, LogLevel.INFO)
+            val debugMillis = install(plainClient, LogLevel.DEBUG)
+            val infoMillis = install(plainClient, LogLevel.INFO)
+
+            originalOut.println("BENCH $ASSET_COUNT assets, ${CONSOLE_LINE_NANOS / 1_000} µs per console line: " +
+                "println $printlnMillis ms, Logger DEBUG $debugMillis ms, Logger INFO $infoMillis ms")
+            assertTrue(debugMillis < printlnMillis, "Logger at DEBUG ($debugMillis ms) was not faster than println ($printlnMillis ms)")
+            assertTrue(infoMillis < printlnMillis, "Logger at INFO ($infoMillis ms) was not faster than println ($printlnMillis ms)")
+        } finally {
+            System.setOut(originalOut)
+            Logger.level = originalLevel
+            plainClient.close()
+            printlnClient.close()
+            server.close()
+            dirs.forEach { it.deleteRecursively() }
+        }
+    }
+
+    private companion object {
+        const val TAG = "LoggerTest"
+        const val ASSET_COUNT = 1_000
+        const val CONSOLE_LINE_NANOS = 1_000_000L // 每行 1 毫秒
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * @file MirrorFailoverTest.kt
+ * @brief 两个本地服务器分别当官方源和镜像，驱动 `DownloadManager` 的换源：官方源缺文件、内容不对时换到镜像，
+ *        官方源一直出错或者比镜像慢时排名掉到镜像后面，之后的文件直接从镜像下。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class MirrorFailoverTest {
+
+    private lateinit var origin: FaultInjectingServer
+    private lateinit var mirror: FaultInjectingServer
+    private lateinit var client: HttpClient
+    private val gameDir: File = Files.createTempDirectory("mirror-test").toFile()
+
+    // 默认不对冲，每次只打一个源，请求数才好对得上
+    private val options = DownloadOptions(workerCount = 1, maxAttempts = 2, retryBaseDelayMillis = 50L, retryMaxDelayMillis = 200L)
+
+    @BeforeTest
+    fun setUp() {
+        origin = FaultInjectingServer()
+        mirror = FaultInjectingServer()
+        client = HttpClient(CIO)
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker())
+        // 官方源就是原地址 (origin)；镜像把 origin 的主机改写到 mirror
+        DownloadManager.configureMirrors(listOf(MirrorSource.OFFICIAL, MirrorSource("local", mapOf(origin.host to "http://${mirror.host}"))))
+    }
+
+    @AfterTest
+    fun tearDown() {
+        DownloadManager.configureMirrors(MirrorSource.configured())
+        DownloadManager.configureCircuitBreaker(HostCircuitBreaker())
+        client.close()
+        origin.close()
+        mirror.close()
+        gameDir.deleteRecursively()
+    }
+
+    /**
+     * @brief 官方源 404：这个地址不再重试，直接换镜像下到文件。
+     */
+    @Test
+    fun missingFileFallsThroughToNextCandidate() = runBlocking {
+        val content = Random.nextBytes(8 * 1024)
+        mirror.put("only-on-mirror.jar", content) // origin 上没有，会回 404
+
+        val report = download("only-on-mirror.jar", content, options.copy(maxAttempts = 4))
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertTrue(content.contentEquals(File(gameDir, "libraries/only-on-mirror.jar").readBytes()))
+        assertEquals(1, origin.requests("only-on-mirror.jar").size)
+        assertEquals(1, mirror.requests("only-on-mirror.jar").size)
+    }
+
+    /**
+     * @brief 两个源都没有：各问一次就放弃，不会在 404 上退避重试到次数用完。
+     */
+    @Test
+    fun givesUpWhenEveryCandidateIsMissing() = runBlocking {
+        val report = download("nowhere.jar", Random.nextBytes(1024), options.copy(maxAttempts = 4))
+
+        assertEquals(1, report.failures.size)
+        assertEquals(1, origin.requests("nowhere.jar").size)
+        assertEquals(1, mirror.requests("nowhere.jar").size)
+    }
+
+    /**
+     * @brief 官方源一直 500：前几个文件先试官方源再换镜像，样本够了以后镜像排到前面，
+     *        后面的文件直接从镜像下 (每 16 次探索一次，最多再碰官方源一次)。
+     */
+    @Test
+    fun erroringSourceIsDemoted() = runBlocking {
+        origin.defaultFault = Fault.Status(500)
+        val files = (1..11).map { index -> "lib-$index.jar" to Random.nextBytes(2 * 1024) }
+        files.forEach { (path, content) -> mirror.put(path, content) }
+
+        val reports = files.map { (path, content) -> download(path, content, options) }
+
+        assertTrue(reports.all { it.isSuccessful }, "reports: $reports")
+        val warmUp = files.take(3).sumOf { (path, _) -> origin.requests(path).size }
+        val afterRanking = files.drop(3).sumOf { (path, _) -> origin.requests(path).size }
+        assertEquals(3, warmUp)
+        assertTrue(afterRanking <= 1, "origin was still tried first $afterRanking times")
+        assertEquals(files.size, mirror.requests().size)
+
+        val metrics = DownloadManager.mirrorMetrics().filter { it.originalHost == origin.host }
+        val official = metrics.single { it.mirror == MirrorSource.OFFICIAL.name }
+        val local = metrics.single { it.mirror == "local" }
+        assertEquals(0L, official.samples)
+        assertEquals(files.size.toLong(), local.samples)
+        assertTrue(official.failureRate > local.failureRate, "metrics: $metrics")
+    }
+
+    /**
+     * @brief 官方源给的内容 SHA1 对不上：不算下载成功，换镜像重新下，官方源记一次失败。
+     */
+    @Test
+    fun wrongContentFailsOverToMirror() = runBlocking {
+        val content = Random.nextBytes(8 * 1024)
+        origin.put("tampered.jar", Random.nextBytes(content.size)) // 大小一样，内容不对
+        mirror.put("tampered.jar", content)
+
+        val report = download("tampered.jar", content, options)
+
+        assertTrue(report.isSuccessful, "failures: ${report.failures}")
+        assertTrue(content.contentEquals(File(gameDir, "libraries/tampered.jar").readBytes()))
+        assertEquals(1, origin.requests("tampered.jar").size)
+        assertEquals(1, mirror.requests("tampered.jar").size)
+        val official = DownloadManager.mirrorMetrics().single { it.originalHost == origin.host && it.mirror == MirrorSource.OFFICIAL.name }
+        assertEquals(0L, official.samples)
+        assertTrue(official.failureRate > 0.0, "official: $official")
+    }
+
+    /**
+     * @brief 两个源都能用，但官方源限速到 256 KB/s：一开始按配置顺序用官方源，
+     *        每 16 次探索一次镜像，镜像攒够样本后排到前面，之后的文件都从镜像下。
+     */
+    @Test
+    fun slowerSourceLosesRankingToFasterOne() = runBlocking {
+        origin.defaultFault = Fault.Throttle(bytesPerSecond = 256L * 1024)
+        val files = (1..64).map { index -> "asset-$index" to Random.nextBytes(16 * 1024) }
+        files.forEach { (path, content) ->
+            origin.put(path, content)
+            mirror.put(path, content)
+        }
+
+        val reports = files.map { (path, content) -> download(path, content, options) }
+
+        assertTrue(reports.all { it.isSuccessful }, "reports: $reports")
+        assertEquals(1, origin.requests(files.first().first).size, "the first file should come from the configured first source")
+        // 48 次里正好有 3 次探索，镜像的样本够了，最后 16 个文件应该都走镜像
+        val lateOriginRequests = files.takeLast(16).sumOf { (path, _) -> origin.requests(path).size }
+        assertTrue(lateOriginRequests <= 1, "origin still served $lateOriginRequests of the last 16 files")
+        assertEquals(files.size, origin.requests().size + mirror.requests().size) // 没有失败重试
+
+        val metrics = DownloadManager.mirrorMetrics().filter { it.originalHost == origin.host }
+        val official = metrics.single { it.mirror == MirrorSource.OFFICIAL.name }
+        val local = metrics.single { it.mirror == "local" }
+        assertTrue(local.samples >= 3, "metrics: $metrics")
+        assertTrue(local.latencyMillis!! < official.latencyMillis!!, "metrics: $metrics")
+    }
+
+    private suspend fun download(path: String, content: ByteArray, options: DownloadOptions): DownloadReport =
+        DownloadManager.executeDownloadTasks(
+            listOf(DownloadTaskInfo(origin.url(path), "libraries/$path", VersionJsonStore.sha1Hex(content), content.size.toLong(), "library")),
+            gameDir, client, options
+        )
+}
@@ -0,0 +1,161 @@
+/**
+ * @file MirrorSelectorTest.kt
+ * @brief 镜像源的地址改写 (包括带端口的主机) 和 `MirrorSelector` 的排名：按估算耗时排序、没测够的排后面、
+ *        一直失败的垫底、每隔 `EXPLORE_INTERVAL` 次让样本最少的源先上。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class MirrorSelectorTest {
+
+    private val url = "https://libraries.example.net/org/example/lib/1.0/lib-1.0.jar"
+    private val fast = MirrorSource("fast", mapOf("libraries.example.net" to "https://fast.example.com/maven"))
+    private val slow = MirrorSource("slow", mapOf("libraries.example.net" to "https://slow.example.com/maven/"))
+
+    private fun MirrorSelector.record(source: MirrorSource, times: Int, millis: Long, size: Long = 1024L) {
+        val candidate = candidates(url, size).single { it.mirror == source.name }
+        repeat(times) { recordSuccess(candidate, size, millis * 1_000_000L) }
+    }
+
+    private fun MirrorSelector.order(size: Long = 1024L): List<String> = candidates(url, size).map { it.mirror }
+
+    /**
+     * @brief 改写地址：路径和查询串接在前缀后面，前缀末尾的 `/` 不会重复；不提供这个主机时返回 `null`。
+     */
+    @Test
+    fun rewritesPathAndQuery() {
+        assertEquals("https://fast.example.com/maven/org/example/lib/1.0/lib-1.0.jar", fast.rewrite(url))
+        assertEquals("https://slow.example.com/maven/a/b?x=1&y=2", slow.rewrite("https://libraries.example.net/a/b?x=1&y=2"))
+        assertNull(fast.rewrite("https://other.example.net/a/b"))
+        assertEquals(url, MirrorSource.OFFICIAL.rewrite(url))
+    }
+
+    /**
+     * @brief 带端口的主机要按 `host:port` 匹配：同一个主机名换了端口就是另一个源。
+     */
+    @Test
+    fun matchesHostWithPort() {
+        val local = MirrorSource("local", mapOf("127.0.0.1:8080" to "http://127.0.0.1:9090/mirror"))
+        assertEquals("http://127.0.0.1:9090/mirror/files/a.jar", local.rewrite("http://127.0.0.1:8080/files/a.jar"))
+        assertNull(local.rewrite("http://127.0.0.1:8081/files/a.jar"))
+        assertNull(local.rewrite("http://127.0.0.1/files/a.jar"))
+        assertEquals("127.0.0.1:8080", MirrorSource.hostKey("http://127.0.0.1:8080/files/a.jar"))
+        assertEquals("libraries.example.net", MirrorSource.hostKey(url))
+    }
+
+    /**
+     * @brief 第三方镜像要自己启用：默认只有官方源，启用的名字不分大小写，不认识的忽略，官方源总在第一个。
+     */
+    @Test
+    fun thirdPartyMirrorsAreOptIn() {
+        assertEquals(listOf(MirrorSource.OFFICIAL), MirrorSource.configured(null))
+        assertEquals(listOf(MirrorSource.OFFICIAL), MirrorSource.configured(" "))
+        assertEquals(listOf(MirrorSource.OFFICIAL, MirrorSource.BMCLAPI), MirrorSource.configured("BMCLAPI, unknown"))
+    }
+
+    /**
+     * @brief 没有 SHA1 的文件校验不了镜像给的内容，只用原地址，也不算进探索的次数。
+     */
+    @Test
+    fun unverifiableFilesUseOriginalUrlOnly() {
+        val selector = MirrorSelector(listOf(MirrorSource.OFFICIAL, fast))
+        val candidates = selector.candidates(url, 1024L, verifiable = false)
+        assertEquals(listOf(url), candidates.map { it.url })
+        assertEquals(MirrorSource.OFFICIAL.name, candidates.single().mirror)
+    }
+
+    /**
+     * @brief 候选地址的主机标识来自改写后的地址，限流和熔断按真正要连的主机算。
+     */
+    @Test
+    fun candidateHostIsRewrittenHost() {
+        val selector = MirrorSelector(listOf(MirrorSource.OFFICIAL, fast))
+        val candidates = selector.candidates(url, 1024L)
+        assertEquals(listOf("libraries.example.net", "fast.example.com"), candidates.map { it.host })
+        assertEquals(listOf("official|libraries.example.net", "fast|libraries.example.net"), candidates.map { it.statsKey })
+    }
+
+    /**
+     * @brief 没有测量数据时按配置顺序；都测够之后估算更快的排前面。
+     */
+    @Test
+    fun ordersByEstimatedTime() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        assertEquals(listOf("slow", "fast"), selector.order())
+
+        selector.record(slow, times = 3, millis = 400)
+        selector.record(fast, times = 3, millis = 20)
+        assertEquals(listOf("fast", "slow"), selector.order())
+    }
+
+    /**
+     * @brief 大文件按速度估算：延迟低但带宽小的源，下大文件时会排到带宽大的后面。
+     */
+    @Test
+    fun ordersLargeFilesByThroughput() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        val big = 64L * 1024 * 1024
+        selector.record(slow, times = 3, millis = 20_000, size = big) // 约 3 MB/s
+        selector.record(fast, times = 3, millis = 2_000, size = big) // 约 32 MB/s
+        assertEquals(listOf("fast", "slow"), selector.order(size = big))
+    }
+
+    /**
+     * @brief 测够了的源排在没测够的前面，不管配置顺序。
+     */
+    @Test
+    fun measuredSourcesComeBeforeUnmeasured() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        selector.record(fast, times = 3, millis = 500)
+        selector.record(slow, times = 2, millis = 10) // 只有两个样本，还不参与排名
+        assertEquals(listOf("fast", "slow"), selector.order())
+    }
+
+    /**
+     * @brief 只失败、从没成功过的源排到最后。
+     */
+    @Test
+    fun failingSourceIsDemoted() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        selector.record(fast, times = 3, millis = 300)
+        val failing = selector.candidates(url, 1024L).single { it.mirror == "slow" }
+        repeat(3) { selector.recordFailure(failing) }
+        assertEquals(listOf("fast", "slow"), selector.order())
+    }
+
+    /**
+     * @brief 每第 16 次取候选时，样本最少的源提到最前面探索一次，其它时候按排名。
+     *        `record` 里取候选的那次调用也算次数。
+     */
+    @Test
+    fun exploresLeastSampledSourceEverySixteenthCall() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        selector.record(slow, times = 3, millis = 400) // 第 1 次
+        selector.record(fast, times = 20, millis = 20) // 第 2 次
+        for (call in 3..32) {
+            val expected = if (call % 16 == 0) listOf("slow", "fast") else listOf("fast", "slow")
+            assertEquals(expected, selector.order(), "call $call")
+        }
+    }
+
+    /**
+     * @brief 只有一个候选时不算次数，不会打乱探索的节奏。
+     */
+    @Test
+    fun singleCandidateDoesNotCountTowardsExploration() {
+        val selector = MirrorSelector(listOf(slow, fast))
+        selector.record(slow, times = 3, millis = 400) // 第 1 次
+        selector.record(fast, times = 20, millis = 20) // 第 2 次
+        repeat(40) { selector.candidates("https://other.example.net/a.jar", 1024L) } // 两个源都不提供这个主机，只剩原地址一个候选
+        for (call in 3..15) assertEquals(listOf("fast", "slow"), selector.order(), "call $call")
+        assertEquals(listOf("slow", "fast"), selector.order(), "call 16")
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * @file ObjectStoreRepairTest.kt
+ * @brief 对象仓库被改坏后的修复：实例里的文件是仓库对象的硬链接，在实例里原地改文件，仓库里的对象也跟着坏了。
+ *        修复时不能把坏掉的仓库对象再链接回来当成校验通过，要把它从仓库里删掉重新下载。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ObjectStoreRepairTest {
+
+    private val server = FaultInjectingServer()
+    private val client = HttpClient(CIO)
+    private val root: File = Files.createTempDirectory("store-repair-test").toFile()
+    private val store = ObjectStore(File(root, "objects"))
+
+    private val content = Random.nextBytes(16 * 1024)
+    private val task = DownloadTaskInfo(server.url("lib.jar"), "libraries/lib.jar", VersionJsonStore.sha1Hex(content), content.size.toLong(), "library")
+
+    @AfterTest
+    fun tearDown() {
+        client.close()
+        server.close()
+        root.deleteRecursively()
+    }
+
+    /**
+     * @brief 两个实例共用仓库里的同一个对象；在第一个实例里原地改坏文件 (大小不变) 之后修复：
+     *        仓库对象被换成好的，两个实例修复完内容都对，而且为此真的重新下载了一次。
+     */
+    @Test
+    fun repairEvictsCorruptedStoreObject() = runBlocking {
+        server.put("lib.jar", content)
+        val first = File(root, "instance-1")
+        val second = File(root, "instance-2")
+        assertTrue(install(first).isSuccessful)
+        assertTrue(install(second).isSuccessful) // 从仓库链接过来，不走网络
+        assertEquals(1, server.requests("lib.jar").size)
+
+        // 原地改写几个字节：硬链接的另外两个名字 (仓库对象、第二个实例) 看到的也是坏数据
+        RandomAccessFile(File(first, task.destinationPath), "rw").use { file ->
+            file.seek(100)
+            file.write(byteArrayOf(1, 2, 3, 4))
+        }
+        Thread.sleep(20L) // 让修改时间跟校验索引里记的不一样
+        val storeObject = store.objectFile(task.sha1)
+        val sharedLink = !content.contentEquals(storeObject.readBytes())
+
+        assertTrue(install(first).isSuccessful)
+        assertFileEquals(File(first, task.destinationPath))
+        assertFileEquals(storeObject)
+        if (sharedLink) assertEquals(2, server.requests("lib.jar").size, "corrupted store object was linked back instead of redownloaded")
+
+        assertTrue(install(second).isSuccessful)
+        assertFileEquals(File(second, task.destinationPath))
+        assertEquals(if (sharedLink) 2 else 1, server.requests("lib.jar").size) // 第二个实例用的是修好的仓库对象
+    }
+
+    private suspend fun install(gameDir: File): DownloadReport =
+        DownloadManager.executeDownloadTasks(listOf(task), gameDir, client, DownloadOptions(), objectStore = store)
+
+    private fun assertFileEquals(file: File) {
+        assertTrue(content.contentEquals(file.readBytes()), "${file.path} content differs")
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @file PresenceSnapshotTest.kt
+ * @brief `PresenceSnapshot` 的预检范围和查表，以及用仓库快照判断对象在不在 `ObjectStore` 里。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class PresenceSnapshotTest {
+
+    private val root: File = Files.createTempDirectory("presence-test").toFile()
+
+    @AfterTest
+    fun tearDown() {
+        root.deleteRecursively()
+    }
+
+    private fun write(relativePath: String, content: ByteArray): File =
+        File(root, relativePath).apply {
+            parentFile.mkdirs()
+            writeBytes(content)
+        }
+
+    /**
+     * @brief 默认只遍历库文件和资源对象：范围里没有的文件就是不存在，范围外的路径要调用方自己 stat。
+     */
+    @Test
+    fun coversOnlyScannedRoots() = runBlocking {
+        write("libraries/org/example/lib.jar", ByteArray(10))
+        write("assets/objects/ab/abcdef", ByteArray(3))
+        write("versions/1.0/1.0.jar", ByteArray(5))
+
+        val snapshot = PresenceSnapshot.scan(root)
+
+        assertEquals(2, snapshot.fileCount)
+        assertTrue(snapshot.covers("libraries/org/example/lib.jar"))
+        assertEquals(10L, snapshot.attributes("libraries/org/example/lib.jar")?.size())
+        assertTrue(snapshot.covers("assets/objects/cd/cdef01"))
+        assertNull(snapshot.attributes("assets/objects/cd/cdef01"))
+        assertFalse(snapshot.covers("versions/1.0/1.0.jar"))
+        assertTrue(snapshot.hasParentDirectory("assets/objects/ab/abcdef"))
+        assertFalse(snapshot.hasParentDirectory("assets/objects/cd/cdef01"))
+    }
+
+    /**
+     * @brief 空字符串的根表示整个目录 (对象仓库就是这么扫的)。
+     */
+    @Test
+    fun emptyRootCoversWholeDirectory() = runBlocking {
+        write("a/b.txt", ByteArray(4))
+        write("c.txt", ByteArray(1))
+
+        val snapshot = PresenceSnapshot.scan(root, listOf(""))
+
+        assertTrue(snapshot.covers("anything/at/all"))
+        assertEquals(4L, snapshot.attributes("a/b.txt")?.size())
+        assertEquals(1L, snapshot.attributes("c.txt")?.size())
+        assertNull(snapshot.attributes("a/missing.txt"))
+    }
+
+    /**
+     * @brief 仓库快照里有这个对象并且大小对得上才算在仓库里；快照之后才放进来的对象要等下次。
+     */
+    @Test
+    fun objectStoreListingUsesSnapshot() = runBlocking {
+        val store = ObjectStore(File(root, "objects"))
+        val content = "hello".toByteArray()
+        val sha1 = VersionJsonStore.sha1Hex(content)
+        assertTrue(store.adopt(write("instance/hello.txt", content), sha1))
+
+        val snapshot = PresenceSnapshot.scan(store.rootDir, listOf(""))
+        assertTrue(store.isListedIn(snapshot, sha1, content.size.toLong()))
+        assertFalse(store.isListedIn(snapshot, sha1, content.size + 1L)) // 大小不对
+
+        val later = "later".toByteArray()
+        val laterSha1 = VersionJsonStore.sha1Hex(later)
+        assertTrue(store.adopt(write("instance/later.txt", later), laterSha1))
+        assertFalse(store.isListedIn(snapshot, laterSha1, later.size.toLong()))
+        assertTrue(store.contains(laterSha1, later.size.toLong()))
+    }
+}
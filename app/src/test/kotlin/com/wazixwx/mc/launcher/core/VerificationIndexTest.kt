@@ -0,0 +1,72 @@
+/**
+ * @file VerificationIndexTest.kt
+ * @brief 同一个游戏目录上同时进行的两次安装共用一个校验索引：两边各自校验通过的文件都要记进索引文件，
+ *        不能是后保存的那个把先保存的覆盖掉，也不能留下临时文件。
+ * @author WaZixwx
+ * @date 2026-10-17
+ * @version 1.0.0
+ * @copyright Copyright (c) 2025 WaZixwx. 版权所有。
+ *            根据 MIT 许可证授权。
+ */
+package com.wazixwx.mc.launcher.core
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class VerificationIndexTest {
+
+    private val server = FaultInjectingServer()
+    private val client = HttpClient(CIO)
+    private val gameDir: File = Files.createTempDirectory("verification-index-test").toFile()
+
+    @AfterTest
+    fun tearDown() {
+        client.close()
+        server.close()
+        gameDir.deleteRecursively()
+    }
+
+    /**
+     * @brief 两个安装同时跑 (限速让它们的下载时间重叠)，各下 8 个不同的文件：
+     *        都结束后重新从磁盘加载索引，16 个文件全都能直接信任，索引目录里只剩索引文件本身。
+     */
+    @Test
+    fun concurrentInstallsKeepEachOthersEntries() = runBlocking {
+        server.defaultFault = Fault.Throttle(bytesPerSecond = 512L * 1024)
+        val installs = (1..2).map { install ->
+            (1..8).map { index ->
+                val content = Random.nextBytes(16 * 1024)
+                server.put("lib-$install-$index.jar", content)
+                DownloadTaskInfo(
+                    server.url("lib-$install-$index.jar"), "libraries/lib-$install-$index.jar",
+                    VersionJsonStore.sha1Hex(content), content.size.toLong(), "library"
+                )
+            }
+        }
+
+        val reports = installs.map { tasks ->
+            async(Dispatchers.Default) { DownloadManager.executeDownloadTasks(tasks, gameDir, client, DownloadOptions()) }
+        }.awaitAll()
+        assertTrue(reports.all { it.isSuccessful }, "reports: $reports")
+
+        val reloaded = VerificationIndex(gameDir).also { it.load() }
+        val untrusted = installs.flatten().filterNot { task ->
+            val attributes = VerificationIndex.readAttributes(File(gameDir, task.destinationPath))!!
+            reloaded.isTrusted(task.destinationPath, attributes, task.sha1)
+        }
+        assertTrue(untrusted.isEmpty(), "entries lost from the saved index: ${untrusted.map { it.destinationPath }}")
+        val indexDir = File(gameDir, VerificationIndex.INDEX_FILE_PATH).parentFile
+        assertEquals(listOf(File(VerificationIndex.INDEX_FILE_PATH).name), indexDir.list()!!.toList())
+    }
+}